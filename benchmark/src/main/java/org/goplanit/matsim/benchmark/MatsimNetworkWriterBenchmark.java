@@ -0,0 +1,158 @@
+package org.goplanit.matsim.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.goplanit.matsim.converter.MatsimNetworkWriterFactory;
+import org.goplanit.matsim.util.SyntheticNetworkGenerator;
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.id.IdGenerator;
+import org.goplanit.utils.locale.CountryNames;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of writing synthetic networks of 10k up to 5M link segments with the MATSim network writer, with and without CRS transformation
+ * and detailed geometry file. Next to the number of writes per second, the persisted elements (nodes and links) and bytes per second are
+ * reported as auxiliary counters. Run with {@code -prof gc} to report allocation rates.
+ * <p>
+ * The network is generated once per trial, outside of the measurement. The largest networks require a large heap, adjust via {@code -jvmArgsAppend}
+ * when needed.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx24g"})
+@State(Scope.Benchmark)
+public class MatsimNetworkWriterBenchmark {
+
+  /** approximate number of link segments of the generated network */
+  @Param({"10000", "100000", "1000000", "5000000"})
+  public long numberOfLinkSegments;
+
+  /** topology of the generated network */
+  @Param({"GRID", "RADIAL", "URBAN"})
+  public SyntheticNetworkGenerator.Topology topology;
+
+  /** when true, positions are transformed from WGS84 to the Australian destination CRS, otherwise WGS84 is persisted as is */
+  @Param({"false", "true"})
+  public boolean crsTransform;
+
+  /** when true, the detailed geometry file is written as well */
+  @Param({"false", "true"})
+  public boolean detailedGeometry;
+
+  /** seed of the generated network */
+  private static final long SEED = 42;
+
+  /** the generated network */
+  private MacroscopicNetwork network;
+
+  /** number of nodes and links persisted per write */
+  private long elementsPerWrite;
+
+  /** output directory of the writer */
+  private Path outputDirectory;
+
+  /**
+   * Elements and bytes persisted, reported per second
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class WriterCounters {
+
+    /** persisted nodes and links */
+    public long elements;
+
+    /** persisted bytes, all files */
+    public long bytes;
+  }
+
+  /**
+   * Total size of the files in the directory
+   *
+   * @param directory to collect size for
+   * @return size in bytes
+   * @throws IOException thrown if error
+   */
+  private static long collectDirectorySize(Path directory) throws IOException {
+    try(Stream<Path> files = Files.list(directory)) {
+      long size = 0;
+      for(var file : (Iterable<Path>) files::iterator) {
+        size += Files.size(file);
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Generate the network and create the output directory
+   *
+   * @throws IOException thrown if error
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    IdGenerator.reset();
+    network = new SyntheticNetworkGenerator(SEED).generate(topology, numberOfLinkSegments);
+    var layer = network.getTransportLayers().getFirst();
+    elementsPerWrite = layer.getNodes().size() + layer.getLinks().size();
+    outputDirectory = Files.createTempDirectory("planit-matsim-network-benchmark");
+  }
+
+  /**
+   * Remove the output directory
+   *
+   * @throws IOException thrown if error
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try(Stream<Path> paths = Files.walk(outputDirectory)) {
+      for(var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+    network = null;
+  }
+
+  /**
+   * Write the network
+   *
+   * @param counters to report persisted elements and bytes to
+   * @throws PlanItException thrown if error
+   * @throws IOException thrown if error
+   */
+  @Benchmark
+  public void writeNetwork(WriterCounters counters) throws PlanItException, IOException {
+    var networkWriter = MatsimNetworkWriterFactory.create(outputDirectory.toString(), CountryNames.AUSTRALIA);
+    if(!crsTransform) {
+      networkWriter.getSettings().setDestinationCoordinateReferenceSystem(network.getCoordinateReferenceSystem());
+    }
+    networkWriter.getSettings().setGenerateDetailedLinkGeometryFile(detailedGeometry);
+    networkWriter.write(network);
+
+    counters.elements += elementsPerWrite;
+    counters.bytes += collectDirectorySize(outputDirectory);
+  }
+}
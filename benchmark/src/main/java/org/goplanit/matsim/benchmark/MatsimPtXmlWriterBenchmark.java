@@ -0,0 +1,179 @@
+package org.goplanit.matsim.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.goplanit.matsim.converter.MatsimPtServicesWriterSettings;
+import org.goplanit.matsim.converter.MatsimPublicTransportServicesWriterFactory;
+import org.goplanit.matsim.util.SyntheticPtScenario;
+import org.goplanit.matsim.util.SyntheticPtScenarioGenerator;
+import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.id.IdGenerator;
+import org.goplanit.utils.locale.CountryNames;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of writing the MATSim transit schedule (stop facilities and transit lines) of synthetic routed services, see
+ * {@link SyntheticPtScenarioGenerator}, end to end via the routed services writer. Next to the number of writes per second, the persisted
+ * departures and bytes per second are reported as auxiliary counters, as well as the bytes written per departure. Run with {@code -prof gc}
+ * to report allocation rates.
+ * <p>
+ * The writer variants (StAX writer or direct XML emitter, sequential or parallel transit line writing) compare complete writes only, the hot
+ * paths within a write, i.e., stop facility id lookup, departure grouping and route link reference writing, are measured by
+ * {@link MatsimPtXmlWriterMicroBenchmark}.
+ * </p>
+ * <p>
+ * The scenario is generated once per trial, outside of the measurement.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx16g"})
+@State(Scope.Benchmark)
+public class MatsimPtXmlWriterBenchmark {
+
+  /** number of lines (routed services) */
+  @Param({"100", "1000"})
+  public int lines;
+
+  /** number of patterns, i.e., MATSim transit routes, per line */
+  @Param({"1", "4"})
+  public int patternsPerLine;
+
+  /** number of stops per pattern */
+  @Param({"10", "40"})
+  public int stopsPerPattern;
+
+  /** number of departures per pattern */
+  @Param({"10", "100"})
+  public int departuresPerPattern;
+
+  /** use the direct XML emitter rather than the StAX writer */
+  @Param({"false", "true"})
+  public boolean directXmlEmitter;
+
+  /** serialise transit lines in parallel */
+  @Param({"false", "true"})
+  public boolean parallelTransitLineWriting;
+
+  /** seed of the generated scenario */
+  private static final long SEED = 42;
+
+  /** the generated scenario */
+  private SyntheticPtScenario scenario;
+
+  /** output directory of the writer */
+  private Path outputDirectory;
+
+  /**
+   * Departures and bytes persisted, reported per second
+   */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class WriterCounters {
+
+    /** persisted departures */
+    public long departures;
+
+    /** persisted bytes */
+    public long bytes;
+  }
+
+  /**
+   * Bytes persisted per departure of the last write
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class DepartureCounters {
+
+    /** persisted bytes per departure */
+    public double bytesPerDeparture;
+  }
+
+  /**
+   * Total size of the files in the directory
+   *
+   * @param directory to collect size for
+   * @return size in bytes
+   * @throws IOException thrown if error
+   */
+  private static long collectDirectorySize(Path directory) throws IOException {
+    try(Stream<Path> files = Files.list(directory)) {
+      long size = 0;
+      for(var file : (Iterable<Path>) files::iterator) {
+        size += Files.size(file);
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Generate the scenario and create the output directory
+   *
+   * @throws IOException thrown if error
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    IdGenerator.reset();
+    scenario = new SyntheticPtScenarioGenerator(SEED).generate(lines, patternsPerLine, stopsPerPattern, departuresPerPattern);
+    outputDirectory = Files.createTempDirectory("planit-matsim-pt-benchmark");
+  }
+
+  /**
+   * Remove the output directory
+   *
+   * @throws IOException thrown if error
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try(Stream<Path> paths = Files.walk(outputDirectory)) {
+      for(var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+    scenario = null;
+  }
+
+  /**
+   * Write the transit schedule
+   *
+   * @param counters to report persisted departures and bytes to
+   * @param departureCounters to report persisted bytes per departure to
+   * @throws PlanItException thrown if error
+   * @throws IOException thrown if error
+   */
+  @Benchmark
+  public void writeTransitSchedule(WriterCounters counters, DepartureCounters departureCounters) throws PlanItException, IOException {
+    var settings = new MatsimPtServicesWriterSettings(outputDirectory.toString(), CountryNames.AUSTRALIA);
+    settings.setDirectXmlEmitter(directXmlEmitter);
+    settings.setParallelTransitLineWriting(parallelTransitLineWriting);
+    MatsimPublicTransportServicesWriterFactory.create(settings, scenario.getZoning()).write(scenario.getRoutedServices());
+
+    long bytes = collectDirectorySize(outputDirectory);
+    counters.departures += scenario.getNumberOfDepartures();
+    counters.bytes += bytes;
+    departureCounters.bytesPerDeparture = bytes / (double) scenario.getNumberOfDepartures();
+  }
+}
@@ -0,0 +1,232 @@
+package org.goplanit.matsim.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.goplanit.matsim.util.LongIntHashMap;
+import org.goplanit.matsim.util.MatsimDepartureTimes;
+import org.goplanit.matsim.util.MatsimRouteLinkRefs;
+import org.goplanit.matsim.util.MatsimStopFacilityIds;
+import org.goplanit.matsim.util.MatsimXmlEmitter;
+import org.goplanit.matsim.util.SyntheticPtScenario;
+import org.goplanit.matsim.util.SyntheticPtScenarioGenerator;
+import org.goplanit.utils.id.IdGenerator;
+import org.goplanit.utils.network.layer.physical.LinkSegment;
+import org.goplanit.utils.service.routed.RoutedService;
+import org.goplanit.utils.service.routed.RoutedTripSchedule;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Micro benchmarks of the hot paths of the MATSim transit schedule writer on a synthetic scenario, see {@link SyntheticPtScenarioGenerator},
+ * in isolation of file IO, i.e., the stop facility id lookup via {@link MatsimStopFacilityIds}, the grouping of trip schedules by leg timings
+ * with the ordering of their departures via {@link MatsimDepartureTimes} and writing the link references of transit routes via
+ * {@link MatsimRouteLinkRefs} into an in memory {@link MatsimXmlEmitter}. These are the helpers the transit schedule writer uses. Each operation
+ * covers all stops, routed services or patterns of the scenario respectively.
+ * <p>
+ * The writer references links by the MATSim link ids mapped and encoded upfront by its compiled network, which is internal to the writer. Here
+ * the link segments' XML ids are encoded upfront instead and looked up by link segment id.
+ * </p>
+ * <p>
+ * Departure grouping reports the bytes allocated per departure and route link reference writing the bytes written per departure as auxiliary
+ * counters.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+@State(Scope.Benchmark)
+public class MatsimPtXmlWriterMicroBenchmark {
+
+  /** number of lines (routed services) */
+  @Param({"1000"})
+  public int lines;
+
+  /** number of patterns per line */
+  @Param({"4"})
+  public int patternsPerLine;
+
+  /** number of stops per pattern */
+  @Param({"20"})
+  public int stopsPerPattern;
+
+  /** number of departures per pattern */
+  @Param({"50"})
+  public int departuresPerPattern;
+
+  /** seed of the generated scenario */
+  private static final long SEED = 42;
+
+  /** thread allocation tracking, available on HotSpot based JVMs */
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /** the generated scenario */
+  private SyntheticPtScenario scenario;
+
+  /** access link segments of all stops */
+  private LinkSegment[] stopAccessLinkSegments;
+
+  /** access node side of all stops */
+  private boolean[] stopNodeAccessDownstream;
+
+  /** stop facility ids, all stops registered */
+  private MatsimStopFacilityIds stopFacilityIds;
+
+  /** all routed services with schedule based trips */
+  private List<RoutedService> routedServices;
+
+  /** a single trip schedule per pattern */
+  private List<RoutedTripSchedule> patternTripSchedules;
+
+  /** link segment index by link segment id */
+  private LongIntHashMap linkSegmentIndexById;
+
+  /** encoded link segment XML id by link segment index */
+  private byte[][] encodedLinkSegmentIds;
+
+  /**
+   * Bytes allocated per departure of the last invocation
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class AllocationCounters {
+
+    /** bytes allocated per departure */
+    public double allocatedBytesPerDeparture;
+  }
+
+  /**
+   * Bytes written per departure of the last invocation
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class OutputCounters {
+
+    /** bytes written per departure */
+    public double bytesPerDeparture;
+  }
+
+  /**
+   * Generate the scenario, register all stop facilities and encode all link ids
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    IdGenerator.reset();
+    scenario = new SyntheticPtScenarioGenerator(SEED).generate(lines, patternsPerLine, stopsPerPattern, departuresPerPattern);
+
+    var transferConnectoids = scenario.getZoning().getTransferConnectoids();
+    stopAccessLinkSegments = new LinkSegment[transferConnectoids.size()];
+    stopNodeAccessDownstream = new boolean[transferConnectoids.size()];
+    stopFacilityIds = new MatsimStopFacilityIds();
+    int stopIndex = 0;
+    for(var transferConnectoid : transferConnectoids) {
+      stopAccessLinkSegments[stopIndex] = transferConnectoid.getAccessLinkSegment();
+      stopNodeAccessDownstream[stopIndex] = transferConnectoid.isNodeAccessDownstream();
+      stopFacilityIds.getOrRegisterId(stopAccessLinkSegments[stopIndex], stopNodeAccessDownstream[stopIndex]);
+      ++stopIndex;
+    }
+
+    var linkSegments = scenario.getNetwork().getTransportLayers().getFirst().getLinkSegments();
+    linkSegmentIndexById = new LongIntHashMap(linkSegments.size(), -1);
+    encodedLinkSegmentIds = new byte[linkSegments.size()][];
+    for(var linkSegment : linkSegments) {
+      int linkSegmentIndex = linkSegmentIndexById.getOrPutNextDenseValue(linkSegment.getId());
+      encodedLinkSegmentIds[linkSegmentIndex] = MatsimXmlEmitter.encodeAttributeValue(linkSegment.getXmlId());
+    }
+
+    routedServices = new ArrayList<>();
+    patternTripSchedules = new ArrayList<>();
+    for(var routedServicesLayer : scenario.getRoutedServices().getLayers()) {
+      for(var mode : routedServicesLayer.getSupportedModes()) {
+        for(var routedService : routedServicesLayer.getServicesByMode(mode)) {
+          routedServices.add(routedService);
+          for(var tripScheduleList : routedService.getTripInfo().getScheduleBasedTrips().groupByRelativeLegTimings().values()) {
+            patternTripSchedules.add(tripScheduleList.get(0));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Release the scenario
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    scenario = null;
+    stopFacilityIds = null;
+    linkSegmentIndexById = null;
+  }
+
+  /**
+   * Look up the stop facility id of each stop
+   *
+   * @param blackhole to consume ids
+   */
+  @Benchmark
+  public void stopFacilityIdLookup(Blackhole blackhole) {
+    for(int stopIndex = 0; stopIndex < stopAccessLinkSegments.length; ++stopIndex) {
+      blackhole.consume(stopFacilityIds.getOrRegisterId(stopAccessLinkSegments[stopIndex], stopNodeAccessDownstream[stopIndex]));
+    }
+  }
+
+  /**
+   * Group the trip schedules of each routed service by leg timings and collect the ordered departure times per group
+   *
+   * @param blackhole to consume departure times
+   * @param counters to report bytes allocated per departure to
+   */
+  @Benchmark
+  public void departureGrouping(Blackhole blackhole, AllocationCounters counters) {
+    long threadId = Thread.currentThread().getId();
+    long allocatedBytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    for(var routedService : routedServices) {
+      for(var tripScheduleList : routedService.getTripInfo().getScheduleBasedTrips().groupByRelativeLegTimings().values()) {
+        blackhole.consume(MatsimDepartureTimes.collectOrderedDepartureTimes(tripScheduleList, routedService, routedService.getXmlId()));
+      }
+    }
+    allocatedBytes = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocatedBytes;
+    counters.allocatedBytesPerDeparture = allocatedBytes / (double) scenario.getNumberOfDepartures();
+  }
+
+  /**
+   * Write the link references of the transit route of each pattern into an in memory emitter
+   *
+   * @param blackhole to consume results
+   * @param counters to report bytes written per departure to
+   * @throws XMLStreamException thrown if error
+   */
+  @Benchmark
+  public void routeLinkRefWriting(Blackhole blackhole, OutputCounters counters) throws XMLStreamException {
+    var emitter = new MatsimXmlEmitter();
+    for(var tripSchedule : patternTripSchedules) {
+      MatsimRouteLinkRefs.write(emitter, tripSchedule, 0, (xmlWriter, attributeName, linkSegment) ->
+          emitter.writeEncodedAttribute(attributeName, encodedLinkSegmentIds[linkSegmentIndexById.get(linkSegment.getId())]));
+    }
+    byte[] content = emitter.toByteArray();
+    blackhole.consume(content);
+    counters.bytesPerDeparture = content.length / (double) scenario.getNumberOfDepartures();
+  }
+}
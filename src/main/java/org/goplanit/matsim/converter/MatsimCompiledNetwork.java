@@ -0,0 +1,499 @@
+package org.goplanit.matsim.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import org.goplanit.matsim.util.LongIntHashMap;
+import org.goplanit.matsim.util.MatsimModeMaskMapping;
+import org.goplanit.matsim.util.MatsimXmlEmitter;
+import org.goplanit.matsim.util.OrderedParallelChunkProcessor;
+import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
+import org.goplanit.utils.exceptions.PlanItRunTimeException;
+import org.goplanit.utils.graph.Vertex;
+import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
+import org.goplanit.utils.network.layer.physical.Link;
+import org.goplanit.utils.network.layer.physical.Node;
+import org.goplanit.utils.unit.Unit;
+
+/**
+ * Compiled, read-only snapshot of a PLANit macroscopic network layer in the form MATSim writers require it. All information needed to
+ * write MATSim nodes and links is stored in primitive arrays (structure of arrays) indexed by a dense compiled index, so writers iterate
+ * arrays rather than navigating the PLANit object graph per link segment.
+ * <p>
+ * Nodes are indexed in the order of the layer's node container. Link segments are indexed in MATSim link writing order, i.e., per link in
+ * the order of the layer's link container its AB segment followed by its BA segment. Link segments without any activated mode are
+ * included (with an empty mode mask) so the snapshot covers the entire layer.
+ * </p>
+ * <p>
+ * Mapped node and link ids are created once and cached by index, where the PLANit link segment id can be used to look up the index. This
+ * allows the transit schedule to reference MATSim links without mapping their ids again. When requested, the ids are also encoded upfront
+ * so a {@link MatsimXmlEmitter} copies them as is.
+ * </p>
+ * <p>
+ * Once compiled the snapshot is immutable and can be shared between writers and threads.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+class MatsimCompiledNetwork {
+
+  /** the logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MatsimCompiledNetwork.class.getCanonicalName());
+
+  /** number of nodes or link segments compiled per chunk when compiling in parallel */
+  private static final int COMPILE_CHUNK_SIZE = 10000;
+
+  /** mode mask mapping used to create the mode masks */
+  private final MatsimModeMaskMapping modeMaskMapping;
+
+  /** nodes by node index */
+  private final Node[] nodes;
+
+  /** node index by PLANit node id, -1 when absent */
+  private final LongIntHashMap nodeIndexById;
+
+  /** mapped MATSim node ids by node index */
+  private final String[] nodeIds;
+
+  /** mapped MATSim node ids encoded for a {@link MatsimXmlEmitter} by node index, null when ids are not encoded */
+  private final byte[][] encodedNodeIds;
+
+  /** links by link index */
+  private final Link[] links;
+
+  /** link segments by link segment index */
+  private final MacroscopicLinkSegment[] linkSegments;
+
+  /** parent link index by link segment index */
+  private final int[] linkIndex;
+
+  /** upstream node index by link segment index */
+  private final int[] fromNodeIndex;
+
+  /** downstream node index by link segment index */
+  private final int[] toNodeIndex;
+
+  /** length in meters by link segment index */
+  private final double[] lengthMeters;
+
+  /** MATSim free speed (m/s) by link segment index */
+  private final double[] freespeedMeterSecond;
+
+  /** capacity (pcu/h) by link segment index */
+  private final double[] capacityPcuH;
+
+  /** number of lanes by link segment index */
+  private final int[] lanes;
+
+  /** mask of activated modes by link segment index, see {@link MatsimModeMaskMapping} */
+  private final long[] modeMask;
+
+  /** mapped MATSim link ids by link segment index */
+  private final String[] linkSegmentIds;
+
+  /** mapped MATSim link ids encoded for a {@link MatsimXmlEmitter} by link segment index, null when ids are not encoded */
+  private final byte[][] encodedLinkSegmentIds;
+
+  /** link segment indices in order of the layer's link segment container */
+  private final int[] linkSegmentContainerOrder;
+
+  /** link segment index by PLANit link segment id, -1 when absent */
+  private final LongIntHashMap linkSegmentIndexById;
+
+  /**
+   * Constructor
+   *
+   * @param modeMaskMapping used
+   * @param nodes by node index
+   * @param nodeIndexById node index by PLANit node id
+   * @param links by link index
+   * @param linkSegments by link segment index
+   * @param linkIndex parent link index by link segment index
+   * @param encodeIds when true mapped ids are encoded for a {@link MatsimXmlEmitter} as well
+   */
+  private MatsimCompiledNetwork(
+      MatsimModeMaskMapping modeMaskMapping, Node[] nodes, LongIntHashMap nodeIndexById, Link[] links, MacroscopicLinkSegment[] linkSegments, int[] linkIndex, boolean encodeIds) {
+    this.modeMaskMapping = modeMaskMapping;
+    this.nodes = nodes;
+    this.nodeIndexById = nodeIndexById;
+    this.nodeIds = new String[nodes.length];
+    this.encodedNodeIds = encodeIds ? new byte[nodes.length][] : null;
+    this.links = links;
+    this.linkSegments = linkSegments;
+    this.linkIndex = linkIndex;
+
+    final int numberOfLinkSegments = linkSegments.length;
+    this.fromNodeIndex = new int[numberOfLinkSegments];
+    this.toNodeIndex = new int[numberOfLinkSegments];
+    this.lengthMeters = new double[numberOfLinkSegments];
+    this.freespeedMeterSecond = new double[numberOfLinkSegments];
+    this.capacityPcuH = new double[numberOfLinkSegments];
+    this.lanes = new int[numberOfLinkSegments];
+    this.modeMask = new long[numberOfLinkSegments];
+    this.linkSegmentIds = new String[numberOfLinkSegments];
+    this.encodedLinkSegmentIds = encodeIds ? new byte[numberOfLinkSegments][] : null;
+    this.linkSegmentContainerOrder = new int[numberOfLinkSegments];
+
+    this.linkSegmentIndexById = new LongIntHashMap(numberOfLinkSegments, -1);
+    for(int index = 0; index < numberOfLinkSegments; ++index) {
+      linkSegmentIndexById.put(linkSegments[index].getId(), index);
+    }
+  }
+
+  /**
+   * Compile the primitives of a single link segment
+   *
+   * @param index of the link segment
+   * @param nodeIndexByNodeId to resolve node indices
+   * @param linkSegmentIdMapper to map link segment ids with
+   * @param restrictLinkSpeedBySupportedModes when true free speed is capped by the lowest maximum speed across all activated modes
+   */
+  private void compileLinkSegment(
+      int index,
+      LongIntHashMap nodeIndexByNodeId,
+      Function<MacroscopicLinkSegment, String> linkSegmentIdMapper,
+      boolean restrictLinkSpeedBySupportedModes) {
+    final MacroscopicLinkSegment linkSegment = linkSegments[index];
+
+    modeMask[index] = modeMaskMapping.getModeMask(linkSegment.getAllowedModes());
+    linkSegmentIds[index] = linkSegmentIdMapper.apply(linkSegment);
+    if(encodedLinkSegmentIds != null) {
+      encodedLinkSegmentIds[index] = MatsimXmlEmitter.encodeAttributeValue(linkSegmentIds[index]);
+    }
+    fromNodeIndex[index] = nodeIndexByNodeId.get(linkSegment.getUpstreamVertex().getId());
+    toNodeIndex[index] = nodeIndexByNodeId.get(linkSegment.getDownstreamVertex().getId());
+    lengthMeters[index] = Unit.KM.convertTo(Unit.METER, links[linkIndex[index]].getLengthKm());
+    if(modeMask[index] == 0) {
+      /* not written to MATSim network, modelling parameters not required */
+      return;
+    }
+
+    if(linkSegment.getLinkSegmentType() == null) {
+      throw new PlanItRunTimeException("MATSim requires link segment type to be available on link segment (id:%d)", linkSegment.getId());
+    }
+    double linkSpeedLimit = linkSegment.getPhysicalSpeedLimitKmH();
+    if(restrictLinkSpeedBySupportedModes) {
+      linkSpeedLimit = Math.min(linkSpeedLimit, modeMaskMapping.getMinimumActivatedModeSpeedKmH());
+    }
+    freespeedMeterSecond[index] = Unit.KM_HOUR.convertTo(Unit.METER_SECOND, linkSpeedLimit);
+    capacityPcuH[index] = linkSegment.getCapacityOrDefaultPcuH();
+    lanes[index] = linkSegment.getNumberOfLanes();
+  }
+
+  /**
+   * Compile a network layer into a snapshot. Mapped ids are taken from the given id mappers as is, so any post-processing of ids (e.g. making
+   * external ids unique) should be applied beforehand
+   *
+   * @param networkLayer to compile
+   * @param vertexIdMapper to map node ids with
+   * @param linkSegmentIdMapper to map link segment ids with
+   * @param modeMaskMapping to create mode masks with
+   * @param restrictLinkSpeedBySupportedModes when true free speed is capped by the lowest maximum speed across all activated modes
+   * @param chunkProcessor when non-null nodes and link segments are compiled in parallel chunks by this processor, id mappers must be thread safe
+   *                       in that case, when null they are compiled sequentially on the calling thread
+   * @param encodeIds when true mapped ids are encoded upfront so they can be written repeatedly by a {@link MatsimXmlEmitter} without encoding them again
+   * @return compiled network
+   */
+  static MatsimCompiledNetwork compile(
+      MacroscopicNetworkLayerImpl networkLayer,
+      Function<Vertex, String> vertexIdMapper,
+      Function<MacroscopicLinkSegment, String> linkSegmentIdMapper,
+      MatsimModeMaskMapping modeMaskMapping,
+      boolean restrictLinkSpeedBySupportedModes,
+      OrderedParallelChunkProcessor chunkProcessor,
+      boolean encodeIds) {
+
+    /* nodes */
+    List<Node> nodeList = new ArrayList<>();
+    networkLayer.getNodes().forEach(nodeList::add);
+    final Node[] nodes = nodeList.toArray(Node[]::new);
+    final LongIntHashMap nodeIndexByNodeId = new LongIntHashMap(nodes.length, -1);
+    for(int index = 0; index < nodes.length; ++index) {
+      nodeIndexByNodeId.put(nodes[index].getId(), index);
+    }
+
+    /* links and link segments in writing order */
+    Link[] links = new Link[Math.toIntExact(networkLayer.getLinks().size())];
+    MacroscopicLinkSegment[] linkSegments = new MacroscopicLinkSegment[Math.toIntExact(networkLayer.getLinkSegments().size())];
+    int[] linkIndex = new int[linkSegments.length];
+    int numberOfLinks = 0;
+    int numberOfLinkSegments = 0;
+    for(Link link : networkLayer.getLinks()) {
+      if(link.hasEdgeSegmentAb()) {
+        linkSegments[numberOfLinkSegments] = (MacroscopicLinkSegment) link.getEdgeSegmentAb();
+        linkIndex[numberOfLinkSegments++] = numberOfLinks;
+      }
+      if(link.hasEdgeSegmentBa()) {
+        linkSegments[numberOfLinkSegments] = (MacroscopicLinkSegment) link.getEdgeSegmentBa();
+        linkIndex[numberOfLinkSegments++] = numberOfLinks;
+      }
+      links[numberOfLinks++] = link;
+    }
+
+    final MatsimCompiledNetwork compiledNetwork = new MatsimCompiledNetwork(
+        modeMaskMapping, nodes, nodeIndexByNodeId, links, linkSegments, linkIndex, encodeIds);
+
+    OrderedParallelChunkProcessor.IntRangeTask<Void> compileNodes = (from, to) -> {
+      for(int index = from; index < to; ++index) {
+        compiledNetwork.nodeIds[index] = vertexIdMapper.apply(nodes[index]);
+        if(encodeIds) {
+          compiledNetwork.encodedNodeIds[index] = MatsimXmlEmitter.encodeAttributeValue(compiledNetwork.nodeIds[index]);
+        }
+      }
+      return null;
+    };
+    OrderedParallelChunkProcessor.IntRangeTask<Void> compileLinkSegments = (from, to) -> {
+      for(int index = from; index < to; ++index) {
+        compiledNetwork.compileLinkSegment(index, nodeIndexByNodeId, linkSegmentIdMapper, restrictLinkSpeedBySupportedModes);
+      }
+      return null;
+    };
+    if(chunkProcessor != null) {
+      chunkProcessor.process(nodes.length, COMPILE_CHUNK_SIZE, compileNodes, result -> {});
+      chunkProcessor.process(compiledNetwork.getNumberOfLinkSegments(), COMPILE_CHUNK_SIZE, compileLinkSegments, result -> {});
+    }else {
+      compileNodes.apply(0, nodes.length);
+      compileLinkSegments.apply(0, compiledNetwork.getNumberOfLinkSegments());
+    }
+
+    /* order of the link segment container, used by outputs that follow the PLANit ordering rather than the MATSim link ordering */
+    int position = 0;
+    for(MacroscopicLinkSegment linkSegment : networkLayer.getLinkSegments()) {
+      compiledNetwork.linkSegmentContainerOrder[position++] = compiledNetwork.getLinkSegmentIndex(linkSegment.getId());
+    }
+
+    LOGGER.fine(String.format("Compiled %d nodes and %d link segments for MATSim writers", nodes.length, compiledNetwork.getNumberOfLinkSegments()));
+    return compiledNetwork;
+  }
+
+  /** Mode mask mapping used to create the mode masks
+   *
+   * @return mode mask mapping
+   */
+  MatsimModeMaskMapping getModeMaskMapping() {
+    return modeMaskMapping;
+  }
+
+  /** Number of compiled nodes
+   *
+   * @return number of nodes
+   */
+  int getNumberOfNodes() {
+    return nodes.length;
+  }
+
+  /** Collect node
+   *
+   * @param nodeIndex to collect
+   * @return node
+   */
+  Node getNode(int nodeIndex) {
+    return nodes[nodeIndex];
+  }
+
+  /** Collect node index of a PLANit node
+   *
+   * @param nodeId PLANit node id
+   * @return node index, -1 when not part of the compiled network
+   */
+  int getNodeIndex(long nodeId) {
+    return nodeIndexById.get(nodeId);
+  }
+
+  /** Collect mapped MATSim node id
+   *
+   * @param nodeIndex to collect for
+   * @return mapped id
+   */
+  String getNodeId(int nodeIndex) {
+    return nodeIds[nodeIndex];
+  }
+
+  /** Verify if mapped ids have been encoded for a {@link MatsimXmlEmitter}
+   *
+   * @return true when encoded, false otherwise
+   */
+  boolean hasEncodedIds() {
+    return encodedLinkSegmentIds != null;
+  }
+
+  /** Collect encoded mapped MATSim node id, only available when {@link #hasEncodedIds()} is true
+   *
+   * @param nodeIndex to collect for
+   * @return encoded mapped id
+   */
+  byte[] getEncodedNodeId(int nodeIndex) {
+    return encodedNodeIds[nodeIndex];
+  }
+
+  /** Collect link
+   *
+   * @param linkIndex to collect
+   * @return link
+   */
+  Link getLink(int linkIndex) {
+    return links[linkIndex];
+  }
+
+  /** Number of compiled link segments
+   *
+   * @return number of link segments
+   */
+  int getNumberOfLinkSegments() {
+    return linkSegments.length;
+  }
+
+  /** Collect link segment
+   *
+   * @param index of link segment
+   * @return link segment
+   */
+  MacroscopicLinkSegment getLinkSegment(int index) {
+    return linkSegments[index];
+  }
+
+  /** Collect the link segment index for a PLANit link segment id
+   *
+   * @param linkSegmentId PLANit id of the link segment
+   * @return link segment index, -1 when not part of the compiled network
+   */
+  int getLinkSegmentIndex(long linkSegmentId) {
+    return linkSegmentIndexById.get(linkSegmentId);
+  }
+
+  /** Collect link segment index at given position in the order of the layer's link segment container
+   *
+   * @param position in container order
+   * @return link segment index
+   */
+  int getLinkSegmentIndexInContainerOrder(int position) {
+    return linkSegmentContainerOrder[position];
+  }
+
+  /** Collect parent link index of link segment
+   *
+   * @param index of link segment
+   * @return link index
+   */
+  int getLinkIndex(int index) {
+    return linkIndex[index];
+  }
+
+  /** Verify if link segment is in the direction of its parent link's geometry
+   *
+   * @param index of link segment
+   * @return true when in AB direction, false otherwise
+   */
+  boolean isDirectionAb(int index) {
+    return linkSegments[index].isDirectionAb();
+  }
+
+  /** Collect upstream node index of link segment
+   *
+   * @param index of link segment
+   * @return node index
+   */
+  int getFromNodeIndex(int index) {
+    return fromNodeIndex[index];
+  }
+
+  /** Collect downstream node index of link segment
+   *
+   * @param index of link segment
+   * @return node index
+   */
+  int getToNodeIndex(int index) {
+    return toNodeIndex[index];
+  }
+
+  /** Collect length of link segment
+   *
+   * @param index of link segment
+   * @return length in meters
+   */
+  double getLengthMeters(int index) {
+    return lengthMeters[index];
+  }
+
+  /** Collect MATSim free speed of link segment, only available when it has an activated mode
+   *
+   * @param index of link segment
+   * @return free speed in m/s
+   */
+  double getFreespeedMeterSecond(int index) {
+    return freespeedMeterSecond[index];
+  }
+
+  /** Collect capacity of link segment, only available when it has an activated mode
+   *
+   * @param index of link segment
+   * @return capacity in pcu/h
+   */
+  double getCapacityPcuH(int index) {
+    return capacityPcuH[index];
+  }
+
+  /** Collect number of lanes of link segment, only available when it has an activated mode
+   *
+   * @param index of link segment
+   * @return number of lanes
+   */
+  int getNumberOfLanes(int index) {
+    return lanes[index];
+  }
+
+  /** Collect mask of activated modes of link segment
+   *
+   * @param index of link segment
+   * @return mode mask, zero when it has no activated modes
+   */
+  long getModeMask(int index) {
+    return modeMask[index];
+  }
+
+  /** Collect mapped MATSim link id of link segment
+   *
+   * @param index of link segment
+   * @return mapped id
+   */
+  String getLinkSegmentId(int index) {
+    return linkSegmentIds[index];
+  }
+
+  /** Collect mapped MATSim link id of a PLANit link segment, falling back on the given id mapper when the link segment is not part of the
+   * compiled network
+   *
+   * @param linkSegment to collect mapped id for
+   * @param linkSegmentIdMapper to use as fallback
+   * @return mapped id
+   */
+  String getLinkSegmentId(MacroscopicLinkSegment linkSegment, Function<MacroscopicLinkSegment, String> linkSegmentIdMapper) {
+    int index = getLinkSegmentIndex(linkSegment.getId());
+    return index >= 0 && linkSegments[index] == linkSegment ? linkSegmentIds[index] : linkSegmentIdMapper.apply(linkSegment);
+  }
+
+  /** Collect encoded mapped MATSim link id of link segment, only available when {@link #hasEncodedIds()} is true
+   *
+   * @param index of link segment
+   * @return encoded mapped id
+   */
+  byte[] getEncodedLinkSegmentId(int index) {
+    return encodedLinkSegmentIds[index];
+  }
+
+  /** Collect encoded mapped MATSim link id of a PLANit link segment
+   *
+   * @param linkSegment to collect encoded mapped id for
+   * @return encoded mapped id, null when ids are not encoded or the link segment is not part of the compiled network
+   */
+  byte[] getEncodedLinkSegmentId(MacroscopicLinkSegment linkSegment) {
+    if(encodedLinkSegmentIds == null) {
+      return null;
+    }
+    int index = getLinkSegmentIndex(linkSegment.getId());
+    return index >= 0 && linkSegments[index] == linkSegment ? encodedLinkSegmentIds[index] : null;
+  }
+}
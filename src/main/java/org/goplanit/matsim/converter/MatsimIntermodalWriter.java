@@ -1,12 +1,20 @@
 package org.goplanit.matsim.converter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.goplanit.converter.idmapping.IdMapperType;
-import org.goplanit.converter.idmapping.NetworkIdMapper;
 import org.goplanit.converter.intermodal.IntermodalWriter;
+import org.goplanit.matsim.util.OrderedParallelChunkProcessor;
 import org.goplanit.network.MacroscopicNetwork;
 import org.goplanit.network.ServiceNetwork;
+import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
 import org.goplanit.service.routed.RoutedServices;
 import org.goplanit.utils.exceptions.PlanItException;
 import org.goplanit.zoning.Zoning;
@@ -24,7 +32,6 @@ import org.goplanit.zoning.Zoning;
 public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork, RoutedServices> {
   
   /** the logger */
-  @SuppressWarnings("unused")
   private static final Logger LOGGER = Logger.getLogger(MatsimIntermodalWriter.class.getCanonicalName());
         
   /** Intermodal settings to use */
@@ -35,6 +42,46 @@ public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork,
    */
   protected IdMapperType idMapper;
 
+  /**
+   * Task writing one or more files, executed concurrently with other tasks when concurrent writing is activated
+   */
+  @FunctionalInterface
+  private interface WriteTask {
+
+    /** Write the file(s) of this task
+     *
+     * @throws PlanItException thrown if error
+     */
+    void write() throws PlanItException;
+  }
+
+  /**
+   * Factory of the public transport write tasks given the network writer that prepared the network
+   */
+  @FunctionalInterface
+  private interface PtWriteTasksFactory {
+
+    /** Create the public transport write tasks
+     *
+     * @param networkWriter that prepared the network
+     * @return created tasks
+     * @throws PlanItException thrown if error
+     */
+    List<WriteTask> create(MatsimNetworkWriter networkWriter) throws PlanItException;
+  }
+
+  /**
+   * Create the network writer to use
+   *
+   * @return created network writer
+   */
+  private MatsimNetworkWriter createMatsimNetworkWriter() {
+    MatsimNetworkWriter networkWriter =
+        MatsimNetworkWriterFactory.create(getSettings().getNetworkSettings());
+    networkWriter.setIdMapperType(idMapper);
+    return networkWriter;
+  }
+
   /**
    * Persist the PLANit network as a MATSIM network to disk
    *
@@ -42,54 +89,201 @@ public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork,
    * @return the used network writer
    */
   private MatsimNetworkWriter writeMatsimNetwork(MacroscopicNetwork infrastructureNetwork) throws PlanItException {
-    MatsimNetworkWriter networkWriter =
-        MatsimNetworkWriterFactory.create(getSettings().getNetworkSettings());
+    MatsimNetworkWriter networkWriter = createMatsimNetworkWriter();
 
     /* write network */
-    networkWriter.setIdMapperType(idMapper);
     networkWriter.write(infrastructureNetwork);
     return networkWriter;
   }
 
   /**
-   * Persist the PLANit zoning as a partial MATSIM pt schedule, only containing the stops infrastructure
+   * Execute the tasks concurrently, each on its own thread, and wait for all of them to finish
    *
-   * @param parentNetworkIdMapper to use
-   * @param zoning                to extract stops information from
-   * @param infrastructureNetwork to persist as MATSIM network
+   * @param tasks to execute
+   * @throws PlanItException thrown when any of the tasks failed, the first failure (in task order) is rethrown
    */
-  private void writeMatsimPartialPtSchedule(NetworkIdMapper parentNetworkIdMapper, Zoning zoning, MacroscopicNetwork infrastructureNetwork) throws PlanItException {
-    /* zoning writer */
-    MatsimZoningWriter zoningWriter =
-        MatsimZoningWriterFactory.create(getSettings().getNetworkSettings(), infrastructureNetwork);
+  private static void executeConcurrently(List<WriteTask> tasks) throws PlanItException {
+    if(tasks.isEmpty()) {
+      return;
+    }
+    final AtomicInteger threadCounter = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), runnable -> {
+      Thread thread = new Thread(runnable, "planit-matsim-writer-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
 
-    /* prep */
-    zoningWriter.setIdMapperType(idMapper);
-    zoningWriter.setParentIdMappers(parentNetworkIdMapper);
+    try {
+      List<Future<?>> futures = new ArrayList<>(tasks.size());
+      for(var task : tasks) {
+        futures.add(executor.submit(() -> {
+          task.write();
+          return null;
+        }));
+      }
 
-    /* write zoning */
-    zoningWriter.write(zoning);
+      /* wait for all tasks, even when one fails, so no file is being written once we return */
+      Throwable firstFailure = null;
+      for(var future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if(firstFailure == null) {
+            firstFailure = e.getCause();
+          }
+        }
+      }
+
+      if(firstFailure instanceof PlanItException) {
+        throw (PlanItException) firstFailure;
+      }else if(firstFailure instanceof RuntimeException) {
+        throw (RuntimeException) firstFailure;
+      }else if(firstFailure != null) {
+        throw new PlanItException("Error while writing MATSim intermodal files concurrently", firstFailure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PlanItException("Interrupted while writing MATSim intermodal files concurrently", e);
+    }finally {
+      executor.shutdownNow();
+    }
   }
 
   /**
-   * Persist the PLANit routed services, service network, and zoning combined as a full MATSIM pt schedule
+   * Persist the PLANit network as a MATSim network to disk concurrently with the public transport files. The network is prepared up front
+   * such that its write context (id mappers, CRS transformation, transformed node coordinates and compiled network) is shared with the public
+   * transport writers, after which the network file, detailed geometry file and public transport files are written concurrently, each to its own
+   * file. The parallel steps within these tasks, i.e., chunk processing and compression, share a single worker pool bounded by the number of
+   * available processors
    *
-   * @param parentNetworkIdMapper to use
-   * @param routedServices the services running on the service network
-   * @param zoning to extract stops information from (transfer zones)
+   * @param infrastructureNetwork to persist as MATSim network
+   * @param ptTasksFactory creating the public transport write tasks given the prepared network writer
+   * @throws PlanItException thrown if error
+   */
+  private void writeConcurrently(
+      MacroscopicNetwork infrastructureNetwork, PtWriteTasksFactory ptTasksFactory) throws PlanItException {
+    LOGGER.info("Writing MATSim network and public transport files concurrently");
+    MatsimNetworkWriter networkWriter = createMatsimNetworkWriter();
+
+    ExecutorService sharedWorkerExecutor = OrderedParallelChunkProcessor.createSharedExecutor(OrderedParallelChunkProcessor.getDefaultNumberOfThreads());
+    final MacroscopicNetworkLayerImpl networkLayer;
+    try {
+      networkWriter.setSharedWorkerExecutor(sharedWorkerExecutor);
+
+      /* prepare (and compile) network on the shared worker pool, after which the network files are independent of the public transport files */
+      networkLayer = networkWriter.prepareWrite(infrastructureNetwork);
+
+      List<WriteTask> tasks = new ArrayList<>();
+      if(networkLayer != null) {
+        tasks.add(() -> networkWriter.writeXmlNetworkFile(networkLayer));
+        if(getSettings().getNetworkSettings().isGenerateDetailedLinkGeometryFile()) {
+          tasks.add(() -> networkWriter.writeDetailedGeometryFile(networkLayer));
+        }
+      }
+      tasks.addAll(ptTasksFactory.create(networkWriter));
+      executeConcurrently(tasks);
+    }finally {
+      networkWriter.setSharedWorkerExecutor(null);
+      sharedWorkerExecutor.shutdownNow();
+    }
+
+    if(networkLayer != null) {
+      networkWriter.logWriterStats();
+    }
+  }
+
+  /**
+   * Create a writer persisting the PLANit zoning as a partial MATSIM pt schedule, only containing the stops infrastructure, and the
+   * matrix based pt router files. It uses the zoning settings of this writer, with the infrastructure network as reference network, and shares
+   * the write context (id mappers, CRS transformation, transformed node coordinates, compiled network) and (when writing concurrently) worker
+   * pool of the network writer
    *
+   * @param networkWriter that persisted or prepared the network
+   * @param infrastructureNetwork persisted as MATSIM network
+   * @return created zoning writer
    */
-  private void writeMatsimFullPtSchedule(NetworkIdMapper parentNetworkIdMapper, RoutedServices routedServices, Zoning zoning) throws PlanItException {
+  private MatsimZoningWriter createMatsimZoningWriter(MatsimNetworkWriter networkWriter, MacroscopicNetwork infrastructureNetwork) {
+    getSettings().getZoningSettings().setReferenceNetwork(infrastructureNetwork);
+    MatsimZoningWriter zoningWriter =
+        MatsimZoningWriterFactory.create(getSettings().getZoningSettings(), getSettings().getNetworkSettings());
+
+    zoningWriter.setIdMapperType(idMapper);
+    zoningWriter.setSharedWriteContext(networkWriter.getWriteContext());
+    zoningWriter.setSharedWorkerExecutor(networkWriter.getSharedWorkerExecutor());
+    return zoningWriter;
+  }
 
-    /* routed services writer */
+  /**
+   * Create a writer persisting the PLANit routed services, service network, and zoning combined as a full MATSIM pt schedule. It shares the
+   * write context (id mappers, CRS transformation, transformed node coordinates, compiled network) and (when writing concurrently) worker pool
+   * of the network writer
+   *
+   * @param networkWriter that persisted or prepared the network
+   * @param zoning to extract stops information from (transfer zones)
+   * @return created routed services writer
+   */
+  private MatsimRoutedServicesWriter createMatsimRoutedServicesWriter(MatsimNetworkWriter networkWriter, Zoning zoning) {
     var routedServicesWriter = MatsimPublicTransportServicesWriterFactory.create(getSettings(), zoning);
 
-    /* prep */
     routedServicesWriter.setIdMapperType(idMapper);
-    routedServicesWriter.setParentIdMappers(parentNetworkIdMapper);
+    routedServicesWriter.setSharedWriteContext(networkWriter.getWriteContext());
+    routedServicesWriter.setSharedWorkerExecutor(networkWriter.getSharedWorkerExecutor());
+    return routedServicesWriter;
+  }
+
+  /**
+   * Create the tasks persisting the PLANit zoning as a partial MATSIM pt schedule, only containing the stops infrastructure, and the
+   * (optional) matrix based pt router files. The zoning writer is prepared before the tasks are created
+   *
+   * @param networkWriter that prepared the network, providing the write context
+   * @param zoning to extract stops information from
+   * @param infrastructureNetwork to persist as MATSIM network
+   * @return tasks writing the files, empty when zoning cannot be written
+   */
+  private List<WriteTask> createMatsimPartialPtScheduleTasks(
+      MatsimNetworkWriter networkWriter, Zoning zoning, MacroscopicNetwork infrastructureNetwork) throws PlanItException {
+    MatsimZoningWriter zoningWriter = createMatsimZoningWriter(networkWriter, infrastructureNetwork);
+
+    List<WriteTask> tasks = new ArrayList<>();
+    if(!zoningWriter.prepareWrite(zoning)) {
+      return tasks;
+    }
+    tasks.add(() -> zoningWriter.writeXmlTransitScheduleFile(zoning));
+    if(zoningWriter.getSettings().isGenerateMatrixBasedPtRouterFiles()) {
+      tasks.add(() -> zoningWriter.writeMatrixBasedPtRouterFiles(zoning));
+    }
+    return tasks;
+  }
+
+  /**
+   * Create the tasks persisting the PLANit routed services, service network, and zoning combined as a full MATSIM pt schedule. The routed
+   * services writer is prepared before the task is created
+   *
+   * @param networkWriter that prepared the network, providing the write context
+   * @param routedServices the services running on the service network
+   * @param zoning to extract stops information from (transfer zones)
+   * @return tasks writing the files, empty when routed services cannot be written
+   */
+  private List<WriteTask> createMatsimFullPtScheduleTasks(
+      MatsimNetworkWriter networkWriter, RoutedServices routedServices, Zoning zoning) throws PlanItException {
+    List<WriteTask> tasks = new ArrayList<>();
+    var routedServicesWriter = createMatsimRoutedServicesWriter(networkWriter, zoning);
+    if(routedServicesWriter.prepareWrite(routedServices)) {
+      tasks.add(() -> routedServicesWriter.writeXmlTransitScheduleFile(routedServices));
+    }
+    return tasks;
+  }
 
-    /* write routed services */
-    routedServicesWriter.write(routedServices);
+  /**
+   * Execute the tasks one by one
+   *
+   * @param tasks to execute
+   * @throws PlanItException thrown if error
+   */
+  private static void executeSequentially(List<WriteTask> tasks) throws PlanItException {
+    for(var task : tasks) {
+      task.write();
+    }
   }
 
   /** Constructor 
@@ -102,7 +296,8 @@ public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork,
   }  
       
   /**
-   * Persist the PLANit network and zoning as a MATSim network to disk
+   * Persist the PLANit network and zoning as a MATSim network to disk. The stops are persisted as a partial transit schedule, together with the
+   * (optional) matrix based pt router files, both configured via the zoning settings of this writer
    * 
    * @param infrastructureNetwork to persist as MATSim network
    * @param zoning to extract public transport infrastructure from (poles, platforms, stations)
@@ -120,16 +315,21 @@ public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork,
             "Destination country for intermodal writer should be identical for both network and zoning writer, but found %s and %s instead",
             getSettings().getNetworkSettings().getCountry(), getSettings().getZoningSettings().getCountry()));
 
+    if(getSettings().isConcurrentWriting()) {
+      writeConcurrently(infrastructureNetwork, networkWriter -> createMatsimPartialPtScheduleTasks(networkWriter, zoning, infrastructureNetwork));
+      return;
+    }
+
     /* network writer */
     var networkWriter = writeMatsimNetwork(infrastructureNetwork);
 
     /* zoning writer, only persisting stops in absence of services */
-    writeMatsimPartialPtSchedule(networkWriter.getPrimaryIdMapper(), zoning, infrastructureNetwork);
+    executeSequentially(createMatsimPartialPtScheduleTasks(networkWriter, zoning, infrastructureNetwork));
   }
 
 
   /**
-   * Persist the PLANit network and zoning as a MATSIM compatible network to disk
+   * Persist the PLANit network and zoning as a MATSIM compatible network to disk, including the services in the transit schedule
    *
    * @param zoning to extract public transport infrastructure from (poles, platforms, stations)
    * @param routedServices to extract service routing information from
@@ -142,11 +342,16 @@ public class MatsimIntermodalWriter implements IntermodalWriter<ServiceNetwork,
     PlanItException.throwIfNull(zoning, "Zoning is null when persisting MATSim intermodal network");
     PlanItException.throwIfNull(infrastructureNetwork, "Infrastructure network is null when persisting MATSim intermodal network");
 
+    if(getSettings().isConcurrentWriting()) {
+      writeConcurrently(infrastructureNetwork, networkWriter -> createMatsimFullPtScheduleTasks(networkWriter, routedServices, zoning));
+      return;
+    }
+
     /* network writer */
     var networkWriter = writeMatsimNetwork(infrastructureNetwork);
 
     /* persist PT stops, services and schedule*/
-    writeMatsimFullPtSchedule(networkWriter.getPrimaryIdMapper(), routedServices, zoning);
+    executeSequentially(createMatsimFullPtScheduleTasks(networkWriter, routedServices, zoning));
   }
 
 
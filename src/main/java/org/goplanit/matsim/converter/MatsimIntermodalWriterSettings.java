@@ -26,6 +26,13 @@ public class MatsimIntermodalWriterSettings extends PlanitMatsimWriterSettings i
   /** the routed services settings to use, mutual exclusive to zoning settings */
   protected final MatsimPtServicesWriterSettings ptServicesSettings;
 
+  /** when set to true, the network files and the public transport files are written concurrently once the network is prepared (id mappers,
+   * transformed node coordinates, compiled network), each to its own file, default is false */
+  private boolean concurrentWriting = DEFAULT_CONCURRENT_WRITING;
+
+  /** default for writing network and public transport files concurrently */
+  public static final boolean DEFAULT_CONCURRENT_WRITING = false;
+
   /**
    * Constructor based on settings for zoning and network from which pt services settings will be created (sharing the mode mapping from the network)
    *
@@ -71,6 +78,7 @@ public class MatsimIntermodalWriterSettings extends PlanitMatsimWriterSettings i
    */
   @Override
   public void reset() {
+    concurrentWriting = DEFAULT_CONCURRENT_WRITING;
     networkSettings.reset();
     zoningSettings.reset();
     ptServicesSettings.reset();
@@ -98,6 +106,23 @@ public class MatsimIntermodalWriterSettings extends PlanitMatsimWriterSettings i
   }
 
 
+  /** Verify if network and public transport files are written concurrently
+   *
+   * @return true when active, false otherwise
+   */
+  public boolean isConcurrentWriting() {
+    return concurrentWriting;
+  }
+
+  /** Set if network files (network, detailed geometry) and public transport files (transit schedule, matrix based router files) are to be
+   * written concurrently after the network has been prepared. Output is identical to sequential writing
+   *
+   * @param concurrentWriting flag to set
+   */
+  public void setConcurrentWriting(boolean concurrentWriting) {
+    this.concurrentWriting = concurrentWriting;
+  }
+
   /** set the output directory to use on both network and zoning settings
    * @param outputDirectory to use
    */
@@ -137,4 +162,28 @@ public class MatsimIntermodalWriterSettings extends PlanitMatsimWriterSettings i
     getPtServicesSettings().setDecimalFormat(decimalFormat);
   }
 
+  /** Set whether XML output files are gzip compressed (*.xml.gz) for all underlying writers
+   *
+   * @param compressOutput when true compress, otherwise do not
+   */
+  @Override
+  public void setCompressOutput(boolean compressOutput) {
+    super.setCompressOutput(compressOutput);
+    getNetworkSettings().setCompressOutput(compressOutput);
+    getZoningSettings().setCompressOutput(compressOutput);
+    getPtServicesSettings().setCompressOutput(compressOutput);
+  }
+
+  /** Set whether XML output files are written with the direct UTF-8 emitter rather than StAX for all underlying writers
+   *
+   * @param directXmlEmitter when true use direct emitter, otherwise use StAX
+   */
+  @Override
+  public void setDirectXmlEmitter(boolean directXmlEmitter) {
+    super.setDirectXmlEmitter(directXmlEmitter);
+    getNetworkSettings().setDirectXmlEmitter(directXmlEmitter);
+    getZoningSettings().setDirectXmlEmitter(directXmlEmitter);
+    getPtServicesSettings().setDirectXmlEmitter(directXmlEmitter);
+  }
+
 }
@@ -1,19 +1,20 @@
 package org.goplanit.matsim.converter;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.function.Function;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
@@ -21,11 +22,14 @@ import javax.xml.stream.XMLStreamWriter;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.geotools.geometry.jts.JTS;
-import org.goplanit.converter.idmapping.IdMapperFunctionFactory;
 import org.goplanit.converter.idmapping.IdMapperType;
 import org.goplanit.converter.idmapping.NetworkIdMapper;
 import org.goplanit.converter.idmapping.PlanitComponentIdMapper;
 import org.goplanit.converter.network.NetworkWriter;
+import org.goplanit.matsim.util.FixedPrecisionFormatter;
+import org.goplanit.matsim.util.LongIntHashMap;
+import org.goplanit.matsim.util.MatsimModeMaskMapping;
+import org.goplanit.matsim.util.MatsimXmlEmitter;
 import org.goplanit.matsim.xml.MatsimNetworkAttributes;
 import org.goplanit.matsim.xml.MatsimNetworkElements;
 import org.goplanit.network.MacroscopicNetwork;
@@ -36,16 +40,16 @@ import org.goplanit.utils.exceptions.PlanItRunTimeException;
 import org.goplanit.utils.graph.Vertex;
 import org.goplanit.utils.misc.Pair;
 import org.goplanit.utils.misc.StringUtils;
-import org.goplanit.utils.mode.Mode;
 import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
 import org.goplanit.utils.network.layer.physical.Link;
 import org.goplanit.utils.network.layer.physical.Node;
-import org.goplanit.utils.unit.Unit;
 import org.goplanit.utils.xml.PlanitXmlWriterUtils;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 
 /**
  * A class that takes a PLANit network and writes it as a MATSIM network. 
@@ -66,6 +70,9 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
   
   /** track number of MATSim links persisted */
   private final LongAdder matsimLinkCounter = new LongAdder();
+
+  /** track number of link geometry points removed by simplification in the detailed geometry file */
+  private final LongAdder matsimGeometryPointsRemovedCounter = new LongAdder();
                 
   /**
    * validate the settings making sure minimal output information is available
@@ -104,18 +111,60 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
     return uniqueExternalId;
   }
   
-  /** write a MATSIM link for given PLANit link segment
+  /** Resolve unique external ids of all link segments with an activated mode. Unique external ids depend on the order in which link
+   * segments are visited, so they are resolved upfront in link writing order, afterwards the id mapper yields the unique id directly
+   *
+   * @param networkLayer to resolve link segment ids for
+   * @param modeMaskMapping mapping from PLANit mode to MATSIM mode string and mode mask bit
+   */
+  private void resolveUniqueExternalIds(MacroscopicNetworkLayerImpl networkLayer, MatsimModeMaskMapping modeMaskMapping) {
+    final var linkSegmentIdMapper = getComponentIdMappers().getNetworkIdMappers().getLinkSegmentIdMapper();
+    Consumer<MacroscopicLinkSegment> resolveUniqueId = linkSegment -> {
+      if(modeMaskMapping.getModeMask(linkSegment.getAllowedModes()) != 0) {
+        setUniqueExternalIdIfNeeded(linkSegment, linkSegmentIdMapper.apply(linkSegment), usedExternalMatsimLinkIds);
+      }
+    };
+    for(Link link : networkLayer.getLinks()) {
+      if(link.hasEdgeSegmentAb()) {
+        resolveUniqueId.accept((MacroscopicLinkSegment) link.getEdgeSegmentAb());
+      }
+      if(link.hasEdgeSegmentBa()) {
+        resolveUniqueId.accept((MacroscopicLinkSegment) link.getEdgeSegmentBa());
+      }
+    }
+  }
+
+  /** Compile the network layer into the snapshot from which the MATSim nodes, links, and detailed geometry are written
+   *
+   * @param networkLayer to compile
+   * @return compiled network
+   */
+  private MatsimCompiledNetwork compileNetwork(MacroscopicNetworkLayerImpl networkLayer) {
+    MatsimModeMaskMapping modeMaskMapping = settings.collectActivatedPlanitModeToMatsimModeMaskMapping(networkLayer);
+    if(getIdMapperType() == IdMapperType.EXTERNAL_ID) {
+      resolveUniqueExternalIds(networkLayer, modeMaskMapping);
+    }
+
+    var networkIdMappers = getComponentIdMappers().getNetworkIdMappers();
+    return MatsimCompiledNetwork.compile(
+        networkLayer,
+        networkIdMappers.getVertexIdMapper(),
+        networkIdMappers.getLinkSegmentIdMapper(),
+        modeMaskMapping,
+        getSettings().isRestrictLinkSpeedBySupportedModes(),
+        settings.isParallelLinkWriting() ? createChunkProcessor() : null,
+        settings.isDirectXmlEmitter());
+  }
+
+  /** write a MATSIM link for given compiled link segment
    * @param xmlWriter to use
-   * @param linkSegment link segment to write
-   * @param planitModeToMatsimModeMapping quick mapping from PLANit mode to MATSIM mode string
+   * @param compiledNetwork to draw from
+   * @param index of the link segment in the compiled network
    */
-  private void writeMatsimLink(
-      XMLStreamWriter xmlWriter, 
-      MacroscopicLinkSegment linkSegment, 
-      Map<Mode, String> planitModeToMatsimModeMapping){
+  private void writeMatsimLink(XMLStreamWriter xmlWriter, MatsimCompiledNetwork compiledNetwork, int index){
         
-    
-    if(Collections.disjoint(planitModeToMatsimModeMapping.keySet(), linkSegment.getAllowedModes())) {
+    long modeMask = compiledNetwork.getModeMask(index);
+    if(modeMask == 0) {
       /* link segment has no modes that are activated on the MATSIM network -> ignore */
       return;
     }
@@ -128,60 +177,49 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
       {
         /** GEOGRAPHY **/
         {
-          var networkIdMappers = getComponentIdMappers().getNetworkIdMappers();
           /* ID */
-          String matsimLinkId = setUniqueExternalIdIfNeeded(linkSegment, networkIdMappers.getLinkSegmentIdMapper().apply(linkSegment), usedExternalMatsimLinkIds);
-
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.ID, matsimLinkId);
+          final boolean encodedIds = compiledNetwork.hasEncodedIds();
+          writeIdAttribute(xmlWriter, MatsimNetworkAttributes.ID, 
+              compiledNetwork.getLinkSegmentId(index), encodedIds ? compiledNetwork.getEncodedLinkSegmentId(index) : null);
     
           /* FROM node */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.FROM, networkIdMappers.getVertexIdMapper().apply(linkSegment.getUpstreamVertex()));
+          int fromNodeIndex = compiledNetwork.getFromNodeIndex(index);
+          writeIdAttribute(xmlWriter, MatsimNetworkAttributes.FROM, 
+              compiledNetwork.getNodeId(fromNodeIndex), encodedIds ? compiledNetwork.getEncodedNodeId(fromNodeIndex) : null);
           
           /* TO node */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.TO, networkIdMappers.getVertexIdMapper().apply(linkSegment.getDownstreamVertex()));
+          int toNodeIndex = compiledNetwork.getToNodeIndex(index);
+          writeIdAttribute(xmlWriter, MatsimNetworkAttributes.TO, 
+              compiledNetwork.getNodeId(toNodeIndex), encodedIds ? compiledNetwork.getEncodedNodeId(toNodeIndex) : null);
           
           /* LENGTH */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.LENGTH, String.format("%.2f",Unit.KM.convertTo(Unit.METER, linkSegment.getParentLink().getLengthKm())));  
-        }
-        
-        if(linkSegment.getLinkSegmentType() == null) {
-          throw new PlanItRunTimeException(String.format("MATSim requires link segment type to be available on link segment (id:%d)",linkSegment.getId()));
+          writeDecimalAttribute(xmlWriter, MatsimNetworkAttributes.LENGTH, compiledNetwork.getLengthMeters(index), FixedPrecisionFormatter.TWO_DECIMALS);
         }
                 
         /** MODELLING PARAMETERS **/
         {
           /* SPEED */
-          double linkSpeedLimit = linkSegment.getPhysicalSpeedLimitKmH();
-          if(getSettings().isRestrictLinkSpeedBySupportedModes()) {
-            double minModeSpeed = planitModeToMatsimModeMapping.keySet().stream().map(m -> m.getMaximumSpeedKmH()).sorted().findFirst().orElse(linkSpeedLimit);
-            linkSpeedLimit = Math.min(linkSpeedLimit, minModeSpeed);
-          }
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.FREESPEED_METER_SECOND, 
-              String.format("%.2f",Unit.KM_HOUR.convertTo(Unit.METER_SECOND, linkSpeedLimit)));
+          writeDecimalAttribute(xmlWriter, MatsimNetworkAttributes.FREESPEED_METER_SECOND, 
+              compiledNetwork.getFreespeedMeterSecond(index), FixedPrecisionFormatter.TWO_DECIMALS);
           
           /* CAPACITY */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.CAPACITY_HOUR, String.format("%.1f",linkSegment.getCapacityOrDefaultPcuH()));
+          writeDecimalAttribute(xmlWriter, MatsimNetworkAttributes.CAPACITY_HOUR, compiledNetwork.getCapacityPcuH(index), FixedPrecisionFormatter.ONE_DECIMAL);
           
           /* PERMLANES */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.PERMLANES, String.valueOf(linkSegment.getNumberOfLanes()));
+          xmlWriter.writeAttribute(MatsimNetworkAttributes.PERMLANES, String.valueOf(compiledNetwork.getNumberOfLanes(index)));
           
           /* MODES */
-          Set<String> matsimModes = new TreeSet<String>();
-          for(Mode planitMode : linkSegment.getAllowedModes()) {
-            if(planitModeToMatsimModeMapping.containsKey(planitMode)) {
-              matsimModes.add(planitModeToMatsimModeMapping.get(planitMode));
-            }
-          }
-          String allowedModes = matsimModes.stream().collect(Collectors.joining(","));
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.MODES,allowedModes);
+          xmlWriter.writeAttribute(MatsimNetworkAttributes.MODES, compiledNetwork.getModeMaskMapping().getEntry(modeMask).getMatsimModes());
         }
         
         /** OTHER **/
         {
+          MacroscopicLinkSegment linkSegment = compiledNetwork.getLinkSegment(index);
+          
           /* VOLUME not yet supported */
           
           /* ORIG ID */
-          Object originalExternalId = linkSegment.getExternalId() != null ? linkSegment.getExternalId() : linkSegment.getParentLink().getExternalId();
+          Object originalExternalId = linkSegment.getExternalId() != null ? linkSegment.getExternalId() : compiledNetwork.getLink(compiledNetwork.getLinkIndex(index)).getExternalId();
           if(originalExternalId!= null) {
             xmlWriter.writeAttribute(MatsimNetworkAttributes.ORIGID, String.valueOf(originalExternalId));
           }
@@ -210,49 +248,55 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
       PlanitXmlWriterUtils.writeNewLine(xmlWriter);
     } catch (XMLStreamException e) {
       LOGGER.severe(e.getMessage());
+      MacroscopicLinkSegment linkSegment = compiledNetwork.getLinkSegment(index);
       throw new PlanItRunTimeException(String.format("error while writing MATSim link XML element %s (id:%d)",linkSegment.getExternalId(), linkSegment.getId()));
     }
   }    
 
-  /** Write a PLANit link with one or two link segments as MATSIM link(s) 
-   * 
-   * @param xmlWriter to use
-   * @param link to extract MATSIM link(s) from
-   * @param planitModeToMatsimModeMapping quick mapping from PLANit mode to MATSIM mode string
+  /** Write the links in contiguous chunks that are serialised in parallel and appended to the document in their original order,
+   * resulting in identical output to writing them one by one
+   *
+   * @param xmlFileWriterPair to append the chunks to
+   * @param compiledNetwork to draw from
    */
-  private void writeMatsimLink(
-      XMLStreamWriter xmlWriter, 
-      Link link, 
-      Map<Mode, String> planitModeToMatsimModeMapping){
-    
-    /* A --> B */
-    if(link.hasEdgeSegmentAb()) {
-      writeMatsimLink(xmlWriter, (MacroscopicLinkSegment) link.getEdgeSegmentAb(), planitModeToMatsimModeMapping);
-    }
-    
-    /* A <-- B */
-    if(link.hasEdgeSegmentBa()) {
-      writeMatsimLink(xmlWriter, (MacroscopicLinkSegment) link.getEdgeSegmentBa(), planitModeToMatsimModeMapping);
-    }
-    
-  }  
+  private void writeMatsimLinksInParallel(Pair<XMLStreamWriter,Writer> xmlFileWriterPair, MatsimCompiledNetwork compiledNetwork) {
+    final int numberOfLinkSegments = compiledNetwork.getNumberOfLinkSegments();
+    final int chunkSize = Math.max(1, settings.getParallelLinkChunkSize());
+    final boolean useEmitter = xmlFileWriterPair.first() instanceof MatsimXmlEmitter;
+    createChunkProcessor().process(numberOfLinkSegments, chunkSize,
+        (chunkStart, chunkEnd) -> {
+          try {
+            var xmlChunk = new MatsimXmlChunk(useEmitter);
+            for(int index = chunkStart; index < chunkEnd; ++index) {
+              writeMatsimLink(xmlChunk.getXmlWriter(), compiledNetwork, index);
+            }
+            return xmlChunk.complete();
+          }catch(XMLStreamException e) {
+            LOGGER.severe(e.getMessage());
+            throw new PlanItRunTimeException("Error while writing chunk of MATSim link XML elements");
+          }
+        },
+        xmlChunk -> xmlChunk.appendTo(xmlFileWriterPair));
+  }
 
   /** write the links
    * 
-   * @param xmlWriter to use
-   * @param networkLayer to extract from
+   * @param xmlFileWriterPair to use
+   * @param compiledNetwork to draw from
    * @throws PlanItException thrown if error
    */
-  private void writeMatsimLinks(
-      XMLStreamWriter xmlWriter, 
-      MacroscopicNetworkLayerImpl networkLayer) throws PlanItException {
+  private void writeMatsimLinks(Pair<XMLStreamWriter,Writer> xmlFileWriterPair, MatsimCompiledNetwork compiledNetwork) throws PlanItException {
+    XMLStreamWriter xmlWriter = xmlFileWriterPair.first();
     try {
       writeStartElementNewLine(xmlWriter,MatsimNetworkElements.LINKS, true /* ++indent */);
       
-      Map<Mode, String> planitModeToMatsimModeMapping = settings.collectActivatedPlanitModeToMatsimModeMapping(networkLayer);
-      /* write link(segments) one by one */
-      for(Link link: networkLayer.getLinks()) {
-        writeMatsimLink(xmlWriter, link, planitModeToMatsimModeMapping);
+      if(settings.isParallelLinkWriting()) {
+        writeMatsimLinksInParallel(xmlFileWriterPair, compiledNetwork);
+      }else {
+        /* write link(segments) one by one */
+        for(int index = 0; index < compiledNetwork.getNumberOfLinkSegments(); ++index) {
+          writeMatsimLink(xmlWriter, compiledNetwork, index);
+        }
       }
       
       writeEndElementNewLine(xmlWriter, true /*-- indent */); // LINKS
@@ -265,9 +309,11 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
   
   /** Write a PLANit node as MATSIM node 
    * @param xmlWriter to use
-   * @param node to write
+   * @param compiledNetwork to draw from
+   * @param nodeIndex of the node in the compiled network
    */
-  private void writeMatsimNode(XMLStreamWriter xmlWriter, Node node){
+  private void writeMatsimNode(XMLStreamWriter xmlWriter, MatsimCompiledNetwork compiledNetwork, int nodeIndex){
+    Node node = compiledNetwork.getNode(nodeIndex);
     try {
       PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimNetworkElements.NODE, getIndentLevel());           
       matsimNodeCounter.increment();
@@ -275,17 +321,18 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
       /* attributes  of element*/
       {
         /* ID */
-        xmlWriter.writeAttribute(MatsimNetworkAttributes.ID, getComponentIdMappers().getNetworkIdMappers().getVertexIdMapper().apply(node));
+        writeIdAttribute(xmlWriter, MatsimNetworkAttributes.ID, 
+            compiledNetwork.getNodeId(nodeIndex), compiledNetwork.hasEncodedIds() ? compiledNetwork.getEncodedNodeId(nodeIndex) : null);
         
         /* geometry of the node (optional) */
-        Coordinate nodeCoordinate = extractDestinationCrsCompatibleCoordinate(node.getPosition());
+        Coordinate nodeCoordinate = extractDestinationCrsCompatibleCoordinate(node);
         if(nodeCoordinate != null) {        
           /* X */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.X, settings.getDecimalFormat().format(nodeCoordinate.x));
+          writeDecimalAttribute(xmlWriter, MatsimNetworkAttributes.X, nodeCoordinate.x, settings.getDecimalFormatter());
           /* Y */
-          xmlWriter.writeAttribute(MatsimNetworkAttributes.Y, settings.getDecimalFormat().format(nodeCoordinate.y));
-          /* Z coordinate not yet supported */
+          writeDecimalAttribute(xmlWriter, MatsimNetworkAttributes.Y, nodeCoordinate.y, settings.getDecimalFormatter());
         }
+        /* Z coordinate not yet supported */
         
         /* TYPE not yet supported */
         
@@ -301,16 +348,16 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
   
   /** write the nodes
    * @param xmlWriter to use
-   * @param networkLayer to extract from
+   * @param compiledNetwork to draw from
    * @throws PlanItException thrown if error
    */
-  private void writeMatsimNodes(XMLStreamWriter xmlWriter, MacroscopicNetworkLayerImpl networkLayer) throws PlanItException {
+  private void writeMatsimNodes(XMLStreamWriter xmlWriter, MatsimCompiledNetwork compiledNetwork) throws PlanItException {
     try {
       writeStartElementNewLine(xmlWriter,MatsimNetworkElements.NODES, true /* ++indent */);
       
       /* write nodes one by one */
-      for(Node node : networkLayer.getNodes()) {
-        writeMatsimNode(xmlWriter, node);
+      for(int nodeIndex = 0; nodeIndex < compiledNetwork.getNumberOfNodes(); ++nodeIndex) {
+        writeMatsimNode(xmlWriter, compiledNetwork, nodeIndex);
       }
       
       writeEndElementNewLine(xmlWriter, true /*-- indent */); // NODES
@@ -323,19 +370,20 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
 
   /** write the body of the MATSIM network XML file based on the PLANit network contents
    * 
-   * @param xmlWriter the writer
+   * @param xmlFileWriterPair the writer
    * @param networkLayer to persist
    * @throws PlanItException thrown if error
    */
-  private void writeMatsimNetworkXML(XMLStreamWriter xmlWriter, MacroscopicNetworkLayerImpl networkLayer) throws PlanItException {
+  private void writeMatsimNetworkXML(Pair<XMLStreamWriter,Writer> xmlFileWriterPair, MacroscopicNetworkLayerImpl networkLayer) throws PlanItException {
+    XMLStreamWriter xmlWriter = xmlFileWriterPair.first();
     try {
       writeStartElementNewLine(xmlWriter,MatsimNetworkElements.NETWORK, true /* add indentation*/);
 
       /* nodes */
-      writeMatsimNodes(xmlWriter, networkLayer);
+      writeMatsimNodes(xmlWriter, getCompiledNetwork());
       
       /* links */
-      writeMatsimLinks(xmlWriter, networkLayer);
+      writeMatsimLinks(xmlFileWriterPair, getCompiledNetwork());
       
       writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // NETWORK
     } catch (XMLStreamException e) {
@@ -347,11 +395,17 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
   /**
    * Log some aggregate stats on the MATSim writer regarding the number of elements persisted
    */
-  private void logWriterStats() {
+  void logWriterStats() {
     LOGGER.info(String.format("[STATS] created %d nodes",matsimNodeCounter.longValue()));
     LOGGER.info(String.format("[STATS] created %d links",matsimLinkCounter.longValue()));
+    if(settings.isGenerateDetailedLinkGeometryFile() && settings.isDetailedLinkGeometrySimplified()) {
+      LOGGER.info(String.format("[STATS] removed %d link geometry points by simplification",matsimGeometryPointsRemovedCounter.longValue()));
+    }
   }
 
+  /** number of links, respectively link segments, per chunk when creating the detailed geometry file in parallel */
+  private static final int DETAILED_GEOMETRY_CHUNK_SIZE = 10000;
+
   /**
    * MATSIM writer settings 
    */
@@ -364,26 +418,148 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
    * @throws PlanItException thrown if error
    */
   protected void writeXmlNetworkFile(MacroscopicNetworkLayerImpl networkLayer) throws PlanItException { 
-    Path matsimNetworkPath =  Paths.get(getSettings().getOutputDirectory(), getSettings().getFileName().concat(DEFAULT_FILE_NAME_EXTENSION));
-    Pair<XMLStreamWriter,Writer> xmlFileWriterPair = PlanitXmlWriterUtils.createXMLWriter(matsimNetworkPath);
+    Path matsimNetworkPath =  Paths.get(getSettings().getOutputDirectory(), getSettings().getFileName().concat(getSettings().getXmlFileNameExtension()));
+    Pair<XMLStreamWriter,Writer> xmlFileWriterPair = createXmlWriter(matsimNetworkPath, getSettings(), getSharedWorkerExecutor());
     
+    boolean success = false;
     try {
       /* start */
       PlanitXmlWriterUtils.startXmlDocument(xmlFileWriterPair.first(), NETWORK_DOCTYPE);
       
       /* body */
-      writeMatsimNetworkXML(xmlFileWriterPair.first(), networkLayer);
+      writeMatsimNetworkXML(xmlFileWriterPair, networkLayer);
       
       /* end */
       PlanitXmlWriterUtils.endXmlDocument(xmlFileWriterPair);
+      success = true;
     }catch (Exception e) {
       LOGGER.severe(e.getMessage());
       throw new PlanItException(String.format("error while persisting MATSIM network to %s", matsimNetworkPath));
+    }finally {
+      if(!success) {
+        /* release file and compression threads */
+        closeXmlWriter(xmlFileWriterPair);
+      }
     }
   }  
   
   /**
-   * Create detailed geometry file compatible with VIA viewer
+   * Transform the geometry of a link to the destination CRS and simplify it when requested
+   * 
+   * @param link to transform geometry of
+   * @param destinationCrsTransformer to use, may be null
+   * @param simplificationTolerance to simplify with, no simplification when zero
+   * @return transformed geometry, null when the link has no geometry
+   */
+  private LineString createDestinationCrsLinkGeometry(Link link, MathTransform destinationCrsTransformer, double simplificationTolerance) {
+    LineString destinationCrsGeometry = link.getGeometry();
+    if(destinationCrsGeometry != null && destinationCrsTransformer != null) {
+      try {
+        destinationCrsGeometry = (LineString) JTS.transform(destinationCrsGeometry, destinationCrsTransformer);
+      }catch(TransformException e) {
+        LOGGER.severe(e.getMessage());
+        throw new PlanItRunTimeException("Unable to transform geometry of link (id:%d) for detailed geometry file", link.getId());
+      }
+    }
+    if(destinationCrsGeometry != null && simplificationTolerance > 0) {
+      destinationCrsGeometry = (LineString) TopologyPreservingSimplifier.simplify(destinationCrsGeometry, simplificationTolerance);
+    }
+    return destinationCrsGeometry;
+  }
+
+  /**
+   * Create the detailed geometry file rows for a chunk of link segments. The geometries of the links of the chunk are transformed as part of the chunk
+   * and only retained, packed as x,y pairs, while the chunk is being processed. Rows are formatted by a CSV printer so the output is identical 
+   * to printing them to the file directly
+   * 
+   * @param compiledNetwork to draw from
+   * @param fromPosition first position (inclusive) of the chunk in link segment container order
+   * @param toPosition last position (exclusive) of the chunk in link segment container order
+   * @return UTF-8 encoded rows
+   */
+  private byte[] createDetailedGeometryRows(MatsimCompiledNetwork compiledNetwork, int fromPosition, int toPosition) {
+    final var decimalFormatter = settings.getDecimalFormatter();
+    final MathTransform destinationCrsTransformer = getDestinationCrsTransformer();
+    final double simplificationTolerance = settings.isDetailedLinkGeometrySimplified() ? settings.getDetailedLinkGeometrySimplificationTolerance() : 0;
+    final char[] formatBuffer = new char[2 * FixedPrecisionFormatter.MAX_FORMATTED_LENGTH + 1];
+
+    /* transformed link geometries of this chunk, a link referenced by both its link segments is transformed once per chunk */
+    final LongIntHashMap geometryByLinkIndex = new LongIntHashMap(toPosition - fromPosition, -1);
+    final int[] geometryOffsets = new int[toPosition - fromPosition + 1];
+    double[] packedCoordinates = new double[64];
+    int numberOfGeometries = 0;
+
+    StringBuilder rows = new StringBuilder((toPosition - fromPosition) * 64);
+    StringBuilder lineStringString = new StringBuilder();
+    try {
+      CSVPrinter csvPrinter = new CSVPrinter(rows, CSVFormat.TDF);
+      for(int position = fromPosition; position < toPosition; ++position) {
+        int index = compiledNetwork.getLinkSegmentIndexInContainerOrder(position);
+        int linkIndex = compiledNetwork.getLinkIndex(index);
+        int geometry = geometryByLinkIndex.get(linkIndex);
+        if(geometry < 0) {
+          LineString destinationCrsGeometry = createDestinationCrsLinkGeometry(
+              compiledNetwork.getLink(linkIndex), destinationCrsTransformer, simplificationTolerance);
+
+          geometry = numberOfGeometries++;
+          geometryByLinkIndex.put(linkIndex, geometry);
+          int offset = geometryOffsets[geometry];
+          int numberOfPoints = destinationCrsGeometry == null ? 0 : destinationCrsGeometry.getNumPoints();
+          if(offset + 2 * numberOfPoints > packedCoordinates.length) {
+            packedCoordinates = Arrays.copyOf(packedCoordinates, Math.max(2 * packedCoordinates.length, offset + 2 * numberOfPoints));
+          }
+          for(int pointIndex = 0; pointIndex < numberOfPoints; ++pointIndex) {
+            packedCoordinates[offset + 2 * pointIndex] = destinationCrsGeometry.getCoordinateSequence().getX(pointIndex);
+            packedCoordinates[offset + 2 * pointIndex + 1] = destinationCrsGeometry.getCoordinateSequence().getY(pointIndex);
+          }
+          geometryOffsets[geometry + 1] = offset + 2 * numberOfPoints;
+        }
+
+        final int offset = geometryOffsets[geometry];
+        final int numberOfPoints = (geometryOffsets[geometry + 1] - offset) / 2;
+
+        /* removed points are counted at the first compiled link segment of each link only, regardless of which of its link segments
+         * transformed the geometry in this chunk, so each link is counted exactly once across chunks */
+        if(simplificationTolerance > 0 && numberOfPoints > 0 && (index == 0 || compiledNetwork.getLinkIndex(index - 1) != linkIndex)) {
+          matsimGeometryPointsRemovedCounter.add(compiledNetwork.getLink(linkIndex).getGeometry().getNumPoints() - numberOfPoints);
+        }
+
+        if(numberOfPoints == 0) {
+          LOGGER.severe(String.format("geometry unavailable for link (segment id:%d) even though request for detailed geometry is made, link ignored",compiledNetwork.getLinkSegment(index).getId()));
+          continue;
+        }
+
+        /* only when it has internal coordinates */
+        if(numberOfPoints > 2) {
+          lineStringString.setLength(0);
+          lineStringString.append("LINESTRING (");
+          /* traverse in reverse when segment is reverse direction */
+          boolean directionAb = compiledNetwork.isDirectionAb(index);
+          for(int internalIndex = 1; internalIndex < numberOfPoints - 1; ++internalIndex) {
+            int pointOffset = offset + 2 * (directionAb ? internalIndex : numberOfPoints - 1 - internalIndex);
+            if(internalIndex > 1) {
+              lineStringString.append(',');
+            }
+            int length = decimalFormatter.format(packedCoordinates[pointOffset], formatBuffer, 0);
+            formatBuffer[length++] = ' ';
+            length = decimalFormatter.format(packedCoordinates[pointOffset + 1], formatBuffer, length);
+            lineStringString.append(formatBuffer, 0, length);
+          }
+          lineStringString.append(')');
+          csvPrinter.printRecord(compiledNetwork.getLinkSegmentId(index), lineStringString.toString());
+        }
+      }
+      csvPrinter.flush();
+    }catch(IOException e) {
+      LOGGER.severe(e.getMessage());
+      throw new PlanItRunTimeException("Unable to create rows for detailed geometry file");
+    }
+    return rows.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create detailed geometry file compatible with VIA viewer. The rows of the link segments are created in parallel chunks, each transforming the
+   * link geometries it requires, and written in link segment order
    * 
    * @param networkLayer to draw from
    * @throws PlanItException thrown if error
@@ -392,51 +568,40 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
     Path matsimNetworkGeometryPath =  Paths.get(getSettings().getOutputDirectory(), DEFAULT_NETWORK_GEOMETRY_FILE_NAME.concat(DEFAULT_NETWORK_GEOMETRY_FILE_NAME_EXTENSION)).toAbsolutePath();
     LOGGER.info(String.format("persisting MATSIM network geometry to: %s",matsimNetworkGeometryPath.toString()));
     
-    try {
-      CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(matsimNetworkGeometryPath.toFile()), CSVFormat.TDF);      
+    try(FileChannel fileChannel = FileChannel.open(
+        matsimNetworkGeometryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      
+      StringBuilder header = new StringBuilder();
+      CSVPrinter csvPrinter = new CSVPrinter(header, CSVFormat.TDF);
       csvPrinter.printRecord("LINK_ID", "GEOMETRY");
+      csvPrinter.flush();
+      writeFully(fileChannel, header.toString().getBytes(StandardCharsets.UTF_8));
+
+      final MatsimCompiledNetwork compiledNetwork = getCompiledNetwork();
+      final int numberOfLinkSegments = compiledNetwork.getNumberOfLinkSegments();
+      createChunkProcessor().process(numberOfLinkSegments, DETAILED_GEOMETRY_CHUNK_SIZE,
+          (chunkStart, chunkEnd) -> createDetailedGeometryRows(compiledNetwork, chunkStart, chunkEnd),
+          rows -> writeFully(fileChannel, rows));
       
-      Function<MacroscopicLinkSegment, String> linkIdMapping = IdMapperFunctionFactory.createLinkSegmentIdMappingFunction(getIdMapperType());
-      for(MacroscopicLinkSegment linkSegment : networkLayer.getLinkSegments()) {
-        
-        /* extract geometry to write */
-        LineString destinationCrsGeometry = null;
-        if(getDestinationCrsTransformer()!=null) {
-          destinationCrsGeometry = ((LineString)JTS.transform(linkSegment.getParentLink().getGeometry(), getDestinationCrsTransformer()));
-        }else {
-          destinationCrsGeometry = linkSegment.getParentLink().getGeometry();  
-        }        
-        if(destinationCrsGeometry==null) {
-          LOGGER.severe(String.format("geometry unavailable for link (segment id:%d) even though request for detailed geometry is made, link ignored",linkSegment.getId()));
-          continue;
-        }
-        
-        /* get correct coordinate sequence, reverse when segment is reverse direction */
-        Coordinate[] coordinates = linkSegment.isDirectionAb() ? destinationCrsGeometry.getCoordinates() : destinationCrsGeometry.reverse().getCoordinates();
-        
-        /* only when it has internal coordinates */
-        if(coordinates.length > 2) {
-          StringBuilder lineStringString = new StringBuilder("LINESTRING (");
-          int firstInternal = 1;
-          int lastInternal = coordinates.length-1;
-          for(int index = firstInternal ; index < lastInternal; ++index) {
-            Coordinate coordinate = coordinates[index];           
-            if(index>firstInternal) {
-              lineStringString.append(",");
-            }         
-            lineStringString.append(String.format("%s %s", settings.getDecimalFormat().format(coordinate.x), settings.getDecimalFormat().format(coordinate.y)));
-          }
-          lineStringString.append(")");
-          csvPrinter.printRecord(linkIdMapping.apply(linkSegment), lineStringString.toString());
-        }
-      }
-      csvPrinter.close();
-    } catch (IOException | TransformException e) {
+    } catch (IOException e) {
       LOGGER.severe(e.getMessage());
       throw new PlanItException("unable to write detailed gemoetry file %d an error occured during writing", e);
     }
   }  
 
+  /** Write all bytes to the channel
+   * 
+   * @param channel to write to
+   * @param bytes to write
+   * @throws IOException thrown if error
+   */
+  private static void writeFully(WritableByteChannel channel, byte[] bytes) throws IOException {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+    while(byteBuffer.hasRemaining()) {
+      channel.write(byteBuffer);
+    }
+  }
+
   /**
    * default names used for MATSIM network file that is being generated
    */
@@ -472,15 +637,39 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
    */
   @Override
   public void write(LayeredNetwork<?,?> network) throws PlanItException {
+    final MacroscopicNetworkLayerImpl macroscopicPhysicalNetworkLayer = prepareWrite(network);
+    if(macroscopicPhysicalNetworkLayer == null) {
+      return;
+    }
+
+    /* write */
+    writeXmlNetworkFile(macroscopicPhysicalNetworkLayer);
+    if(settings.isGenerateDetailedLinkGeometryFile()) {
+      writeDetailedGeometryFile(macroscopicPhysicalNetworkLayer);
+    }
+    
+    logWriterStats();
+  }
+
+  /**
+   * Prepare writing the network without writing any file, i.e., validate, populate the id mappers, prepare the coordinate reference system,
+   * transform the node coordinates and compile the network layer, all captured in the write context of the conversion. Afterwards the write
+   * context can be shared with other writers and the network files can be written independently of each other
+   *
+   * @param network to prepare
+   * @return network layer to write, null when network or settings are invalid
+   * @throws PlanItException thrown if error
+   */
+  MacroscopicNetworkLayerImpl prepareWrite(LayeredNetwork<?,?> network) throws PlanItException {
     PlanItException.throwIfNull(network, "network is null, cannot write undefined network to MATSIM format");
     
     boolean networkValid = validateNetwork(network);
     if(!networkValid) {
-      return;
+      return null;
     }
     boolean settingsValid = validateSettings();
     if(!settingsValid) {
-      return;
+      return null;
     }
     
     final MacroscopicNetwork macroscopicNetwork = (MacroscopicNetwork) network;
@@ -495,15 +684,13 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
     /* log settings */
     settings.logSettings(macroscopicNetwork);
     
-    /* write */
+    /* prepare */
     final MacroscopicNetworkLayerImpl macroscopicPhysicalNetworkLayer = (MacroscopicNetworkLayerImpl)macroscopicNetwork.getTransportLayers().getFirst();
     
-    writeXmlNetworkFile(macroscopicPhysicalNetworkLayer);
-    if(settings.isGenerateDetailedLinkGeometryFile()) {
-      writeDetailedGeometryFile(macroscopicPhysicalNetworkLayer);
-    }
-    
-    logWriterStats();
+    final var transformedNodeCoordinates = createTransformedNodeCoordinates(macroscopicPhysicalNetworkLayer);
+    setWriteContext(MatsimWriteContext.create(
+        getComponentIdMappers(), getDestinationCrsTransformer(), macroscopicPhysicalNetworkLayer, transformedNodeCoordinates, compileNetwork(macroscopicPhysicalNetworkLayer)));
+    return macroscopicPhysicalNetworkLayer;
   }
     
 
@@ -514,6 +701,7 @@ public class MatsimNetworkWriter extends MatsimWriter<LayeredNetwork<?,?>> imple
   public void reset() {
     matsimNodeCounter.reset();
     matsimLinkCounter.reset();
+    matsimGeometryPointsRemovedCounter.reset();
   }
 
   /**
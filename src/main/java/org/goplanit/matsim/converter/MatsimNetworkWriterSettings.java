@@ -67,6 +67,20 @@ public class MatsimNetworkWriterSettings extends PlanitMatsimWriterModeMappingSe
    */
   protected boolean restrictLinkSpeedBySupportedModes = DEFAULT_RESTRICT_SPEED_LIMIT_BY_SUPPORTED_MODE;
 
+  /** when set to true, MATSim links are serialised in contiguous chunks on a worker pool after which the chunks are written in their original
+   * order, resulting in the exact same output as the sequential approach. Note that user defined link functions (nt_category, nt_type, type) must be
+   * thread safe when activated, default is false
+   */
+  protected boolean parallelLinkWriting = DEFAULT_PARALLEL_LINK_WRITING;
+
+  /** number of PLANit link segments per chunk when links are written in parallel */
+  protected int parallelLinkChunkSize = DEFAULT_PARALLEL_LINK_CHUNK_SIZE;
+
+  /** when positive, link geometries in the detailed geometry file are simplified with a topology preserving (Douglas-Peucker based) 
+   * simplifier using this distance tolerance (in units of the destination CRS), default is zero, i.e., no simplification
+   */
+  protected double detailedLinkGeometrySimplificationTolerance = DEFAULT_DETAILED_LINK_GEOMETRY_SIMPLIFICATION_TOLERANCE;
+
   /**
    * Convenience method to log all the current settings
    * 
@@ -75,13 +89,19 @@ public class MatsimNetworkWriterSettings extends PlanitMatsimWriterModeMappingSe
   @Override
   public void logSettings(MacroscopicNetwork macroscopicNetwork) {
   
-    Path matsimNetworkPath =  Paths.get(getOutputDirectory(), getFileName().concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
+    Path matsimNetworkPath =  Paths.get(getOutputDirectory(), getFileName().concat(getXmlFileNameExtension()));
     LOGGER.info(String.format("Persisting MATSim network to: %s", matsimNetworkPath));
     
     LOGGER.info(String.format("Decimal fidelity set to %s", decimalFormat.getMaximumFractionDigits()));
     if(getDestinationCoordinateReferenceSystem() != null) {
       LOGGER.info(String.format("Destination Coordinate Reference System set to: %s", getDestinationCoordinateReferenceSystem().getName()));
     }
+    if(isParallelLinkWriting()) {
+      LOGGER.info(String.format("Links are written in parallel in chunks of %d link segments", getParallelLinkChunkSize()));
+    }
+    if(isGenerateDetailedLinkGeometryFile() && isDetailedLinkGeometrySimplified()) {
+      LOGGER.info(String.format("Detailed link geometry simplified with distance tolerance %s", getDetailedLinkGeometrySimplificationTolerance()));
+    }
 
     super.logSettings(macroscopicNetwork);
   }
@@ -95,6 +115,21 @@ public class MatsimNetworkWriterSettings extends PlanitMatsimWriterModeMappingSe
    * Default setting for restricting a link's max speed by its supported mode max speeds if more restricting
    */
   public static final Boolean DEFAULT_RESTRICT_SPEED_LIMIT_BY_SUPPORTED_MODE = false;
+
+  /**
+   * Default setting for writing links in parallel is false
+   */
+  public static final Boolean DEFAULT_PARALLEL_LINK_WRITING = false;
+
+  /**
+   * Default number of PLANit link segments per chunk when writing links in parallel
+   */
+  public static final int DEFAULT_PARALLEL_LINK_CHUNK_SIZE = 10000;
+
+  /**
+   * Default distance tolerance for simplifying detailed link geometry is zero, i.e., no simplification
+   */
+  public static final double DEFAULT_DETAILED_LINK_GEOMETRY_SIMPLIFICATION_TOLERANCE = 0;
   
   /** default mode for all public transport modes in Matsim is pt, so that is what we use for initial mapping */
   public static final String DEFAULT_PUBLIC_TRANSPORT_MODE = "pt";
@@ -191,7 +226,66 @@ public class MatsimNetworkWriterSettings extends PlanitMatsimWriterModeMappingSe
    */
   public void setRestrictLinkSpeedBySupportedModes(boolean restrictLinkSpeedBySupportedModes) {
     this.restrictLinkSpeedBySupportedModes = restrictLinkSpeedBySupportedModes;
-  }  
+  }
+
+  /** Check if links are serialised in parallel chunks
+   *
+   * @return true when active, false otherwise
+   */
+  public boolean isParallelLinkWriting() {
+    return parallelLinkWriting;
+  }
+
+  /**
+   * Set if links are to be serialised in parallel chunks. Output is identical to sequential writing, but any user defined
+   * link functions must be thread safe when activated
+   *
+   * @param parallelLinkWriting flag to set
+   */
+  public void setParallelLinkWriting(boolean parallelLinkWriting) {
+    this.parallelLinkWriting = parallelLinkWriting;
+  }
+
+  /** Collect the number of PLANit link segments per chunk when writing links in parallel
+   *
+   * @return chunk size
+   */
+  public int getParallelLinkChunkSize() {
+    return parallelLinkChunkSize;
+  }
+
+  /** Set the number of PLANit link segments per chunk when writing links in parallel
+   *
+   * @param parallelLinkChunkSize to use
+   */
+  public void setParallelLinkChunkSize(int parallelLinkChunkSize) {
+    this.parallelLinkChunkSize = parallelLinkChunkSize;
+  }
+
+  /** Collect the distance tolerance used to simplify link geometries in the detailed geometry file
+   *
+   * @return tolerance in units of the destination CRS, zero when not simplified
+   */
+  public double getDetailedLinkGeometrySimplificationTolerance() {
+    return detailedLinkGeometrySimplificationTolerance;
+  }
+
+  /** Set the distance tolerance used to simplify link geometries in the detailed geometry file with a topology preserving simplifier. 
+   * Internal points closer than the tolerance to the simplified line are removed. Only applied when a detailed geometry file is generated
+   *
+   * @param detailedLinkGeometrySimplificationTolerance in units of the destination CRS, zero (or negative) to not simplify
+   */
+  public void setDetailedLinkGeometrySimplificationTolerance(double detailedLinkGeometrySimplificationTolerance) {
+    this.detailedLinkGeometrySimplificationTolerance = detailedLinkGeometrySimplificationTolerance;
+  }
+
+  /** Check if link geometries in the detailed geometry file are simplified
+   *
+   * @return true when a positive simplification tolerance is set, false otherwise
+   */
+  public boolean isDetailedLinkGeometrySimplified() {
+    return detailedLinkGeometrySimplificationTolerance > 0;
+  }
   
   /**
    * {@inheritDoc}
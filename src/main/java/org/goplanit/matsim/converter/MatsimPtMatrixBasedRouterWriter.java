@@ -1,12 +1,24 @@
 package org.goplanit.matsim.converter;
 
-import java.io.PrintWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+import org.goplanit.matsim.util.FixedPrecisionFormatter;
 import org.goplanit.matsim.xml.MatsimTransitAttributes;
+import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
+import org.goplanit.utils.graph.Vertex;
 import org.goplanit.utils.misc.CharacterUtils;
+import org.goplanit.utils.misc.Pair;
+import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
+import org.goplanit.utils.zoning.DirectedConnectoid;
 import org.goplanit.zoning.Zoning;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.operation.TransformException;
@@ -15,16 +27,23 @@ import org.opengis.referencing.operation.TransformException;
  * Class that takes on the responsibility of writing all PT MAtrix based routing files for a given PLANit Zoning writer.
  * Since a MATSim matrix based run requires explicit travel times between all stops. We create shortest paths between all stops in the network in the prespecified CSV format.
  * <p>
- * Currently these costs are based on free-flow travel times multiplied by a given factor (optional)
+ * Currently these costs are based on free-flow travel times multiplied by a given factor (optional). The travel time and distance matrices are only
+ * generated when activated, one shortest path tree per stop is computed in parallel and its rows are written as soon as they are available, so the matrices
+ * are never held in memory as a whole. Optionally the matrices are limited to stop pairs within a travel time and/or network distance cut-off
  * <p>
  * More information on the MATSim matrix based router can be found <a href="https://github.com/matsim-org/matsim-libs/tree/master/contribs/matrixbasedptrouter">here</a>.
  * <p>
  * The naming for the generated files is predetermined at:
  * <ul>
  * <li>ptStops.csv</li>
- * <li>ptTravelInfo.csv</li>
+ * <li>ptTravelTimes.csv</li>
+ * <li>ptTravelDistances.csv</li>
  * </ul>
- * Where the former contains the stop information while the latter contains the travel times (in seconds). 
+ * Where the first contains the stop information (the router's {@code ptStopsInputFile}), the second the travel times in seconds (its {@code ptTravelTimesInputFile})
+ * and the last the distances in meters (its {@code ptTravelDistancesInputFile}) between all pairs of connected stops, see
+ * <a href="https://github.com/matsim-org/matsim-libs/blob/master/contribs/matrixbasedptrouter/src/main/java/org/matsim/contrib/matrixbasedptrouter/MatrixBasedPtRouterConfigGroup.java">MatrixBasedPtRouterConfigGroup</a>.
+ * The latter two have no header and contain one {@code fromStopId toStopId value} entry per line, separated by a space, as read by
+ * <a href="https://github.com/matsim-org/matsim-libs/blob/master/contribs/matrixbasedptrouter/src/main/java/org/matsim/contrib/matrixbasedptrouter/PtMatrix.java">PtMatrix</a>.
  * <p>
  * Files are generated in the designated output directory of the zoning writer
  *
@@ -38,56 +57,247 @@ class MatsimPtMatrixBasedRouterWriter {
   
   /** the zoning writer used for the MATSim pt component*/
   private final MatsimZoningWriter zoningWriter;
-  
+
+  /** number of stops of which the shortest path trees are computed per chunk */
+  private static final int TRAVEL_INFO_STOPS_PER_CHUNK = 8;
+
+  /** separator of the entries in the travel times and distances files */
+  private static final char TRAVEL_INFO_SEPARATOR = ' ';
+
+  /**
+   * Collect the compiled network of the reference network, which is shared by the network writer when available and compiled otherwise
+   *
+   * @return compiled network
+   */
+  private MatsimCompiledNetwork collectCompiledNetwork() {
+    var compiledNetwork = zoningWriter.getCompiledNetwork();
+    if(compiledNetwork != null) {
+      return compiledNetwork;
+    }
+
+    var networkLayer = (MacroscopicNetworkLayerImpl) zoningWriter.getSettings().getReferenceNetwork().getTransportLayers().getFirst();
+    var networkSettings = zoningWriter.getNetworkWriterSettings();
+    return MatsimCompiledNetwork.compile(
+        networkLayer,
+        Vertex::getXmlId,
+        MacroscopicLinkSegment::getXmlId,
+        networkSettings.collectActivatedPlanitModeToMatsimModeMaskMapping(networkLayer),
+        networkSettings.isRestrictLinkSpeedBySupportedModes(),
+        networkSettings.isParallelLinkWriting() ? zoningWriter.createChunkProcessor() : null,
+        false /* encode ids */);
+  }
+
+  /**
+   * Create the rows of the travel times and distances files for a chunk of origin stops. Only the stops at nodes settled by an origin's (bounded) tree are visited,
+   * in stop order, so the effort per origin is proportional to its tree rather than the number of stops
+   *
+   * @param fromOriginStop first index (inclusive) of the origin stops
+   * @param toOriginStop last index (exclusive) of the origin stops
+   * @param stopIds by stop index
+   * @param stopNodeIndices compiled network node index by stop index, -1 when not part of the network
+   * @param stopOffsetsByNode per node index the offset of its stops in stopsByNode, the last entry equals the number of stops with a node
+   * @param stopsByNode stop indices grouped by node index
+   * @param search to compute the shortest path trees with
+   * @return rows of the travel times file and the distances file respectively
+   */
+  private Pair<StringBuilder, StringBuilder> createTravelInfoRows(
+      int fromOriginStop, int toOriginStop, String[] stopIds, int[] stopNodeIndices, int[] stopOffsetsByNode, int[] stopsByNode, MatsimShortestPathGraph.Search search) {
+    final var settings = zoningWriter.getSettings();
+    final var formatter = FixedPrecisionFormatter.ONE_DECIMAL;
+    final char[] formatBuffer = new char[FixedPrecisionFormatter.MAX_FORMATTED_LENGTH];
+    final var travelTimeRows = new StringBuilder();
+    final var distanceRows = new StringBuilder();
+    int[] destinationStops = new int[16];
+    int numberOfDestinationStops = 0;
+    int treeNodeIndex = -1;
+    for(int originStop = fromOriginStop; originStop < toOriginStop; ++originStop) {
+      int originNodeIndex = stopNodeIndices[originStop];
+      if(originNodeIndex < 0) {
+        continue;
+      }
+      /* stops sharing an access node share their tree */
+      if(originNodeIndex != treeNodeIndex) {
+        search.computeTree(originNodeIndex, settings.getPtTravelInfoMaxTravelTimeSeconds(), settings.getPtTravelInfoMaxDistanceMeters());
+        treeNodeIndex = originNodeIndex;
+
+        numberOfDestinationStops = 0;
+        for(int settledIndex = 0; settledIndex < search.getNumberOfSettledNodes(); ++settledIndex) {
+          int settledNode = search.getSettledNode(settledIndex);
+          for(int offset = stopOffsetsByNode[settledNode]; offset < stopOffsetsByNode[settledNode + 1]; ++offset) {
+            if(numberOfDestinationStops == destinationStops.length) {
+              destinationStops = Arrays.copyOf(destinationStops, 2 * destinationStops.length);
+            }
+            destinationStops[numberOfDestinationStops++] = stopsByNode[offset];
+          }
+        }
+        Arrays.sort(destinationStops, 0, numberOfDestinationStops);
+      }
+
+      for(int destinationIndex = 0; destinationIndex < numberOfDestinationStops; ++destinationIndex) {
+        int destinationStop = destinationStops[destinationIndex];
+        int destinationNodeIndex = stopNodeIndices[destinationStop];
+        if(destinationStop == originStop) {
+          continue;
+        }
+        travelTimeRows.append(stopIds[originStop]).append(TRAVEL_INFO_SEPARATOR).append(stopIds[destinationStop]).append(TRAVEL_INFO_SEPARATOR);
+        travelTimeRows.append(formatBuffer, 0, formatter.format(search.getTravelTimeSeconds(destinationNodeIndex), formatBuffer, 0)).append('\n');
+        distanceRows.append(stopIds[originStop]).append(TRAVEL_INFO_SEPARATOR).append(stopIds[destinationStop]).append(TRAVEL_INFO_SEPARATOR);
+        distanceRows.append(formatBuffer, 0, formatter.format(search.getDistanceMeters(destinationNodeIndex), formatBuffer, 0)).append('\n');
+      }
+    }
+    return Pair.of(travelTimeRows, distanceRows);
+  }
+
   /**
-   * The stops CSV file contains the stop id and its coordinates, based on example in <a href="https://github.com/matsim-org/matsim-libs/blob/master/contribs/matrixbasedptrouter/src/main/resources/example/ptStops.csv">ptstops.csv</a>
+   * The travel times and distances CSV files contain the free flow travel time (s) and distance (m) of the fastest path between each pair of connected
+   * stops respectively. Shortest path trees are computed per stop in parallel on compressed primitive adjacency arrays and rows are streamed to the files
+   * in stop order. When either file cannot be completed, neither is retained
+   *
    * @param zoning to use
    */
-  private void writeStopsCsvFile(Zoning zoning) {
-    var sb = new StringBuilder();
-    var dm = zoningWriter.getNetworkWriterSettings().getDecimalFormat();
-    
-    /* content */
-    var csvContent = new ArrayList<String>();
-    
-    /* header */
-    sb.append(MatsimTransitAttributes.ID).append(CharacterUtils.COMMA).append(MatsimTransitAttributes.X).append(CharacterUtils.COMMA).append(MatsimTransitAttributes.Y);
-    csvContent.add(sb.toString());
-    
-    try {
-      for(var transferConnectoid : zoning.getTransferConnectoids()) {
-        sb.delete(0, Integer.MAX_VALUE);
-        var coord = zoningWriter.extractDestinationCrsCompatibleCoordinate(transferConnectoid.getAccessNode().getPosition());
-        sb.append(transferConnectoid.getXmlId()).append(CharacterUtils.COMMA).append(dm.format(coord.x)).append(CharacterUtils.COMMA).append(dm.format(coord.y));
-        csvContent.add(sb.toString());
+  private void writeTravelInfoCsvFiles(Zoning zoning) {
+    var compiledNetwork = collectCompiledNetwork();
+    var graph = MatsimShortestPathGraph.create(compiledNetwork, zoningWriter.getSettings().getPtTravelTimeFactor());
+
+    List<DirectedConnectoid> stops = new ArrayList<>();
+    zoning.getTransferConnectoids().forEach(stops::add);
+    if(stops.isEmpty()) {
+      return;
+    }
+    final String[] stopIds = new String[stops.size()];
+    final int[] stopNodeIndices = new int[stops.size()];
+    final int[] stopOffsetsByNode = new int[graph.getNumberOfNodes() + 1];
+    for(int stopIndex = 0; stopIndex < stops.size(); ++stopIndex) {
+      stopIds[stopIndex] = stops.get(stopIndex).getXmlId();
+      var accessNode = stops.get(stopIndex).getAccessNode();
+      stopNodeIndices[stopIndex] = accessNode == null ? -1 : compiledNetwork.getNodeIndex(accessNode.getId());
+      if(stopNodeIndices[stopIndex] >= 0) {
+        ++stopOffsetsByNode[stopNodeIndices[stopIndex] + 1];
       }
-    } catch (MismatchedDimensionException e) {
+    }
+
+    /* stops grouped by node, so the stops reached by a tree are found via its settled nodes */
+    for(int nodeIndex = 0; nodeIndex < graph.getNumberOfNodes(); ++nodeIndex) {
+      stopOffsetsByNode[nodeIndex + 1] += stopOffsetsByNode[nodeIndex];
+    }
+    final int[] stopsByNode = new int[stopOffsetsByNode[graph.getNumberOfNodes()]];
+    final int[] nextStopOffset = Arrays.copyOf(stopOffsetsByNode, graph.getNumberOfNodes());
+    for(int stopIndex = 0; stopIndex < stops.size(); ++stopIndex) {
+      if(stopNodeIndices[stopIndex] >= 0) {
+        stopsByNode[nextStopOffset[stopNodeIndices[stopIndex]]++] = stopIndex;
+      }
+    }
+
+    var ptTravelTimesFilePath = Path.of(zoningWriter.getSettings().getOutputDirectory(),PT_TRAVEL_TIMES_FILE_NAME);
+    var ptTravelDistancesFilePath = Path.of(zoningWriter.getSettings().getOutputDirectory(),PT_TRAVEL_DISTANCES_FILE_NAME);
+    LOGGER.info(String.format("Persisting MATSIM %s and %s to: %s (%d stops, %d links)",
+        PT_TRAVEL_TIMES_FILE_NAME, PT_TRAVEL_DISTANCES_FILE_NAME, zoningWriter.getSettings().getOutputDirectory(), stops.size(), graph.getNumberOfEdges()));
+    boolean success = false;
+    try (BufferedWriter travelTimesWriter = Files.newBufferedWriter(ptTravelTimesFilePath);
+         BufferedWriter distancesWriter = Files.newBufferedWriter(ptTravelDistancesFilePath)) {
+      /* rows, each chunk borrows a search from the pool and returns it once done, so at most one search per concurrently processed chunk is
+       * created and none outlive this file on the shared worker threads */
+      final Queue<MatsimShortestPathGraph.Search> searches = new ConcurrentLinkedQueue<>();
+      zoningWriter.createChunkProcessor().process(stops.size(), TRAVEL_INFO_STOPS_PER_CHUNK,
+          (fromStop, toStop) -> {
+            var search = searches.poll();
+            if(search == null) {
+              search = graph.createSearch();
+            }
+            try {
+              return createTravelInfoRows(fromStop, toStop, stopIds, stopNodeIndices, stopOffsetsByNode, stopsByNode, search);
+            }finally {
+              searches.offer(search);
+            }
+          },
+          rows -> {
+            travelTimesWriter.append(rows.first());
+            distancesWriter.append(rows.second());
+          });
+      success = true;
+    }catch(Exception e) {
       LOGGER.severe(e.getMessage());
-      LOGGER.severe("Unable to transform pt stop locations to desired coordinate format for MATSim aborting");
-      return;
+      LOGGER.severe(String.format("Unable to persist %s and %s files in output dir %s, aborting",
+          PT_TRAVEL_TIMES_FILE_NAME, PT_TRAVEL_DISTANCES_FILE_NAME, zoningWriter.getSettings().getOutputDirectory()));
+    }
+
+    if(!success) {
+      /* do not leave partial files behind */
+      deleteIncompleteFile(ptTravelTimesFilePath);
+      deleteIncompleteFile(ptTravelDistancesFilePath);
+    }
+  }
+
+  /**
+   * Remove a file that could not be completed, if it exists
+   *
+   * @param filePath to remove
+   */
+  private static void deleteIncompleteFile(Path filePath) {
+    try {
+      Files.deleteIfExists(filePath);
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to remove incomplete %s file", filePath));
     }
-    
-    if(csvContent.isEmpty()) {
+  }
+  
+  /**
+   * The stops CSV file contains the stop id and its coordinates, based on example in <a href="https://github.com/matsim-org/matsim-libs/blob/master/contribs/matrixbasedptrouter/src/main/resources/example/ptstops.csv">ptstops.csv</a>.
+   * Rows are streamed to the file one by one using the node coordinates transformed upfront (when available) and the allocation free decimal formatter, so memory
+   * use does not depend on the number of stops
+   * 
+   * @param zoning to use
+   */
+  private void writeStopsCsvFile(Zoning zoning) {
+    if(zoning.getTransferConnectoids().isEmpty()) {
       LOGGER.warning("No stops to persist, verify this is intended behaviour");
       return;
     }
-    
+
+    final var decimalFormatter = zoningWriter.getNetworkWriterSettings().getDecimalFormatter();
+    final char[] formatBuffer = new char[FixedPrecisionFormatter.MAX_FORMATTED_LENGTH];
+
     /* write */
     var ptStopsFilePath = Path.of(zoningWriter.getSettings().getOutputDirectory(),PT_STOPS_FILE_NAME);
     LOGGER.info(String.format("Persisting MATSIM %s to: %s",PT_STOPS_FILE_NAME, ptStopsFilePath));
-    try (PrintWriter pw = new PrintWriter(ptStopsFilePath.toFile())) {
-      csvContent.stream().forEach(pw::println);
+    boolean success = false;
+    try (BufferedWriter writer = Files.newBufferedWriter(ptStopsFilePath)) {
+      /* header */
+      writer.append(MatsimTransitAttributes.ID).append(CharacterUtils.COMMA).append(MatsimTransitAttributes.X).append(CharacterUtils.COMMA).append(MatsimTransitAttributes.Y);
+      writer.newLine();
+
+      /* content */
+      for(var transferConnectoid : zoning.getTransferConnectoids()) {
+        var coord = zoningWriter.extractDestinationCrsCompatibleCoordinate(transferConnectoid.getAccessNode());
+        writer.append(transferConnectoid.getXmlId()).append(CharacterUtils.COMMA);
+        writer.write(formatBuffer, 0, decimalFormatter.format(coord.x, formatBuffer, 0));
+        writer.append(CharacterUtils.COMMA);
+        writer.write(formatBuffer, 0, decimalFormatter.format(coord.y, formatBuffer, 0));
+        writer.newLine();
+      }
+      success = true;
+    } catch (MismatchedDimensionException e) {
+      LOGGER.severe(e.getMessage());
+      LOGGER.severe("Unable to transform pt stop locations to desired coordinate format for MATSim aborting");
     }catch(Exception e) {
       LOGGER.severe(e.getMessage());
       LOGGER.severe(String.format("Unable to persist %s file in output dir %s, aborting",PT_STOPS_FILE_NAME, zoningWriter.getSettings().getOutputDirectory()));
     }
+
+    if(!success) {
+      /* do not leave a partial file behind */
+      deleteIncompleteFile(ptStopsFilePath);
+    }
   }
   
   /** file name for the stops CSV */
   public static String PT_STOPS_FILE_NAME = "ptStops.csv";
 
   /** file name for the travel time matrix (seconds) CSV */
-  public static String PT_TRAVEL_INFO_FILE_NAME = "ptTravelInfo.csv";
+  public static String PT_TRAVEL_TIMES_FILE_NAME = "ptTravelTimes.csv";
+
+  /** file name for the distance matrix (meters) CSV */
+  public static String PT_TRAVEL_DISTANCES_FILE_NAME = "ptTravelDistances.csv";
 
   /**
    * Constructor 
@@ -105,7 +315,11 @@ class MatsimPtMatrixBasedRouterWriter {
    */
   public void write(final Zoning zoning) {
 
-    /* For now, we only generate a stops file. From the MATSim code it appears, the stop-stop travel time matrix can be created on the fly within MATSim */
     writeStopsCsvFile(zoning);
+
+    /* the stop-stop travel time matrix can be created on the fly within MATSim as well, which is slow for large numbers of stops */
+    if(zoningWriter.getSettings().isGeneratePtTravelInfoFile()) {
+      writeTravelInfoCsvFiles(zoning);
+    }
   }  
 }
@@ -23,6 +23,14 @@ public class MatsimPtServicesWriterSettings extends PlanitMatsimWriterModeMappin
   /** flag indicating the default for transit routes awaiting departure based on their schedule */
   private boolean awaitDepartures = AWAIT_DEPARTURE_DEFAULT;
 
+  /** when set to true, transit lines are serialised independently on a worker pool after which they are written in their original order,
+   * resulting in the exact same output as the sequential approach, default is false */
+  private boolean parallelTransitLineWriting = DEFAULT_PARALLEL_TRANSIT_LINE_WRITING;
+
+  /** memory budget in bytes of the cache of serialised route profiles and routes (link references) that are shared by multiple transit routes,
+   * only used with the direct XML emitter, zero disables the cache */
+  private long routePatternCacheBytes = DEFAULT_ROUTE_PATTERN_CACHE_BYTES;
+
   /**
    * Log settings but do not use parent class log settings as it is assumed this writer is always used
    * in conjunction with MATsim network writer and we shared the mode mapping with these settings which will
@@ -35,13 +43,22 @@ public class MatsimPtServicesWriterSettings extends PlanitMatsimWriterModeMappin
    *
    */
   protected void logSettingsWithoutModeMapping() {
-    Path matsimZoningPath =  Paths.get(getOutputDirectory(), getFileName().concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
+    Path matsimZoningPath =  Paths.get(getOutputDirectory(), getFileName().concat(getXmlFileNameExtension()));
     LOGGER.info(String.format("Persisting MATSim public transport to: %s", matsimZoningPath));
+    if(isParallelTransitLineWriting()) {
+      LOGGER.info("Transit lines are written in parallel");
+    }
   }
 
   /** default value aligned with MATSim default */
   public static final boolean AWAIT_DEPARTURE_DEFAULT = false;
 
+  /** default for writing transit lines in parallel */
+  public static final boolean DEFAULT_PARALLEL_TRANSIT_LINE_WRITING = false;
+
+  /** default memory budget of the route pattern cache, 64MB */
+  public static final long DEFAULT_ROUTE_PATTERN_CACHE_BYTES = 64L << 20;
+
   /**
    * Default constructor using default output file name and Global country name
    */
@@ -119,4 +136,40 @@ public class MatsimPtServicesWriterSettings extends PlanitMatsimWriterModeMappin
     this.awaitDepartures = awaitDepartures;
   }
 
+  /** Check if transit lines are serialised in parallel
+   *
+   * @return true when active, false otherwise
+   */
+  public boolean isParallelTransitLineWriting() {
+    return parallelTransitLineWriting;
+  }
+
+  /**
+   * Set if transit lines are to be serialised in parallel. Output is identical to sequential writing
+   *
+   * @param parallelTransitLineWriting flag to set
+   */
+  public void setParallelTransitLineWriting(boolean parallelTransitLineWriting) {
+    this.parallelTransitLineWriting = parallelTransitLineWriting;
+  }
+
+  /** Collect the memory budget of the cache of serialised route profiles and routes
+   *
+   * @return memory budget in bytes, zero when disabled
+   */
+  public long getRoutePatternCacheBytes() {
+    return routePatternCacheBytes;
+  }
+
+  /**
+   * Set the memory budget of the cache of serialised route profiles and routes. Transit routes with the exact same stops, offsets and links
+   * copy the cached XML rather than serialising it again, least recently used entries are evicted when the budget is exceeded. Only used
+   * when the direct XML emitter is active
+   *
+   * @param routePatternCacheBytes memory budget in bytes, zero disables the cache
+   */
+  public void setRoutePatternCacheBytes(long routePatternCacheBytes) {
+    this.routePatternCacheBytes = routePatternCacheBytes;
+  }
+
 }
@@ -3,26 +3,25 @@ package org.goplanit.matsim.converter;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.function.Function;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.goplanit.converter.idmapping.PlanitComponentIdMappers;
+import org.goplanit.matsim.util.LongIntHashMap;
+import org.goplanit.matsim.util.MatsimDepartureTimes;
+import org.goplanit.matsim.util.MatsimRouteLinkRefs;
+import org.goplanit.matsim.util.MatsimStopFacilityIds;
+import org.goplanit.matsim.util.MatsimTimeFormatter;
+import org.goplanit.matsim.util.MatsimXmlEmitter;
 import org.goplanit.matsim.xml.MatsimTransitAttributes;
 import org.goplanit.matsim.xml.MatsimTransitElements;
-import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
 import org.goplanit.service.routed.RoutedServices;
 import org.goplanit.utils.containers.ListUtils;
 import org.goplanit.utils.exceptions.PlanItRunTimeException;
-import org.goplanit.utils.graph.directed.EdgeSegment;
-import org.goplanit.utils.misc.IterableUtils;
 import org.goplanit.utils.misc.Pair;
 import org.goplanit.utils.misc.StringUtils;
 import org.goplanit.utils.mode.Mode;
@@ -30,14 +29,12 @@ import org.goplanit.utils.mode.TrackModeType;
 import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
 import org.goplanit.utils.network.layer.physical.LinkSegment;
 import org.goplanit.utils.service.routed.*;
-import org.goplanit.utils.time.ExtendedLocalTime;
 import org.goplanit.utils.xml.PlanitXmlWriterUtils;
 import org.goplanit.utils.zoning.DirectedConnectoid;
 import org.goplanit.utils.zoning.DirectedConnectoids;
 import org.goplanit.utils.zoning.Zone;
 import org.goplanit.zoning.Zoning;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Point;
 
 /**
  * Class that takes on the responsibility of writing all PT XML based files for a given PLANit memory model
@@ -59,53 +56,230 @@ class MatsimPtXmlWriter {
   /** the zoning writer used for the MATSim pt component*/
   private final MatsimWriter<?> matsimWriter;
   
+  /** number of transit lines per chunk when transit lines are written in parallel */
+  private static final int PARALLEL_TRANSIT_LINE_CHUNK_SIZE = 8;
+
+  /** first entry of route profile block keys, see {@link #createRouteProfileBlockKey(RoutedService, RoutedTripSchedule, MatsimPtServicesWriterSettings)} */
+  private static final long ROUTE_PROFILE_BLOCK = 0;
+
+  /** first entry of route (link references) block keys, see {@link #createRouteLinkRefsBlockKey(RoutedTripSchedule)} */
+  private static final long ROUTE_LINK_REFS_BLOCK = 1;
+
+  /**
+   * Writes a block of XML elements
+   */
+  @FunctionalInterface
+  private interface XmlBlockWriter {
+
+    /**
+     * Write the block
+     *
+     * @param xmlWriter to use
+     * @return true when success, false otherwise
+     * @throws XMLStreamException thrown if error
+     */
+    boolean write(XMLStreamWriter xmlWriter) throws XMLStreamException;
+  }
+
   /** track number of MATSim stop facilities persisted */
-  private final LongAdder matsimStopFacilityCounter = new LongAdder();
+  private final LongAdder matsimStopFacilityCounter;
 
   /** track number of MATSim transit lines persisted */
-  private final LongAdder matsimTransitLineCounter = new LongAdder();
+  private final LongAdder matsimTransitLineCounter;
+
+  /** track transit routes persisted by mapped MAtsim mode, thread safe so transit lines can be written in parallel */
+  private final Map<String, LongAdder> transitRouteCountersByMode;
+
+  /** context of the conversion being persisted (id mappers, compiled network, mode mappings), collected from the MATSim writer per document */
+  private MatsimWriteContext context;
 
-  /** track transit routes persisted by mapped MAtsim mode */
-  private Map<String, LongAdder> transitRouteCountersByMode = new HashMap<>();
+  /** track stop facility ids by access link segment and whether node access is downstream */
+  private final MatsimStopFacilityIds stopFacilityIds;
 
-  /** track all id mappings by type of PLANit entity */
-  private PlanitComponentIdMappers componentIdMappers = new PlanitComponentIdMappers();
+  /** per node id the slot of its upstream stop fallback candidates in {@link #upstreamStopFallbackCandidates} */
+  private final LongIntHashMap upstreamStopFallbackSlotByNodeId;
 
-  /** track stop facility ids via this map */
-  private Map<Integer, Integer> stopFacilityIdTracking = new HashMap<>();
+  /** per slot the first two entry link segments of a node (in entry order) with a downstream stop facility, the second may be null */
+  private final List<MacroscopicLinkSegment> upstreamStopFallbackCandidates;
+
+  /** cache of serialised route profiles and routes shared by transit routes, null when not used */
+  private MatsimXmlBlockCache routePatternCache;
 
   /* internal flag to avoid unnecessary repeat of warnings */
   private boolean loggedFrequencyTripWarning;
 
-  private static final DateTimeFormatter HHmmssFormat = DateTimeFormatter.ofPattern("HH:mm:ss");
+  /** track indentation level of the transit schedule, owned by this writer so forked writers can serialise transit lines independently */
+  private int indentLevel;
+
+  /** buffer to format times into, owned by this writer so forked writers can format times concurrently */
+  private final byte[] timeFormatBuffer;
+
+  /** Current indentation level
+   *
+   * @return indentation level
+   */
+  private int getIndentLevel() {
+    return indentLevel;
+  }
+
+  /**
+   * write a start element, without newline
+   *
+   * @param xmlWriter to use
+   * @param xmlElementName element to start tag
+   * @param increaseIndentation when true, increase indentation after this element has been written
+   * @throws XMLStreamException thrown if error
+   */
+  private void writeStartElement(XMLStreamWriter xmlWriter, String xmlElementName, boolean increaseIndentation) throws XMLStreamException {
+    PlanitXmlWriterUtils.writeStartElement(xmlWriter, xmlElementName, indentLevel);
+    if(increaseIndentation) {
+      ++indentLevel;
+    }
+  }
+
+  /**
+   * write a start element and add newline afterwards
+   *
+   * @param xmlWriter to use
+   * @param xmlElementName element to start tag
+   * @param increaseIndentation when true, increase indentation after this element has been written
+   * @throws XMLStreamException thrown if error
+   */
+  private void writeStartElementNewLine(XMLStreamWriter xmlWriter, String xmlElementName, boolean increaseIndentation) throws XMLStreamException {
+    PlanitXmlWriterUtils.writeStartElementNewLine(xmlWriter, xmlElementName, indentLevel);
+    if(increaseIndentation) {
+      ++indentLevel;
+    }
+  }
+
+  /**
+   * write an end element and add newline afterwards
+   *
+   * @param xmlWriter to use
+   * @param decreaseIndentation when true decrease indentation level before this element has been written
+   * @throws XMLStreamException thrown if error
+   */
+  private void writeEndElementNewLine(XMLStreamWriter xmlWriter, boolean decreaseIndentation) throws XMLStreamException {
+    if(decreaseIndentation) {
+      --indentLevel;
+    }
+    PlanitXmlWriterUtils.writeEndElementNewLine(xmlWriter, indentLevel);
+  }
+
+  /**
+   * Write an attribute with a time in seconds formatted as HH:mm:ss, where the direct XML emitter is provided with the formatted bytes as is
+   *
+   * @param xmlWriter to use
+   * @param attributeName to use
+   * @param timeSeconds to format, may exceed a single day
+   * @throws XMLStreamException thrown if error
+   */
+  private void writeTimeAttribute(XMLStreamWriter xmlWriter, String attributeName, int timeSeconds) throws XMLStreamException {
+    if(xmlWriter instanceof MatsimXmlEmitter) {
+      int length = MatsimTimeFormatter.format(timeSeconds, timeFormatBuffer, 0);
+      ((MatsimXmlEmitter) xmlWriter).writeEncodedAttribute(attributeName, timeFormatBuffer, 0, length);
+    }else {
+      xmlWriter.writeAttribute(attributeName, MatsimTimeFormatter.format(timeSeconds));
+    }
+  }
+
+  /** Collect the MATSim link id of a PLANit link segment, reusing the id mapped when compiling the network if available
+   *
+   * @param linkSegment to collect MATSim link id for
+   * @return MATSim link id
+   */
+  private String getMatsimLinkId(MacroscopicLinkSegment linkSegment) {
+    var linkSegmentIdMapper = context.getComponentIdMappers().getNetworkIdMappers().getLinkSegmentIdMapper();
+    var compiledNetwork = context.getCompiledNetwork();
+    return compiledNetwork != null ? compiledNetwork.getLinkSegmentId(linkSegment, linkSegmentIdMapper) : linkSegmentIdMapper.apply(linkSegment);
+  }
+
+  /** Write an attribute referencing a MATSim link, reusing the id mapped and encoded when compiling the network if available
+   *
+   * @param xmlWriter to use
+   * @param attributeName to write
+   * @param linkSegment to reference
+   * @throws XMLStreamException thrown if error
+   */
+  private void writeLinkRefAttribute(XMLStreamWriter xmlWriter, String attributeName, MacroscopicLinkSegment linkSegment) throws XMLStreamException {
+    var compiledNetwork = context.getCompiledNetwork();
+    byte[] encodedLinkId = compiledNetwork != null ? compiledNetwork.getEncodedLinkSegmentId(linkSegment) : null;
+    MatsimWriter.writeIdAttribute(xmlWriter, attributeName, getMatsimLinkId(linkSegment), encodedLinkId);
+  }
+
+  /**
+   * Index, per node, the entry link segments that have a stop facility registered on their downstream node, so that an upstream stop
+   * without a stop facility of its own can be resolved via its upstream node in constant time. Per node only the first two such link
+   * segments are kept, since at most one of them can be the opposite direction of the original access link segment (U-turn)
+   *
+   * @param transferConnectoids the stop facilities have been registered for
+   */
+  private void indexUpstreamStopFallbackCandidates(DirectedConnectoids transferConnectoids) {
+    upstreamStopFallbackSlotByNodeId.clear();
+    upstreamStopFallbackCandidates.clear();
+    for(DirectedConnectoid transferConnectoid : transferConnectoids) {
+      var accessLinkSegment = transferConnectoid.getAccessLinkSegment();
+      if(accessLinkSegment == null || !transferConnectoid.isNodeAccessDownstream()) {
+        continue;
+      }
+      var node = accessLinkSegment.getDownstreamNode();
+      if(upstreamStopFallbackSlotByNodeId.containsKey(node.getId())) {
+        continue;
+      }
+
+      MacroscopicLinkSegment firstCandidate = null;
+      MacroscopicLinkSegment secondCandidate = null;
+      for(MacroscopicLinkSegment entryLinkSegment : node.<MacroscopicLinkSegment>getEntryLinkSegments()) {
+        if(!stopFacilityIds.hasId(entryLinkSegment, true)) {
+          continue;
+        }
+        if(firstCandidate == null) {
+          firstCandidate = entryLinkSegment;
+        }else {
+          secondCandidate = entryLinkSegment;
+          break;
+        }
+      }
+      upstreamStopFallbackSlotByNodeId.put(node.getId(), upstreamStopFallbackCandidates.size() / 2);
+      upstreamStopFallbackCandidates.add(firstCandidate);
+      upstreamStopFallbackCandidates.add(secondCandidate);
+    }
+  }
 
-  /** based on access link segment and whether the stop is up or downstream determine the stop facility id (which internally we create and track).
-   * This is needed because only the combination of link segment and node determines a unique stop facility as we might have two stops on the same link segment (one up and one downstream)
+  /**
+   * Verify if transit vehicles of the mode may make a U-turn to reach a stop facility, i.e., when it is a ferry or train rather than a road based mode
    *
-   * @param accessLinkSegment to use
-   * @param nodeAccessDownstream to use
+   * @param mode to verify
+   * @return true when allowed, false otherwise
    */
-  private int getStopFacilityId(LinkSegment accessLinkSegment, boolean nodeAccessDownstream) {
-    int key = Math.toIntExact(nodeAccessDownstream ? accessLinkSegment.getId() : -accessLinkSegment.getId());
-    Integer stopFacilityId = stopFacilityIdTracking.get(key);
-    if(stopFacilityId == null){
-      stopFacilityIdTracking.put(key, stopFacilityIdTracking.values().size());
-      return stopFacilityIdTracking.get(key);
-    }
-    return stopFacilityId;
+  private static boolean isStopFacilityUTurnAllowed(Mode mode) {
+    return mode.hasPhysicalFeatures() && mode.getPhysicalFeatures().getTrackType() != TrackModeType.ROAD;
   }
 
   /**
-   * Verify if stop facility id has been generated before based on given information
+   * Find the first entry link segment of the upstream node of the given access link segment that has a stop facility on its downstream node,
+   * see {@link #indexUpstreamStopFallbackCandidates(DirectedConnectoids)}
    *
-   * @param accessLinkSegment to use
-   * @param nodeAccessDownstream to use
-   * @return true when already registered, false otherwise
+   * @param originalAccessLinkSegment to find alternative for
+   * @param allowStopFacilityUTurn when false, the directly opposing link segment of the original access link segment is not eligible
+   * @return found access link segment, null if none
    */
-  private boolean hasStopFacilityId(LinkSegment accessLinkSegment, boolean nodeAccessDownstream){
-    int key = Math.toIntExact(nodeAccessDownstream ? accessLinkSegment.getId() : -accessLinkSegment.getId());
-    Integer stopFacilityId = stopFacilityIdTracking.get(key);
-    return stopFacilityId != null;
+  private MacroscopicLinkSegment findUpstreamStopFallbackAccessLinkSegment(LinkSegment originalAccessLinkSegment, boolean allowStopFacilityUTurn) {
+    int slot = upstreamStopFallbackSlotByNodeId.get(originalAccessLinkSegment.getUpstreamNode().getId());
+    if(slot < 0) {
+      return null;
+    }
+    for(int index = 2 * slot; index < 2 * slot + 2; ++index) {
+      MacroscopicLinkSegment candidate = upstreamStopFallbackCandidates.get(index);
+      if(candidate == null) {
+        return null;
+      }
+      var oppositeDirLinkSegment = candidate.getOppositeDirectionSegment();
+      if(oppositeDirLinkSegment == null || !oppositeDirLinkSegment.equals(originalAccessLinkSegment) || allowStopFacilityUTurn) {
+        return candidate;
+      }
+    }
+    return null;
   }
 
   /**
@@ -114,7 +288,7 @@ class MatsimPtXmlWriter {
    * @param xmlWriter            to use
    * @param routedService       service the schedule belongs to
    * @param relLegTiming         to persist
-   * @param cumulativeTravelTime to reach this stop
+   * @param cumulativeTravelTimeSeconds to reach this stop in seconds
    * @param upstreamStop         indicates that stop to persist resides upstream of the service leg segment
    * @param servicesSettings     to use
    * @return true when success, false otherwise
@@ -124,7 +298,7 @@ class MatsimPtXmlWriter {
       final XMLStreamWriter xmlWriter,
       final RoutedService routedService,
       final RelativeLegTiming relLegTiming,
-      final LocalTime cumulativeTravelTime,
+      final int cumulativeTravelTimeSeconds,
       boolean upstreamStop,
       final MatsimPtServicesWriterSettings servicesSettings) throws XMLStreamException {
 
@@ -137,21 +311,15 @@ class MatsimPtXmlWriter {
     var physicalLinkSegmentsOfLeg = relLegTiming.getParentLegSegment().getPhysicalParentSegments();
     var accessLinkSegment = upstreamStop ? ListUtils.getFirstValue(physicalLinkSegmentsOfLeg) : ListUtils.getLastValue(physicalLinkSegmentsOfLeg);
 
-    boolean stopFacilityFound = hasStopFacilityId(accessLinkSegment, !upstreamStop) ;
+    boolean stopFacilityFound = stopFacilityIds.hasId(accessLinkSegment, !upstreamStop) ;
     if(!stopFacilityFound && upstreamStop){
       // if it is an upstream stop it might be the beginning of a route, in which case the connectoid is expected to be attached to the upstream node, however, in that case
       // the access link segment is likely to be an upstream link of that node, and not an exit link. Therefore, search the incoming link segments instead in that case, as this is still a valid
       // mapping if we find it (as long as it is not the directly opposing link segment, since transit vehicles are expected to not make u-turns (unless it is a ferry or train)
-      boolean allowStopFacilityUTurn = routedService.getMode().hasPhysicalFeatures() && routedService.getMode().getPhysicalFeatures().getTrackType() != TrackModeType.ROAD;
-      final var originalAccessLinkSegment = accessLinkSegment;
-      Function<EdgeSegment, Boolean> oppDirAccessLinkSegmentAllowed = oppositeDirLinkSegment -> (
-          oppositeDirLinkSegment==null || !oppositeDirLinkSegment.equals(originalAccessLinkSegment) || allowStopFacilityUTurn);
-
-      var stopFacilityAccessLinkSegment = IterableUtils.asStream(accessLinkSegment.getUpstreamNode().<MacroscopicLinkSegment>getEntryLinkSegments()).filter(
-          ls -> oppDirAccessLinkSegmentAllowed.apply(ls.getOppositeDirectionSegment()) && hasStopFacilityId(ls, true)).findFirst();
-      if(stopFacilityAccessLinkSegment.isPresent()){
+      var stopFacilityAccessLinkSegment = findUpstreamStopFallbackAccessLinkSegment(accessLinkSegment, isStopFacilityUTurnAllowed(routedService.getMode()));
+      if(stopFacilityAccessLinkSegment != null){
         // update
-        accessLinkSegment = stopFacilityAccessLinkSegment.get();
+        accessLinkSegment = stopFacilityAccessLinkSegment;
         upstreamStop = false;
         //flag
         stopFacilityFound = true;
@@ -164,19 +332,19 @@ class MatsimPtXmlWriter {
     }
 
     /* stop */
-    PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.STOP, matsimWriter.getIndentLevel());
+    PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.STOP, getIndentLevel());
 
     /* top ref id */
-    xmlWriter.writeAttribute(MatsimTransitAttributes.REF_ID, String.valueOf(getStopFacilityId(accessLinkSegment, !upstreamStop)));
+    xmlWriter.writeAttribute(MatsimTransitAttributes.REF_ID, String.valueOf(stopFacilityIds.getRegisteredId(accessLinkSegment, !upstreamStop)));
 
     /* arrivalOffset */
     if(!upstreamStop){
       /* only relevant for NOT the very first leg (first leg we assume is the only one corresponding to an upstream stop)*/
-      xmlWriter.writeAttribute(MatsimTransitAttributes.ARRIVAL_OFFSET, cumulativeTravelTime.format(HHmmssFormat));
+      writeTimeAttribute(xmlWriter, MatsimTransitAttributes.ARRIVAL_OFFSET, cumulativeTravelTimeSeconds);
     }
 
     /* departureOffset */
-    xmlWriter.writeAttribute(MatsimTransitAttributes.DEPARTURE_OFFSET, cumulativeTravelTime.plusNanos(relLegTiming.getDwellTime().toNanoOfDay()).format(HHmmssFormat));
+    writeTimeAttribute(xmlWriter, MatsimTransitAttributes.DEPARTURE_OFFSET, cumulativeTravelTimeSeconds + relLegTiming.getDwellTime().toSecondOfDay());
 
     /* awaitDeparture */
     xmlWriter.writeAttribute(MatsimTransitAttributes.AWAIT_DEPARTURE, String.valueOf(servicesSettings.isAwaitDepartures()));
@@ -184,6 +352,107 @@ class MatsimPtXmlWriter {
     return true;
   }
 
+  /**
+   * Create the key of a route profile block, consisting of all information that determines its XML, i.e., the access link segments and
+   * timings of each stop, the indentation and the relevant settings
+   *
+   * @param routedService    service the schedule belongs to
+   * @param tripSchedule     to create key for
+   * @param servicesSettings to use
+   * @return key, null when route profile cannot be written successfully
+   */
+  private long[] createRouteProfileBlockKey(RoutedService routedService, RoutedTripSchedule tripSchedule, MatsimPtServicesWriterSettings servicesSettings) {
+    if(!tripSchedule.hasRelativeLegTimings()){
+      return null;
+    }
+    int numberOfTimings = 0;
+    for(var timing : tripSchedule){
+      if(!timing.hasParentLegSegment() || !timing.getParentLegSegment().hasPhysicalParentSegments()){
+        return null;
+      }
+      ++numberOfTimings;
+    }
+
+    long[] key = new long[4 + 4 * numberOfTimings];
+    key[0] = ROUTE_PROFILE_BLOCK;
+    key[1] = getIndentLevel();
+    key[2] = servicesSettings.isAwaitDepartures() ? 1 : 0;
+    key[3] = isStopFacilityUTurnAllowed(routedService.getMode()) ? 1 : 0;
+    int index = 4;
+    for(var timing : tripSchedule){
+      var physicalLinkSegmentsOfLeg = timing.getParentLegSegment().getPhysicalParentSegments();
+      key[index++] = ListUtils.getFirstValue(physicalLinkSegmentsOfLeg).getId();
+      key[index++] = ListUtils.getLastValue(physicalLinkSegmentsOfLeg).getId();
+      key[index++] = timing.getDwellTime().toSecondOfDay();
+      key[index++] = timing.getDuration().toSecondOfDay();
+    }
+    return key;
+  }
+
+  /**
+   * Create the key of a route (link references) block, consisting of all information that determines its XML, i.e., the link segments
+   * and the indentation
+   *
+   * @param tripSchedule     to create key for
+   * @return key, null when route cannot be written successfully
+   */
+  private long[] createRouteLinkRefsBlockKey(RoutedTripSchedule tripSchedule) {
+    if(!tripSchedule.hasRelativeLegTimings()){
+      return null;
+    }
+    int numberOfLinkSegments = 0;
+    for(var timing : tripSchedule){
+      if(!timing.hasParentLegSegment() || !timing.getParentLegSegment().hasPhysicalParentSegments()){
+        return null;
+      }
+      numberOfLinkSegments += timing.getParentLegSegment().getPhysicalParentSegments().size();
+    }
+
+    long[] key = new long[2 + numberOfLinkSegments];
+    key[0] = ROUTE_LINK_REFS_BLOCK;
+    key[1] = getIndentLevel();
+    int index = 2;
+    for(var timing : tripSchedule){
+      for(var physicalSegment : timing.getParentLegSegment().getPhysicalParentSegments()){
+        key[index++] = physicalSegment.getId();
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Write a block of XML elements via the route pattern cache. When the block was written before, its cached serialised form is copied,
+   * otherwise it is written to an in memory emitter first and cached when successful. Without cache, direct XML emitter, or key the block
+   * is written directly
+   *
+   * @param xmlWriter     to use
+   * @param blockKey      content the block is derived from, may be null
+   * @param blockWriter   to write the block with
+   * @return true when success, false otherwise
+   * @throws XMLStreamException thrown if error
+   */
+  private boolean writeCachedXmlBlock(XMLStreamWriter xmlWriter, long[] blockKey, XmlBlockWriter blockWriter) throws XMLStreamException {
+    if(routePatternCache == null || blockKey == null || !(xmlWriter instanceof MatsimXmlEmitter)) {
+      return blockWriter.write(xmlWriter);
+    }
+
+    var emitter = (MatsimXmlEmitter) xmlWriter;
+    var key = new MatsimXmlBlockCache.Key(blockKey);
+    byte[] block = routePatternCache.get(key);
+    if(block == null) {
+      var blockEmitter = new MatsimXmlEmitter(null, 1024);
+      boolean success = blockWriter.write(blockEmitter);
+      block = blockEmitter.toByteArray();
+      if(!success) {
+        emitter.appendEncoded(block);
+        return false;
+      }
+      routePatternCache.put(key, block);
+    }
+    emitter.appendEncoded(block);
+    return true;
+  }
+
   /**
    * persisting MATSim transit route's route profile ( PLANit trip schedule of a routed service)
    *
@@ -201,24 +470,24 @@ class MatsimPtXmlWriter {
     }
 
     /* routeProfile*/
-    matsimWriter.writeStartElementNewLine(xmlWriter, MatsimTransitElements.ROUTE_PROFILE, true);
+    writeStartElementNewLine(xmlWriter, MatsimTransitElements.ROUTE_PROFILE, true);
 
     boolean first = true;
     boolean success = first;
-    LocalTime cumulativeTravelTime = LocalTime.MIN;
+    int cumulativeTravelTimeSeconds = 0;
     for(var timing : tripSchedule){
       if(first){
-        success = writeMatsimRouteProfileStop(xmlWriter, routedService, timing, cumulativeTravelTime, first, servicesSettings);
+        success = writeMatsimRouteProfileStop(xmlWriter, routedService, timing, cumulativeTravelTimeSeconds, first, servicesSettings);
         first = false;
       }
-      cumulativeTravelTime = cumulativeTravelTime.plusNanos(timing.getDwellTime().toNanoOfDay()).plusNanos(timing.getDuration().toNanoOfDay());
-      success = success && writeMatsimRouteProfileStop(xmlWriter, routedService, timing, cumulativeTravelTime, first, servicesSettings);
+      cumulativeTravelTimeSeconds += timing.getDwellTime().toSecondOfDay() + timing.getDuration().toSecondOfDay();
+      success = success && writeMatsimRouteProfileStop(xmlWriter, routedService, timing, cumulativeTravelTimeSeconds, first, servicesSettings);
       if(!success){
         break;
       }
     }
 
-    matsimWriter.writeEndElementNewLine(xmlWriter, true);
+    writeEndElementNewLine(xmlWriter, true);
     return success;
   }
 
@@ -237,20 +506,7 @@ class MatsimPtXmlWriter {
     }
 
     /* route*/
-    matsimWriter.writeStartElementNewLine(xmlWriter, MatsimTransitElements.ROUTE, true);
-
-    for(var timing : tripSchedule){
-      /* only extract the underlying physical link segments for MATSim */
-      for(var physicalSegment : timing.getParentLegSegment().getPhysicalParentSegments()){
-        PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.LINK, matsimWriter.getIndentLevel());
-        xmlWriter.writeAttribute(
-                MatsimTransitAttributes.REF_ID,
-                componentIdMappers.getNetworkIdMappers().getLinkSegmentIdMapper().apply((MacroscopicLinkSegment) physicalSegment));
-        PlanitXmlWriterUtils.writeNewLine(xmlWriter);
-      }
-    }
-
-    matsimWriter.writeEndElementNewLine(xmlWriter, true);
+    MatsimRouteLinkRefs.write(xmlWriter, tripSchedule, getIndentLevel(), this::writeLinkRefAttribute);
     return true; //success;
   }
 
@@ -260,14 +516,14 @@ class MatsimPtXmlWriter {
    *
    * @param xmlWriter to use
    * @param departureIndex index to use
-   * @param departureTime  to use
+   * @param departureTimeSeconds  to use, in seconds since midnight, may exceed a single day
    */
-  private void writeRouteDepartureTime(XMLStreamWriter xmlWriter, int departureIndex, ExtendedLocalTime departureTime) {
+  private void writeRouteDepartureTime(XMLStreamWriter xmlWriter, int departureIndex, int departureTimeSeconds) {
     /* departure*/
     try{
-      PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.DEPARTURE, matsimWriter.getIndentLevel());
+      PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.DEPARTURE, getIndentLevel());
       xmlWriter.writeAttribute(MatsimTransitAttributes.ID, String.valueOf(departureIndex));
-      xmlWriter.writeAttribute(MatsimTransitAttributes.DEPARTURE_TIME, departureTime.toString());
+      writeTimeAttribute(xmlWriter, MatsimTransitAttributes.DEPARTURE_TIME, departureTimeSeconds);
       PlanitXmlWriterUtils.writeNewLine(xmlWriter);
       //todo: vehicleRefId --> based on settings we should be able to map thiscatch
     }catch(Exception e){
@@ -280,7 +536,6 @@ class MatsimPtXmlWriter {
    * persisting MATSim transit route ( PLANit trip schedule of a routed service)
    *
    * @param xmlWriter           to use
-   * @param networkSettings     to use
    * @param routedServicesLayer to use
    * @param routedService       related to the schedule
    * @param tripsSchedule       to persist
@@ -289,17 +544,14 @@ class MatsimPtXmlWriter {
    */
   private boolean writeMatsimTransitRoute(
       XMLStreamWriter xmlWriter,
-      MatsimNetworkWriterSettings networkSettings,
       RoutedServicesLayer routedServicesLayer,
       RoutedService routedService,
       RoutedTripsSchedule tripsSchedule,
       MatsimPtServicesWriterSettings servicesSettings) throws XMLStreamException {
 
-    var modeMapping = networkSettings.collectActivatedPlanitModeToMatsimModeMapping(
-        (MacroscopicNetworkLayerImpl) routedServicesLayer.getParentLayer().getParentNetworkLayer());
-    String routedServiceId = componentIdMappers.getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService);
+    String routedServiceId = context.getComponentIdMappers().getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService);
 
-    var mappedMode = modeMapping.get(routedService.getMode());
+    var mappedMode = context.getMatsimMode(routedServicesLayer.getParentLayer().getParentNetworkLayer().getId(), routedService.getMode());
     if(StringUtils.isNullOrBlank(mappedMode)){
       LOGGER.warning(String.format("no mapped MATSim mode found for PLANit mode %s, ignore",routedService.getMode().getName()));
       return false;
@@ -315,59 +567,50 @@ class MatsimPtXmlWriter {
     for(var tripScheduleList : tripScheduleGroupedByLegTimings.values()){
       ++uniqueReltimingSeqCounter;
 
-      /* group by departure time, which one should hope leads to exactly a SINGLE entry per departure times key, if not then, there duplicate entries in the PLANit memory model */
-      var scheduleByDepartureTimes = tripScheduleList.stream().collect(Collectors.groupingBy( rts -> rts.getDepartures().stream().map( rtd -> rtd.getDepartureTime()).collect(Collectors.toList())));
-      /* now order by departure time and unpack the groupby list, so we can process them in order */
-      TreeSet<ExtendedLocalTime> orderedDepartureTimes = new TreeSet<>();
-      for(var entry : scheduleByDepartureTimes.entrySet()) {
-        entry.getKey().forEach( depTime -> {
-          var added = orderedDepartureTimes.add(depTime);
-          if(entry.getValue().size()>1) LOGGER.warning(
-              String.format("Multiple routedTripSchedules with identical servicelegs-departure time (%s), routed service %s (ext id: %s, %s) trips [%s]. Ignoring duplicates (pre-filter by day, or invalid GTFS source?)",
-                  depTime.toString(), routedServiceId, routedService.getExternalId(), routedService.getMode().getName(),
-                  entry.getValue().stream().map( e -> e.hasExternalId() ? e.getExternalId() : "").collect(Collectors.joining(","))));
-        });
-      }
+      /* unique departure times in order, where one should hope schedules do not share departure times, if they do there are duplicate entries in the PLANit memory model */
+      int[] orderedDepartureTimes = MatsimDepartureTimes.collectOrderedDepartureTimes(tripScheduleList, routedService, routedServiceId);
 
       /* transitRoute*/
-      matsimWriter.writeStartElement(xmlWriter, MatsimTransitElements.TRANSIT_ROUTE, true);
+      writeStartElement(xmlWriter, MatsimTransitElements.TRANSIT_ROUTE, true);
 
       /*id */
       xmlWriter.writeAttribute(MatsimTransitAttributes.ID, String.valueOf(uniqueReltimingSeqCounter)); // we can't use schedule id because a PLANit schedule might occur in multiple places due to its higher flexibility
       PlanitXmlWriterUtils.writeNewLine(xmlWriter);
 
       /* transportMode */
-      PlanitXmlWriterUtils.writeElementWithValueWithNewLine(xmlWriter, MatsimTransitElements.TRANSPORT_MODE, mappedMode ,matsimWriter.getIndentLevel());
+      PlanitXmlWriterUtils.writeElementWithValueWithNewLine(xmlWriter, MatsimTransitElements.TRANSPORT_MODE, mappedMode ,getIndentLevel());
       transitRouteCountersByMode.get(mappedMode).increment();
 
       /* description */
       if(routedService.hasName()) {
-        PlanitXmlWriterUtils.writeElementWithValueWithNewLine(xmlWriter, MatsimTransitElements.DESCRIPTION, routedService.getName(), matsimWriter.getIndentLevel());
+        PlanitXmlWriterUtils.writeElementWithValueWithNewLine(xmlWriter, MatsimTransitElements.DESCRIPTION, routedService.getName(), getIndentLevel());
       }
 
       /* in MATSim we now create a new route for all transit schedules with #departure times and THE EXACT SAME LEG TIMINGS*/
-      var referenceSchedule = scheduleByDepartureTimes.values().stream().findFirst().get().get(0);
+      var referenceSchedule = tripScheduleList.get(0);
 
       /* routeProfile */
-      success = writeMatsimRouteProfile(xmlWriter, routedService, referenceSchedule, servicesSettings);
+      success = writeCachedXmlBlock(xmlWriter, createRouteProfileBlockKey(routedService, referenceSchedule, servicesSettings),
+          blockWriter -> writeMatsimRouteProfile(blockWriter, routedService, referenceSchedule, servicesSettings));
 
       /* route */
-      success = writeMatsimRouteLinkRefs(xmlWriter, referenceSchedule, servicesSettings) && success;
+      success = writeCachedXmlBlock(xmlWriter, createRouteLinkRefsBlockKey(referenceSchedule),
+          blockWriter -> writeMatsimRouteLinkRefs(blockWriter, referenceSchedule, servicesSettings)) && success;
 
       /* departures */
       {
         int departureIndex = 1;
-        matsimWriter.writeStartElement(xmlWriter, MatsimTransitElements.DEPARTURES, true);
+        writeStartElement(xmlWriter, MatsimTransitElements.DEPARTURES, true);
         if(success) {
           PlanitXmlWriterUtils.writeNewLine(xmlWriter);
           for(var departuretime : orderedDepartureTimes){
             writeRouteDepartureTime(xmlWriter, ++departureIndex, departuretime);
           };
         }
-        matsimWriter.writeEndElementNewLine(xmlWriter, true);
+        writeEndElementNewLine(xmlWriter, true);
       }
 
-      matsimWriter.writeEndElementNewLine(xmlWriter, true);
+      writeEndElementNewLine(xmlWriter, true);
       if(!success){
         break;
       }
@@ -379,26 +622,19 @@ class MatsimPtXmlWriter {
    * persisting MATSim transit lines
    *
    * @param xmlWriter           to use
-   * @param networkSettings     to use
    * @param routedServicesLayer to use
    * @param routedService       to persist
    * @param servicesSettings    to use
    */
-  private void writeMatsimTransitLine(XMLStreamWriter xmlWriter, MatsimNetworkWriterSettings networkSettings, RoutedServicesLayer routedServicesLayer, RoutedService routedService, MatsimPtServicesWriterSettings servicesSettings) {
-    if(!routedService.getTripInfo().hasScheduleBasedTrips() && !loggedFrequencyTripWarning){
-      LOGGER.warning("Found frequency based PLANit routed services. These are ignored in persisting MATSim transit lines due to absence of schedule");
-      loggedFrequencyTripWarning = true;
-      return;
-    }
-
+  private void writeMatsimTransitLine(XMLStreamWriter xmlWriter, RoutedServicesLayer routedServicesLayer, RoutedService routedService, MatsimPtServicesWriterSettings servicesSettings) {
     try {
       /* transitLine*/
-      matsimWriter.writeStartElement(xmlWriter, MatsimTransitElements.TRANSIT_LINE, true);
+      writeStartElement(xmlWriter, MatsimTransitElements.TRANSIT_LINE, true);
       matsimTransitLineCounter.increment();
 
       /*id */
       xmlWriter.writeAttribute(MatsimTransitAttributes.ID,
-              componentIdMappers.getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService));
+              context.getComponentIdMappers().getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService));
 
       /* name */
       if(routedService.hasName() || routedService.hasNameDescription()){
@@ -410,12 +646,12 @@ class MatsimPtXmlWriter {
 
       /* transitRoute (PLANit trip schedule) */
       boolean success = writeMatsimTransitRoute(
-          xmlWriter, networkSettings, routedServicesLayer, routedService, routedService.getTripInfo().getScheduleBasedTrips(), servicesSettings);
+          xmlWriter, routedServicesLayer, routedService, routedService.getTripInfo().getScheduleBasedTrips(), servicesSettings);
 
-      matsimWriter.writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
+      writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
       if(!success){
         LOGGER.warning(String.format("Unable to complete a transit route part transitLine %s as expected, XML likely incomplete or corrupted for this entry",
-                componentIdMappers.getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService)));
+                context.getComponentIdMappers().getRoutedServicesIdMapper().getRoutedServiceRefIdMapper().apply(routedService)));
       }
     } catch (XMLStreamException e) {
       LOGGER.severe(e.getMessage());
@@ -423,22 +659,53 @@ class MatsimPtXmlWriter {
     }
   }
 
+  /**
+   * Write the transit lines in chunks that are serialised in parallel by forked writers and appended to the document in their original order,
+   * resulting in identical output to writing them one by one
+   *
+   * @param xmlFileWriterPair   to append the chunks to
+   * @param transitLines        routed services to persist as transit lines, with their layer, in order
+   * @param servicesSettings    to use
+   */
+  private void writeMatsimTransitLinesInParallel(
+      Pair<XMLStreamWriter,Writer> xmlFileWriterPair,
+      List<Pair<RoutedServicesLayer, RoutedService>> transitLines,
+      MatsimPtServicesWriterSettings servicesSettings) {
+    final boolean useEmitter = xmlFileWriterPair.first() instanceof MatsimXmlEmitter;
+    matsimWriter.createChunkProcessor().process(transitLines, PARALLEL_TRANSIT_LINE_CHUNK_SIZE,
+        transitLineChunk -> {
+          try {
+            var forkedWriter = new MatsimPtXmlWriter(this);
+            var xmlChunk = new MatsimXmlChunk(useEmitter);
+            for(var transitLine : transitLineChunk) {
+              forkedWriter.writeMatsimTransitLine(xmlChunk.getXmlWriter(), transitLine.first(), transitLine.second(), servicesSettings);
+            }
+            return xmlChunk.complete();
+          }catch(XMLStreamException e) {
+            LOGGER.severe(e.getMessage());
+            throw new PlanItRunTimeException("Error while writing chunk of MATSim transitLine XML elements");
+          }
+        },
+        xmlChunk -> xmlChunk.appendTo(xmlFileWriterPair));
+  }
+
   /**
    * write the transit lines which we extract from the PLANit routed services
    *
-   * @param xmlWriter        to use
-   * @param networkSettings  to use
+   * @param xmlFileWriterPair to use
    * @param routedServices   to use
    * @param servicesSettings to use
    */
-  private void writeMatsimTransitLines(XMLStreamWriter xmlWriter, MatsimNetworkWriterSettings networkSettings, RoutedServices routedServices, MatsimPtServicesWriterSettings servicesSettings) {
+  private void writeMatsimTransitLines(
+      Pair<XMLStreamWriter,Writer> xmlFileWriterPair, RoutedServices routedServices, MatsimPtServicesWriterSettings servicesSettings) {
     transitRouteCountersByMode.clear();
     /* reset counters per mapped mode */
-    routedServices.getLayers().forEach( layer ->
-        networkSettings.collectActivatedPlanitModeToMatsimModeMapping(
-            (MacroscopicNetworkLayerImpl) layer.getParentLayer().getParentNetworkLayer()).entrySet().forEach(
-            e -> transitRouteCountersByMode.put(e.getValue(), new LongAdder())));
+    for(var modeMaskMapping : context.getModeMaskMappings()) {
+      modeMaskMapping.getPlanitModeToMatsimModeMapping().values().forEach(matsimMode -> transitRouteCountersByMode.put(matsimMode, new LongAdder()));
+    }
 
+    /* collect transit lines in order of persistence */
+    List<Pair<RoutedServicesLayer, RoutedService>> transitLines = new ArrayList<>();
     routedServices.getLayers().streamSortedBy(RoutedServicesLayer::getId).forEach(routedServicesLayer -> {
 
       var supportedModes = routedServicesLayer.getSupportedModes();
@@ -454,13 +721,26 @@ class MatsimPtXmlWriter {
         }
 
         servicesByMode.streamSortedBy(RoutedService::getId).forEach( service -> {
-            writeMatsimTransitLine(xmlWriter, networkSettings, routedServicesLayer, service, servicesSettings);
+          if(!service.getTripInfo().hasScheduleBasedTrips() && !loggedFrequencyTripWarning){
+            LOGGER.warning("Found frequency based PLANit routed services. These are ignored in persisting MATSim transit lines due to absence of schedule");
+            loggedFrequencyTripWarning = true;
+            return;
+          }
+          transitLines.add(Pair.of(routedServicesLayer, service));
         }); // services
 
       }); // mode
 
     }); // layer
 
+    if(servicesSettings.isParallelTransitLineWriting()) {
+      writeMatsimTransitLinesInParallel(xmlFileWriterPair, transitLines, servicesSettings);
+    }else {
+      for(var transitLine : transitLines) {
+        writeMatsimTransitLine(xmlFileWriterPair.first(), transitLine.first(), transitLine.second(), servicesSettings);
+      }
+    }
+
   }
     
 
@@ -473,12 +753,12 @@ class MatsimPtXmlWriter {
    */
   private void writeMatsimTransitStops(XMLStreamWriter xmlWriter, Zoning zoning, MatsimZoningWriterSettings zoningWriterSettings) {
     try {
-      matsimWriter.writeStartElementNewLine(xmlWriter,MatsimTransitElements.TRANSIT_STOPS, true /* add indentation*/);
+      writeStartElementNewLine(xmlWriter,MatsimTransitElements.TRANSIT_STOPS, true /* add indentation*/);
            
       /* directed connectoids as stop facilities */      
       writeMatsimStopFacilities(xmlWriter, zoning.getTransferConnectoids(), zoningWriterSettings);
                   
-      matsimWriter.writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
+      writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
     } catch (XMLStreamException e) {
       LOGGER.severe(e.getMessage());
       throw new PlanItRunTimeException("Error while writing MATSim transitStops XML element");
@@ -500,6 +780,8 @@ class MatsimPtXmlWriter {
       matsimStopFacilityCounter.increment();
     });
 
+    indexUpstreamStopFallbackCandidates(transferConnectoids);
+
   }
 
   /**
@@ -511,7 +793,7 @@ class MatsimPtXmlWriter {
    */
   private void writeMatsimStopFacility(XMLStreamWriter xmlWriter, DirectedConnectoid transferConnectoid, MatsimZoningWriterSettings zoningWriterSettings) {
     try {
-      PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.STOP_FACILITY, matsimWriter.getIndentLevel());
+      PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.STOP_FACILITY, getIndentLevel());
             
       /* attributes  of element*/
       {
@@ -528,24 +810,21 @@ class MatsimPtXmlWriter {
          * incoming link segments leading to a non-unique mapping to the underlying physical network which is required in a MATSim context. The only option is to use combination
          * of link segment + physical node location
          */
-        xmlWriter.writeAttribute(MatsimTransitAttributes.ID, String.valueOf(getStopFacilityId(accessLinkSegment, transferConnectoid.isNodeAccessDownstream())));
+        xmlWriter.writeAttribute(MatsimTransitAttributes.ID, String.valueOf(stopFacilityIds.getOrRegisterId(accessLinkSegment, transferConnectoid.isNodeAccessDownstream())));
 
         /* We use the indicated vertex of the access link segment as the stop location */
         var stopFacilityPhysicalReferenceNode = transferConnectoid.isNodeAccessDownstream() ? transferConnectoid.getAccessLinkSegment().getDownstreamNode() : transferConnectoid.getAccessLinkSegment().getUpstreamNode();
-        Point stopFacilityLocation = stopFacilityPhysicalReferenceNode.getPosition();
-        
-        Coordinate nodeCoordinate = matsimWriter.extractDestinationCrsCompatibleCoordinate(stopFacilityLocation);
+        Coordinate nodeCoordinate = matsimWriter.extractDestinationCrsCompatibleCoordinate(stopFacilityPhysicalReferenceNode);
         if(nodeCoordinate != null) {        
           /* X */
-          xmlWriter.writeAttribute(MatsimTransitAttributes.X, matsimWriter.getSettings().getDecimalFormat().format(nodeCoordinate.x));
+          MatsimWriter.writeDecimalAttribute(xmlWriter, MatsimTransitAttributes.X, nodeCoordinate.x, matsimWriter.getSettings().getDecimalFormatter());
           /* Y */
-          xmlWriter.writeAttribute(MatsimTransitAttributes.Y, matsimWriter.getSettings().getDecimalFormat().format(nodeCoordinate.y));
+          MatsimWriter.writeDecimalAttribute(xmlWriter, MatsimTransitAttributes.Y, nodeCoordinate.y, matsimWriter.getSettings().getDecimalFormatter());
           /* Z coordinate (v2) not supported */
         }
         
         /* LINK REF ID */
-        xmlWriter.writeAttribute(
-                MatsimTransitAttributes.LINK_REF_ID, componentIdMappers.getNetworkIdMappers().getLinkSegmentIdMapper().apply(accessLinkSegment));
+        writeLinkRefAttribute(xmlWriter, MatsimTransitAttributes.LINK_REF_ID, accessLinkSegment);
         
         /* NAME - based on the transfer zone names if any */
         String stopFacilityName = "";
@@ -582,33 +861,49 @@ class MatsimPtXmlWriter {
     for(var entry : transitRouteCountersByMode.entrySet()) {
       LOGGER.info(String.format("[STATS] created %d transit routes for mode: %s", entry.getValue().longValue(), entry.getKey()));
     }
+    if(routePatternCache != null && routePatternCache.getHits() > 0) {
+      LOGGER.info(String.format("[STATS] reused %d cached route profiles/routes (%d serialised)", routePatternCache.getHits(), routePatternCache.getMisses()));
+    }
   }   
 
+  /** Prepare this writer for persisting a transit schedule, i.e., collect the write context prepared by the MATSim writer and reset all state
+   * of a previous document
+   *
+   * @param routedServicesSettings to use (may be null)
+   */
+  private void prepareWrite(MatsimPtServicesWriterSettings routedServicesSettings) {
+    context = matsimWriter.getWriteContext();
+    PlanItRunTimeException.throwIfNull(context, "MATSim write context not prepared, unable to persist transit schedule");
+    indentLevel = matsimWriter.getIndentLevel();
+    transitRouteCountersByMode.clear();
+    matsimStopFacilityCounter.reset();
+    matsimTransitLineCounter.reset();
+    stopFacilityIds.clear();
+    routePatternCache = null;
+    if(routedServicesSettings != null && routedServicesSettings.getRoutePatternCacheBytes() > 0 && matsimWriter.getSettings().isDirectXmlEmitter()) {
+      routePatternCache = new MatsimXmlBlockCache(routedServicesSettings.getRoutePatternCacheBytes());
+    }
+  }
+
   /** Starting point for persisting the MATSim transit schedule file (infrastructure, e.g., stops and stations, only)
    *
    * @param zoning to extract information to persist from
    * @param zoningWriterSettings to use
    * @param routedServices to extract information to persist from (if not null)
    * @param routedServicesSettings to use
-   * @param networkSettings to use, containing for example the mode mapping information required when writing schedules (may be null if no reouted services are provided)
    */
   protected void writeXmlTransitScheduleFile(
       Zoning zoning,
       MatsimZoningWriterSettings zoningWriterSettings,
       RoutedServices routedServices,
-      MatsimPtServicesWriterSettings routedServicesSettings,
-      MatsimNetworkWriterSettings networkSettings) {
+      MatsimPtServicesWriterSettings routedServicesSettings) {
     PlanItRunTimeException.throwIfNull(zoning,"Unable to persist MATSim transit schedule file when PLANit zoning object is null");
 
     /* prep */
-    componentIdMappers.populateMissingIdMappers(matsimWriter.getIdMapperType());
-    transitRouteCountersByMode.clear();
-    matsimStopFacilityCounter.reset();
-    matsimTransitLineCounter.reset();
-    stopFacilityIdTracking.clear();
+    prepareWrite(routedServicesSettings);
 
-    Path matsimNetworkPath =  Paths.get(matsimWriter.getSettings().getOutputDirectory(), matsimWriter.getSettings().getFileName().concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
-    Pair<XMLStreamWriter,Writer> xmlFileWriterPair = PlanitXmlWriterUtils.createXMLWriter(matsimNetworkPath);
+    Path matsimNetworkPath =  Paths.get(matsimWriter.getSettings().getOutputDirectory(), matsimWriter.getSettings().getFileName().concat(matsimWriter.getSettings().getXmlFileNameExtension()));
+    Pair<XMLStreamWriter,Writer> xmlFileWriterPair = MatsimWriter.createXmlWriter(matsimNetworkPath, matsimWriter.getSettings(), matsimWriter.getSharedWorkerExecutor());
 
     try {
       /* start */
@@ -616,7 +911,7 @@ class MatsimPtXmlWriter {
       
       /* body */
       loggedFrequencyTripWarning = false;
-      writeTransitScheduleXML(xmlFileWriterPair.first(), networkSettings, zoning, zoningWriterSettings, routedServices, routedServicesSettings);
+      writeTransitScheduleXML(xmlFileWriterPair, zoning, zoningWriterSettings, routedServices, routedServicesSettings);
       
     }catch (Exception e) {
       LOGGER.severe(e.getMessage());
@@ -628,6 +923,9 @@ class MatsimPtXmlWriter {
         PlanitXmlWriterUtils.endXmlDocument(xmlFileWriterPair);
       }catch(Exception e) {
         LOGGER.severe("Unable to finalise XML document after PLANit exception");
+      }finally {
+        /* release file and compression threads, even when the document could not be finalised */
+        MatsimWriter.closeXmlWriter(xmlFileWriterPair);
       }
     }
     
@@ -637,27 +935,27 @@ class MatsimPtXmlWriter {
   /**
    * convert the PLANit public transport infrastructure to MATSim transit schedule XML
    *
-   * @param xmlWriter            to use
-   * @param networkSettings      to use
+   * @param xmlFileWriterPair    to use
    * @param zoning               to use
    * @param zoningWriterSettings to use
    * @param routedServices       to use
    * @param servicesSettings     to use
    */
   protected void writeTransitScheduleXML(
-      XMLStreamWriter xmlWriter, MatsimNetworkWriterSettings networkSettings, Zoning zoning, MatsimZoningWriterSettings zoningWriterSettings, RoutedServices routedServices, MatsimPtServicesWriterSettings servicesSettings) {
+      Pair<XMLStreamWriter,Writer> xmlFileWriterPair, Zoning zoning, MatsimZoningWriterSettings zoningWriterSettings, RoutedServices routedServices, MatsimPtServicesWriterSettings servicesSettings) {
+    XMLStreamWriter xmlWriter = xmlFileWriterPair.first();
     try {
-      matsimWriter.writeStartElementNewLine(xmlWriter,MatsimTransitElements.TRANSIT_SCHEDULE, true /* add indentation*/);
+      writeStartElementNewLine(xmlWriter,MatsimTransitElements.TRANSIT_SCHEDULE, true /* add indentation*/);
       
 
       /* directed connectoids as stop facilities */
       writeMatsimTransitStops(xmlWriter, zoning, zoningWriterSettings);
 
       if(routedServices != null){
-        writeMatsimTransitLines(xmlWriter, networkSettings, routedServices, servicesSettings);
+        writeMatsimTransitLines(xmlFileWriterPair, routedServices, servicesSettings);
       }
                   
-      matsimWriter.writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
+      writeEndElementNewLine(xmlWriter, true /* undo indentation */ ); // transit schedule
     } catch (XMLStreamException e) {
       LOGGER.severe(e.getMessage());
       throw new PlanItRunTimeException("error while writing MATSim transitSchedule XML element");
@@ -671,5 +969,34 @@ class MatsimPtXmlWriter {
    */
   public MatsimPtXmlWriter(final MatsimWriter<?> matsimWriter) {
     this.matsimWriter = matsimWriter;
+    this.matsimStopFacilityCounter = new LongAdder();
+    this.matsimTransitLineCounter = new LongAdder();
+    this.transitRouteCountersByMode = new ConcurrentHashMap<>();
+    this.stopFacilityIds = new MatsimStopFacilityIds();
+    this.upstreamStopFallbackSlotByNodeId = new LongIntHashMap();
+    this.upstreamStopFallbackCandidates = new ArrayList<>();
+    this.timeFormatBuffer = new byte[MatsimTimeFormatter.MAX_FORMATTED_LENGTH];
+  }
+
+  /**
+   * Fork constructor, creating a writer that shares all state of the parent, i.e., id mappings, registered stop facilities and (thread safe) counters,
+   * but tracks its own indentation so it can serialise transit lines independently of the parent. Registered stop facilities are only read
+   * while writing transit lines, so forks may be used concurrently
+   *
+   * @param parent to fork from
+   */
+  private MatsimPtXmlWriter(final MatsimPtXmlWriter parent) {
+    this.matsimWriter = parent.matsimWriter;
+    this.matsimStopFacilityCounter = parent.matsimStopFacilityCounter;
+    this.matsimTransitLineCounter = parent.matsimTransitLineCounter;
+    this.transitRouteCountersByMode = parent.transitRouteCountersByMode;
+    this.context = parent.context;
+    this.stopFacilityIds = parent.stopFacilityIds;
+    this.upstreamStopFallbackSlotByNodeId = parent.upstreamStopFallbackSlotByNodeId;
+    this.upstreamStopFallbackCandidates = parent.upstreamStopFallbackCandidates;
+    this.routePatternCache = parent.routePatternCache;
+    this.loggedFrequencyTripWarning = parent.loggedFrequencyTripWarning;
+    this.indentLevel = parent.indentLevel;
+    this.timeFormatBuffer = new byte[MatsimTimeFormatter.MAX_FORMATTED_LENGTH];
   }
 }
@@ -98,24 +98,57 @@ public class MatsimRoutedServicesWriter extends MatsimWriter<RoutedServices> imp
    */  
   @Override
   public void write(RoutedServices routedServices) throws PlanItException {
-    if(!validateServiceNetwork(routedServices.getParentNetwork()) || !validateNetwork(routedServices.getParentNetwork().getParentNetwork())) {
+    if(!prepareWrite(routedServices)) {
       return;
     }
 
+    /* write stops */    
+    writeXmlTransitScheduleFile(routedServices);
+  }
+
+  /**
+   * Prepare writing the routed services without writing any file, i.e., validate and log settings and, unless the write context is shared by
+   * the network writer, validate the network, prepare the coordinate reference system and create the write context.
+   * Afterwards the transit schedule can be written independently of other files
+   *
+   * @param routedServices to prepare
+   * @return true when the transit schedule can be written, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  boolean prepareWrite(RoutedServices routedServices) throws PlanItException {
+    if(!validateServiceNetwork(routedServices.getParentNetwork())) {
+      return false;
+    }
+    if(!hasSharedWriteContext() && !validateNetwork(routedServices.getParentNetwork().getParentNetwork())) {
+      return false;
+    }
+
     //validateSettings();
     
     /* log settings */
     getSettings().logSettingsWithoutModeMapping();
 
-    // todo: likely can be removed as no geo information is used during persistence to MATSim for PT services
-    /* CRS */
-    prepareCoordinateReferenceSystem(
-            routedServices.getParentNetwork().getParentNetwork().getCoordinateReferenceSystem(), getSettings().getDestinationCoordinateReferenceSystem(), getSettings().getCountry());
+    if(!hasSharedWriteContext()) {
+      /* id mapping */
+      getComponentIdMappers().populateMissingIdMappers(getIdMapperType());
 
-    /* write stops */    
-    new MatsimPtXmlWriter(this).writeXmlTransitScheduleFile(
-        referenceZoning, zoningSettings, routedServices, getSettings(), networkSettings);
+      // todo: likely can be removed as no geo information is used during persistence to MATSim for PT services
+      /* CRS */
+      prepareCoordinateReferenceSystem(
+              routedServices.getParentNetwork().getParentNetwork().getCoordinateReferenceSystem(), getSettings().getDestinationCoordinateReferenceSystem(), getSettings().getCountry());
+      setWriteContext(MatsimWriteContext.create(getComponentIdMappers(), getDestinationCrsTransformer(), networkSettings, routedServices));
+    }
+    return true;
+  }
 
+  /**
+   * Write the transit schedule file containing the stops and services, requires {@link #prepareWrite(RoutedServices)}
+   *
+   * @param routedServices to use
+   */
+  void writeXmlTransitScheduleFile(RoutedServices routedServices) {
+    new MatsimPtXmlWriter(this).writeXmlTransitScheduleFile(
+        referenceZoning, zoningSettings, routedServices, getSettings());
   }
 
   /**
@@ -0,0 +1,275 @@
+package org.goplanit.matsim.converter;
+
+import java.util.Arrays;
+
+import org.goplanit.matsim.util.DoubleIntMinHeap;
+
+/**
+ * Directed graph of the links of a compiled network in compressed sparse row form, i.e., outgoing link segments are stored
+ * contiguously per node in primitive arrays, with free flow travel times as costs. Only link segments with at least one activated
+ * mode (and a positive free speed) are included, so the graph reflects the persisted MATSim network.
+ * <p>
+ * The graph is immutable, shortest path trees are computed with a per thread {@link Search} so trees can be computed in parallel.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+class MatsimShortestPathGraph {
+
+  /** per node the offset of its first outgoing edge, the last entry equals the number of edges */
+  private final int[] outgoingOffsets;
+
+  /** downstream node index by edge */
+  private final int[] edgeHeads;
+
+  /** travel time in seconds by edge */
+  private final double[] edgeTravelTimeSeconds;
+
+  /** length in meters by edge */
+  private final double[] edgeLengthMeters;
+
+  /**
+   * Shortest path tree search on the graph, reusing its arrays and heap between trees. Not thread safe, use one per thread
+   */
+  class Search {
+
+    /** travel time in seconds by node index of the current tree */
+    private final double[] travelTimeSeconds;
+
+    /** distance in meters (along the fastest path) by node index of the current tree */
+    private final double[] distanceMeters;
+
+    /** per node index the tree in which it was last reached, nodes are not reached in the current tree otherwise */
+    private final int[] reachedInTree;
+
+    /** per node index the tree in which it was last settled */
+    private final int[] settledInTree;
+
+    /** node indices settled by the current tree, in order of settling */
+    private final int[] settledNodes;
+
+    /** number of nodes settled by the current tree */
+    private int numberOfSettledNodes;
+
+    /** heap of reached nodes keyed by travel time */
+    private final DoubleIntMinHeap heap;
+
+    /** number of the current tree, starting at 1 */
+    private int currentTree;
+
+    /**
+     * Constructor
+     */
+    private Search() {
+      int numberOfNodes = getNumberOfNodes();
+      this.travelTimeSeconds = new double[numberOfNodes];
+      this.distanceMeters = new double[numberOfNodes];
+      this.reachedInTree = new int[numberOfNodes];
+      this.settledInTree = new int[numberOfNodes];
+      this.settledNodes = new int[numberOfNodes];
+      this.heap = new DoubleIntMinHeap(1024);
+    }
+
+    /**
+     * Compute the free flow shortest path tree from the source node to all reachable nodes
+     *
+     * @param sourceNodeIndex to compute tree from
+     */
+    void computeTree(int sourceNodeIndex) {
+      computeTree(sourceNodeIndex, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compute the free flow shortest path tree from the source node to all nodes reachable within the given bounds. Paths are not
+     * extended beyond either bound, so the search ends once no node within the bounds remains, i.e., its effort depends on the size
+     * of the bounded neighbourhood rather than the network. Distances are those along the fastest paths that remain within the bounds
+     *
+     * @param sourceNodeIndex to compute tree from
+     * @param maxTravelTimeSeconds maximum travel time of the tree
+     * @param maxDistanceMeters maximum distance of the tree
+     */
+    void computeTree(int sourceNodeIndex, double maxTravelTimeSeconds, double maxDistanceMeters) {
+      ++currentTree;
+      numberOfSettledNodes = 0;
+      heap.clear();
+      reachedInTree[sourceNodeIndex] = currentTree;
+      travelTimeSeconds[sourceNodeIndex] = 0;
+      distanceMeters[sourceNodeIndex] = 0;
+      heap.push(0, sourceNodeIndex);
+
+      while(!heap.isEmpty()) {
+        int nodeIndex = heap.peekValue();
+        double nodeTravelTime = heap.peekKey();
+        heap.pop();
+        if(settledInTree[nodeIndex] == currentTree || nodeTravelTime > travelTimeSeconds[nodeIndex]) {
+          continue;
+        }
+        settledInTree[nodeIndex] = currentTree;
+        settledNodes[numberOfSettledNodes++] = nodeIndex;
+
+        for(int edge = outgoingOffsets[nodeIndex]; edge < outgoingOffsets[nodeIndex + 1]; ++edge) {
+          int head = edgeHeads[edge];
+          double headTravelTime = nodeTravelTime + edgeTravelTimeSeconds[edge];
+          double headDistance = distanceMeters[nodeIndex] + edgeLengthMeters[edge];
+          if(headTravelTime > maxTravelTimeSeconds || headDistance > maxDistanceMeters) {
+            continue;
+          }
+          if(reachedInTree[head] != currentTree || headTravelTime < travelTimeSeconds[head]) {
+            reachedInTree[head] = currentTree;
+            travelTimeSeconds[head] = headTravelTime;
+            distanceMeters[head] = headDistance;
+            heap.push(headTravelTime, head);
+          }
+        }
+      }
+    }
+
+    /**
+     * Number of nodes settled by the current tree, i.e., all nodes it reached
+     *
+     * @return number of settled nodes
+     */
+    int getNumberOfSettledNodes() {
+      return numberOfSettledNodes;
+    }
+
+    /**
+     * Collect a node settled by the current tree
+     *
+     * @param settledIndex position in order of settling, below {@link #getNumberOfSettledNodes()}
+     * @return node index
+     */
+    int getSettledNode(int settledIndex) {
+      return settledNodes[settledIndex];
+    }
+
+    /**
+     * Travel time of the fastest path of the current tree, only valid when reached
+     *
+     * @param nodeIndex to collect for
+     * @return travel time in seconds
+     */
+    double getTravelTimeSeconds(int nodeIndex) {
+      return travelTimeSeconds[nodeIndex];
+    }
+
+    /**
+     * Distance along the fastest path of the current tree, only valid when reached
+     *
+     * @param nodeIndex to collect for
+     * @return distance in meters
+     */
+    double getDistanceMeters(int nodeIndex) {
+      return distanceMeters[nodeIndex];
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param outgoingOffsets per node the offset of its first outgoing edge
+   * @param edgeHeads downstream node index by edge
+   * @param edgeTravelTimeSeconds travel time by edge
+   * @param edgeLengthMeters length by edge
+   */
+  private MatsimShortestPathGraph(int[] outgoingOffsets, int[] edgeHeads, double[] edgeTravelTimeSeconds, double[] edgeLengthMeters) {
+    this.outgoingOffsets = outgoingOffsets;
+    this.edgeHeads = edgeHeads;
+    this.edgeTravelTimeSeconds = edgeTravelTimeSeconds;
+    this.edgeLengthMeters = edgeLengthMeters;
+  }
+
+  /**
+   * Create the graph of a compiled network
+   *
+   * @param compiledNetwork to create graph for
+   * @param travelTimeFactor applied to all free flow travel times
+   * @return created graph
+   */
+  static MatsimShortestPathGraph create(MatsimCompiledNetwork compiledNetwork, double travelTimeFactor) {
+    final int numberOfLinkSegments = compiledNetwork.getNumberOfLinkSegments();
+    final int[] fromNodeIndices = new int[numberOfLinkSegments];
+    final int[] toNodeIndices = new int[numberOfLinkSegments];
+    final double[] lengthMeters = new double[numberOfLinkSegments];
+    final double[] freespeedMeterSecond = new double[numberOfLinkSegments];
+    for(int index = 0; index < numberOfLinkSegments; ++index) {
+      fromNodeIndices[index] = compiledNetwork.getFromNodeIndex(index);
+      toNodeIndices[index] = compiledNetwork.getToNodeIndex(index);
+      lengthMeters[index] = compiledNetwork.getLengthMeters(index);
+      /* link segments without activated modes are not persisted, so excluded as if without free speed */
+      freespeedMeterSecond[index] = compiledNetwork.getModeMask(index) != 0 ? compiledNetwork.getFreespeedMeterSecond(index) : 0;
+    }
+    return create(compiledNetwork.getNumberOfNodes(), fromNodeIndices, toNodeIndices, lengthMeters, freespeedMeterSecond, travelTimeFactor);
+  }
+
+  /**
+   * Create the graph from link segments given by their node indices, lengths and free speeds. Link segments without a positive
+   * free speed are excluded
+   *
+   * @param numberOfNodes of the graph
+   * @param fromNodeIndices upstream node index by link segment
+   * @param toNodeIndices downstream node index by link segment
+   * @param lengthMeters length by link segment
+   * @param freespeedMeterSecond free speed by link segment
+   * @param travelTimeFactor applied to all free flow travel times
+   * @return created graph
+   */
+  static MatsimShortestPathGraph create(
+      int numberOfNodes, int[] fromNodeIndices, int[] toNodeIndices, double[] lengthMeters, double[] freespeedMeterSecond, double travelTimeFactor) {
+    final int numberOfLinkSegments = fromNodeIndices.length;
+
+    /* count outgoing edges per node, then turn counts into offsets */
+    int[] outgoingOffsets = new int[numberOfNodes + 1];
+    for(int index = 0; index < numberOfLinkSegments; ++index) {
+      if(freespeedMeterSecond[index] > 0) {
+        ++outgoingOffsets[fromNodeIndices[index] + 1];
+      }
+    }
+    for(int nodeIndex = 0; nodeIndex < numberOfNodes; ++nodeIndex) {
+      outgoingOffsets[nodeIndex + 1] += outgoingOffsets[nodeIndex];
+    }
+
+    final int numberOfEdges = outgoingOffsets[numberOfNodes];
+    int[] edgeHeads = new int[numberOfEdges];
+    double[] edgeTravelTimeSeconds = new double[numberOfEdges];
+    double[] edgeLengthMeters = new double[numberOfEdges];
+    int[] nextEdge = Arrays.copyOf(outgoingOffsets, numberOfNodes);
+    for(int index = 0; index < numberOfLinkSegments; ++index) {
+      if(freespeedMeterSecond[index] > 0) {
+        int edge = nextEdge[fromNodeIndices[index]]++;
+        edgeHeads[edge] = toNodeIndices[index];
+        edgeLengthMeters[edge] = lengthMeters[index];
+        edgeTravelTimeSeconds[edge] = travelTimeFactor * lengthMeters[index] / freespeedMeterSecond[index];
+      }
+    }
+    return new MatsimShortestPathGraph(outgoingOffsets, edgeHeads, edgeTravelTimeSeconds, edgeLengthMeters);
+  }
+
+  /**
+   * Number of nodes of the graph, identical to the compiled network it was created from
+   *
+   * @return number of nodes
+   */
+  int getNumberOfNodes() {
+    return outgoingOffsets.length - 1;
+  }
+
+  /**
+   * Number of edges, i.e., included link segments
+   *
+   * @return number of edges
+   */
+  int getNumberOfEdges() {
+    return edgeHeads.length;
+  }
+
+  /**
+   * Create a search to compute shortest path trees with, to be used by a single thread
+   *
+   * @return created search
+   */
+  Search createSearch() {
+    return new Search();
+  }
+}
@@ -0,0 +1,208 @@
+package org.goplanit.matsim.converter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.geotools.geometry.jts.JTS;
+import org.goplanit.converter.idmapping.PlanitComponentIdMappers;
+import org.goplanit.matsim.util.MatsimModeMaskMapping;
+import org.goplanit.matsim.util.TransformedNodeCoordinates;
+import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
+import org.goplanit.service.routed.RoutedServices;
+import org.goplanit.utils.exceptions.PlanItRunTimeException;
+import org.goplanit.utils.mode.Mode;
+import org.goplanit.utils.network.layer.physical.Node;
+import org.locationtech.jts.geom.Coordinate;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Immutable context of a single MATSim conversion, created once before any element is persisted, holding the information that would otherwise be
+ * (re)created per writer or per persisted entity, i.e., the populated id mappers, the destination CRS transformation, the node positions
+ * transformed upfront (if available), the compiled network (if available) and per network layer the mapping of activated PLANit modes to MATSim
+ * modes including their mode mask bits.
+ * <p>
+ * Within an intermodal conversion the network writer creates the context when preparing the network and all other writers (zoning, routed services,
+ * matrix based pt router) use it as is, so the network is validated, the CRS is prepared and the id mappers are populated only once. Standalone
+ * writers create their own context.
+ * </p>
+ * <p>
+ * Thread safe, so it can be shared by writers persisting (parts of) documents in parallel.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+class MatsimWriteContext {
+
+  /** the logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MatsimWriteContext.class.getCanonicalName());
+
+  /** id mappers, populated for the id mapper type of the writers */
+  private final PlanitComponentIdMappers componentIdMappers;
+
+  /** transformation from the network CRS to the destination CRS, null when no transformation is required */
+  private final MathTransform destinationCrsTransformer;
+
+  /** node positions transformed to the destination CRS upfront, null when not available */
+  private final TransformedNodeCoordinates transformedNodeCoordinates;
+
+  /** compiled network, null when not available */
+  private final MatsimCompiledNetwork compiledNetwork;
+
+  /** activated mode mapping by network layer id */
+  private final Map<Long, MatsimModeMaskMapping> modeMaskMappingByNetworkLayerId;
+
+  /**
+   * Constructor
+   *
+   * @param componentIdMappers to use
+   * @param destinationCrsTransformer to use, may be null
+   * @param transformedNodeCoordinates to use, may be null
+   * @param compiledNetwork to use, may be null
+   * @param modeMaskMappingByNetworkLayerId to use
+   */
+  private MatsimWriteContext(
+      PlanitComponentIdMappers componentIdMappers,
+      MathTransform destinationCrsTransformer,
+      TransformedNodeCoordinates transformedNodeCoordinates,
+      MatsimCompiledNetwork compiledNetwork,
+      Map<Long, MatsimModeMaskMapping> modeMaskMappingByNetworkLayerId) {
+    this.componentIdMappers = componentIdMappers;
+    this.destinationCrsTransformer = destinationCrsTransformer;
+    this.transformedNodeCoordinates = transformedNodeCoordinates;
+    this.compiledNetwork = compiledNetwork;
+    this.modeMaskMappingByNetworkLayerId = Collections.unmodifiableMap(modeMaskMappingByNetworkLayerId);
+  }
+
+  /**
+   * Create the context of a conversion for the network layer prepared by the network writer
+   *
+   * @param componentIdMappers populated id mappers of the network writer
+   * @param destinationCrsTransformer prepared by the network writer, may be null
+   * @param networkLayer that is persisted
+   * @param transformedNodeCoordinates node positions of the layer transformed to the destination CRS, may be null
+   * @param compiledNetwork of the layer
+   * @return created context
+   */
+  static MatsimWriteContext create(
+      PlanitComponentIdMappers componentIdMappers,
+      MathTransform destinationCrsTransformer,
+      MacroscopicNetworkLayerImpl networkLayer,
+      TransformedNodeCoordinates transformedNodeCoordinates,
+      MatsimCompiledNetwork compiledNetwork) {
+    Map<Long, MatsimModeMaskMapping> modeMaskMappingByNetworkLayerId = new HashMap<>();
+    modeMaskMappingByNetworkLayerId.put(networkLayer.getId(), compiledNetwork.getModeMaskMapping());
+    return new MatsimWriteContext(
+        componentIdMappers, destinationCrsTransformer, transformedNodeCoordinates, compiledNetwork, modeMaskMappingByNetworkLayerId);
+  }
+
+  /**
+   * Create the context for a standalone public transport writer, i.e., one that does not use the context of a network writer
+   *
+   * @param componentIdMappers populated id mappers of the writer
+   * @param destinationCrsTransformer prepared by the writer, may be null
+   * @param networkSettings to collect the mode mapping from, may be null when no routed services are persisted
+   * @param routedServices of which the mode mapping of the parent network layers is collected, may be null
+   * @return created context
+   */
+  static MatsimWriteContext create(
+      PlanitComponentIdMappers componentIdMappers,
+      MathTransform destinationCrsTransformer,
+      MatsimNetworkWriterSettings networkSettings,
+      RoutedServices routedServices) {
+    /* mode mapping is collected once per network layer, rather than per persisted routed service */
+    Map<Long, MatsimModeMaskMapping> modeMaskMappingByNetworkLayerId = new HashMap<>();
+    if(networkSettings != null && routedServices != null) {
+      routedServices.getLayers().forEach(routedServicesLayer -> {
+        var networkLayer = (MacroscopicNetworkLayerImpl) routedServicesLayer.getParentLayer().getParentNetworkLayer();
+        modeMaskMappingByNetworkLayerId.computeIfAbsent(
+            networkLayer.getId(), id -> networkSettings.collectActivatedPlanitModeToMatsimModeMaskMapping(networkLayer));
+      });
+    }
+
+    return new MatsimWriteContext(componentIdMappers, destinationCrsTransformer, null, null, modeMaskMappingByNetworkLayerId);
+  }
+
+  /** Collect the id mappers
+   *
+   * @return id mappers
+   */
+  PlanitComponentIdMappers getComponentIdMappers() {
+    return componentIdMappers;
+  }
+
+  /** Collect the transformation to the destination CRS
+   *
+   * @return destination CRS transformation, null when no transformation is required
+   */
+  MathTransform getDestinationCrsTransformer() {
+    return destinationCrsTransformer;
+  }
+
+  /** Collect the node positions transformed to the destination CRS upfront
+   *
+   * @return transformed node coordinates, null when not available
+   */
+  TransformedNodeCoordinates getTransformedNodeCoordinates() {
+    return transformedNodeCoordinates;
+  }
+
+  /** Collect the compiled network
+   *
+   * @return compiled network, null when not available
+   */
+  MatsimCompiledNetwork getCompiledNetwork() {
+    return compiledNetwork;
+  }
+
+  /** Collect the mapping of activated PLANit modes to MATSim modes of all network layers
+   *
+   * @return mode mask mappings
+   */
+  Iterable<MatsimModeMaskMapping> getModeMaskMappings() {
+    return modeMaskMappingByNetworkLayerId.values();
+  }
+
+  /** Collect the MATSim mode of a PLANit mode on a network layer
+   *
+   * @param networkLayerId of the network layer the mode is used on
+   * @param mode to collect MATSim mode for
+   * @return MATSim mode, null when not activated or unknown network layer
+   */
+  String getMatsimMode(long networkLayerId, Mode mode) {
+    var modeMaskMapping = modeMaskMappingByNetworkLayerId.get(networkLayerId);
+    return modeMaskMapping != null ? modeMaskMapping.getMatsimMode(mode) : null;
+  }
+
+  /** Transform a coordinate to the destination CRS
+   *
+   * @param coordinate to transform
+   * @return transformed coordinate, the coordinate itself when no transformation is required
+   */
+  Coordinate createTransformedCoordinate(Coordinate coordinate) {
+    if(destinationCrsTransformer == null) {
+      return coordinate;
+    }
+    try {
+      return JTS.transform(coordinate, null, destinationCrsTransformer);
+    }catch(TransformException e) {
+      LOGGER.severe(e.getMessage());
+      throw new PlanItRunTimeException("Unable to transform coordinate %s to destination CRS", coordinate);
+    }
+  }
+
+  /** Collect the position of a node in the destination CRS, using the node positions transformed upfront when available
+   *
+   * @param node to collect position for
+   * @return coordinate in destination CRS, null when node has no position
+   */
+  Coordinate getDestinationCrsCoordinate(Node node) {
+    if(transformedNodeCoordinates != null && transformedNodeCoordinates.hasCoordinate(node.getId())) {
+      return new Coordinate(transformedNodeCoordinates.getX(node.getId()), transformedNodeCoordinates.getY(node.getId()));
+    }
+    return node.getPosition() == null ? null : createTransformedCoordinate(node.getPosition().getCoordinate());
+  }
+}
@@ -1,7 +1,21 @@
 package org.goplanit.matsim.converter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -9,12 +23,20 @@ import org.geotools.geometry.jts.JTS;
 import org.goplanit.converter.BaseWriterImpl;
 import org.goplanit.converter.CrsWriterImpl;
 import org.goplanit.converter.idmapping.IdMapperType;
+import org.goplanit.matsim.util.FixedPrecisionFormatter;
+import org.goplanit.matsim.util.MatsimXmlEmitter;
+import org.goplanit.matsim.util.OrderedParallelChunkProcessor;
+import org.goplanit.matsim.util.ParallelGzipOutputStream;
 import org.goplanit.matsim.util.PlanitMatsimWriterSettings;
+import org.goplanit.matsim.util.TransformedNodeCoordinates;
 import org.goplanit.network.MacroscopicNetwork;
 import org.goplanit.network.LayeredNetwork;
 import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
 import org.goplanit.utils.exceptions.PlanItException;
+import org.goplanit.utils.exceptions.PlanItRunTimeException;
 import org.goplanit.utils.geo.PlanitJtsUtils;
+import org.goplanit.utils.misc.Pair;
+import org.goplanit.utils.network.layer.physical.Node;
 import org.goplanit.utils.xml.PlanitXmlWriterUtils;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Point;
@@ -39,6 +61,74 @@ public abstract class MatsimWriter<T> extends CrsWriterImpl<T> {
   /** track indentation level */
   private int indentLevel = 0;
 
+  /** context of the conversion created by this writer, null when not prepared */
+  private MatsimWriteContext writeContext = null;
+
+  /** context of the conversion created by the writer that prepared the network, e.g., the network writer, null when not shared */
+  private MatsimWriteContext sharedWriteContext = null;
+
+  /** bounded worker pool shared by writers writing concurrently, null when each parallel step creates its own pool */
+  private ExecutorService sharedWorkerExecutor = null;
+
+  /**
+   * Create a gzip stream compressing in parallel blocks, on the shared worker pool when provided
+   *
+   * @param xmlFilePath to write to
+   * @param sharedWorkerExecutor to compress on, may be null
+   * @return created stream
+   * @throws IOException thrown if error
+   */
+  private static ParallelGzipOutputStream createGzipOutputStream(final Path xmlFilePath, final ExecutorService sharedWorkerExecutor) throws IOException {
+    return new ParallelGzipOutputStream(Files.newOutputStream(xmlFilePath), Deflater.DEFAULT_COMPRESSION, ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE,
+        OrderedParallelChunkProcessor.getDefaultNumberOfThreads(), sharedWorkerExecutor);
+  }
+
+  /**
+   * Create an XML writer for the given file based on the settings. When compression is requested the output is gzip compressed in
+   * parallel blocks, when the direct emitter is requested, the XML writer writes encoded bytes directly rather than via StAX
+   * 
+   * @param xmlFilePath to write to
+   * @param settings to use
+   * @param sharedWorkerExecutor to compress on, when null the compression stream uses its own pool
+   * @return XML writer and its underlying writer (closing the latter closes the file)
+   */
+  protected static Pair<XMLStreamWriter, Writer> createXmlWriter(
+      final Path xmlFilePath, final PlanitMatsimWriterSettings settings, final ExecutorService sharedWorkerExecutor) {
+    if(!settings.isCompressOutput() && !settings.isDirectXmlEmitter()) {
+      return PlanitXmlWriterUtils.createXMLWriter(xmlFilePath);
+    }
+    
+    try {
+      if(settings.isDirectXmlEmitter()) {
+        WritableByteChannel channel = settings.isCompressOutput() ? 
+            Channels.newChannel(createGzipOutputStream(xmlFilePath, sharedWorkerExecutor)) : 
+              FileChannel.open(xmlFilePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        var emitter = new MatsimXmlEmitter(channel);
+        return Pair.of(emitter, emitter.getWriter());
+      }
+      
+      Writer writer = new BufferedWriter(new OutputStreamWriter(createGzipOutputStream(xmlFilePath, sharedWorkerExecutor), StandardCharsets.UTF_8));
+      return Pair.of(XMLOutputFactory.newInstance().createXMLStreamWriter(writer), writer);
+    }catch(IOException | XMLStreamException e) {
+      LOGGER.severe(e.getMessage());
+      throw new PlanItRunTimeException("Unable to create XML writer for %s", xmlFilePath);
+    }
+  }
+
+  /**
+   * Close the underlying writer of an XML writer created by {@link #createXmlWriter(Path, PlanitMatsimWriterSettings, ExecutorService)}, e.g., when
+   * writing failed, so the file and any compression threads are released. Closing an already closed writer has no effect, failures are logged only
+   *
+   * @param xmlFileWriterPair to close
+   */
+  protected static void closeXmlWriter(final Pair<XMLStreamWriter, Writer> xmlFileWriterPair) {
+    try {
+      xmlFileWriterPair.second().close();
+    }catch(IOException e) {
+      LOGGER.warning(String.format("Unable to close XML writer: %s", e.getMessage()));
+    }
+  }
+
   /**
    * Validate the network instance available, throw or log when issues are found
    * 
@@ -80,7 +170,137 @@ public abstract class MatsimWriter<T> extends CrsWriterImpl<T> {
    * @return coordinate created
    */
   protected Coordinate extractDestinationCrsCompatibleCoordinate(Point location){
-    return createTransformedCoordinate(location.getCoordinate());
+    var context = getWriteContext();
+    return context != null ? context.createTransformedCoordinate(location.getCoordinate()) : createTransformedCoordinate(location.getCoordinate());
+  }
+
+  /** Using the transformed node coordinates when available, otherwise the destination crs and its transformer, extract the coordinate
+   * of the node's position in the desired crs
+   *
+   * @param node to extract destination crs compatible coordinate for
+   * @return coordinate created
+   */
+  protected Coordinate extractDestinationCrsCompatibleCoordinate(Node node){
+    var context = getWriteContext();
+    return context != null ? context.getDestinationCrsCoordinate(node) : extractDestinationCrsCompatibleCoordinate(node.getPosition());
+  }
+
+  /** Transform the positions of all nodes of the network layer to the destination crs in a single batched (and for large networks
+   * parallel) pass, so writers can collect them via the write context rather than transforming them one by one. Should be invoked after the
+   * coordinate reference system has been prepared
+   *
+   * @param networkLayer to transform node positions of
+   * @return transformed node coordinates, null when the destination crs transformation does not support batched transformation
+   */
+  protected TransformedNodeCoordinates createTransformedNodeCoordinates(MacroscopicNetworkLayerImpl networkLayer){
+    if(!TransformedNodeCoordinates.isSupported(getDestinationCrsTransformer())) {
+      LOGGER.fine("Destination CRS transformation not two dimensional, node positions are transformed one by one");
+      return null;
+    }
+    return TransformedNodeCoordinates.create(networkLayer.getNodes(), getDestinationCrsTransformer(), createChunkProcessor());
+  }
+
+  /** Use the context of the conversion created by this writer, i.e., after it validated the network, prepared the coordinate reference system
+   * and populated its id mappers
+   *
+   * @param writeContext to use
+   */
+  void setWriteContext(MatsimWriteContext writeContext){
+    this.writeContext = writeContext;
+  }
+
+  /** Use the context of the conversion created by another writer, e.g., the network writer of an intermodal conversion, so the network is
+   * not validated, the coordinate reference system is not prepared and the id mappers are not populated again by this writer
+   *
+   * @param sharedWriteContext to use, null to create its own context
+   */
+  void setSharedWriteContext(MatsimWriteContext sharedWriteContext){
+    this.sharedWriteContext = sharedWriteContext;
+  }
+
+  /** Verify if this writer uses the context of the conversion created by another writer
+   *
+   * @return true when shared, false otherwise
+   */
+  boolean hasSharedWriteContext(){
+    return sharedWriteContext != null;
+  }
+
+  /** Collect the context of the conversion, the shared context when available, otherwise the context created by this writer
+   *
+   * @return write context, null when not prepared
+   */
+  MatsimWriteContext getWriteContext(){
+    return sharedWriteContext != null ? sharedWriteContext : writeContext;
+  }
+
+  /** Collect the compiled network snapshot of the conversion, if available
+   *
+   * @return compiled network, null when not available
+   */
+  MatsimCompiledNetwork getCompiledNetwork(){
+    var context = getWriteContext();
+    return context != null ? context.getCompiledNetwork() : null;
+  }
+
+  /** Use a bounded worker pool shared with other writers writing concurrently for parallel steps, e.g., chunk processing and compression,
+   * rather than each parallel step creating its own pool of all available processors
+   *
+   * @param sharedWorkerExecutor to use, may be null
+   */
+  void setSharedWorkerExecutor(ExecutorService sharedWorkerExecutor){
+    this.sharedWorkerExecutor = sharedWorkerExecutor;
+  }
+
+  /** Collect the bounded worker pool shared with other writers, if available
+   *
+   * @return shared worker pool, null when not available
+   */
+  ExecutorService getSharedWorkerExecutor(){
+    return sharedWorkerExecutor;
+  }
+
+  /** Create a chunk processor for a parallel step of this writer, using the shared worker pool when available
+   *
+   * @return created chunk processor
+   */
+  OrderedParallelChunkProcessor createChunkProcessor(){
+    return new OrderedParallelChunkProcessor(sharedWorkerExecutor, OrderedParallelChunkProcessor.getDefaultNumberOfThreads());
+  }
+
+  /** Write an attribute holding a (mapped) id. When written by a {@link MatsimXmlEmitter} and the id has been encoded upfront, the encoded
+   * id is copied as is rather than escaped and encoded again
+   *
+   * @param xmlWriter to use
+   * @param attributeName to write
+   * @param id to write
+   * @param encodedId id encoded via {@link MatsimXmlEmitter#encodeAttributeValue(String)}, may be null
+   * @throws XMLStreamException thrown if error
+   */
+  protected static void writeIdAttribute(XMLStreamWriter xmlWriter, String attributeName, String id, byte[] encodedId) throws XMLStreamException {
+    if(encodedId != null && xmlWriter instanceof MatsimXmlEmitter) {
+      ((MatsimXmlEmitter) xmlWriter).writeEncodedAttribute(attributeName, encodedId);
+    }else {
+      xmlWriter.writeAttribute(attributeName, id);
+    }
+  }
+
+  /** Write an attribute holding a decimal value. When written by a {@link MatsimXmlEmitter} the value is formatted into a reusable buffer
+   * rather than a string
+   *
+   * @param xmlWriter to use
+   * @param attributeName to write
+   * @param value to write
+   * @param formatter to format the value with
+   * @throws XMLStreamException thrown if error
+   */
+  protected static void writeDecimalAttribute(
+      XMLStreamWriter xmlWriter, String attributeName, double value, FixedPrecisionFormatter formatter) throws XMLStreamException {
+    if(xmlWriter instanceof MatsimXmlEmitter) {
+      ((MatsimXmlEmitter) xmlWriter).writeDecimalAttribute(attributeName, value, formatter);
+    }else {
+      xmlWriter.writeAttribute(attributeName, formatter.format(value));
+    }
   }
 
   /** Add indentation to stream at current indentation level
@@ -185,6 +405,11 @@ public abstract class MatsimWriter<T> extends CrsWriterImpl<T> {
   /**
    * default extension for xml files generated
    */
-  public static final String DEFAULT_FILE_NAME_EXTENSION = ".xml";  
+  public static final String DEFAULT_FILE_NAME_EXTENSION = PlanitMatsimWriterSettings.DEFAULT_FILE_NAME_EXTENSION;
+
+  /**
+   * extension for gzip compressed xml files generated
+   */
+  public static final String COMPRESSED_FILE_NAME_EXTENSION = PlanitMatsimWriterSettings.COMPRESSED_FILE_NAME_EXTENSION;
   
 }
@@ -0,0 +1,165 @@
+package org.goplanit.matsim.converter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded, least recently used cache of serialised (encoded) XML blocks keyed by the content they are derived from. The key is
+ * a sequence of longs that fully determines the block, e.g., the link segment ids and timings of a route profile, so blocks that occur
+ * repeatedly across a document can be copied rather than serialised again. Keys are compared on their full content, the hash only serves
+ * lookups, so different content never shares a block.
+ * <p>
+ * Thread safe, so it can be shared by writers serialising parts of a document in parallel.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+class MatsimXmlBlockCache {
+
+  /** approximate memory overhead of a single entry on top of its key and block contents */
+  private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+  /**
+   * Content based key of a block
+   */
+  static final class Key {
+
+    /** content the block is derived from */
+    private final long[] content;
+
+    /** hash of content */
+    private final int hash;
+
+    /**
+     * Constructor
+     *
+     * @param content the block is derived from, not copied
+     */
+    Key(final long[] content) {
+      this.content = content;
+      this.hash = Arrays.hashCode(content);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object other) {
+      if(this == other) {
+        return true;
+      }
+      if(!(other instanceof Key)) {
+        return false;
+      }
+      Key otherKey = (Key) other;
+      return hash == otherKey.hash && Arrays.equals(content, otherKey.content);
+    }
+  }
+
+  /** maximum number of bytes occupied by cached entries */
+  private final long memoryBudgetBytes;
+
+  /** cached blocks in access order, eldest first */
+  private final LinkedHashMap<Key, byte[]> blocks;
+
+  /** number of bytes occupied by cached entries */
+  private long usedBytes;
+
+  /** number of lookups that found a block */
+  private long hits;
+
+  /** number of lookups that did not find a block */
+  private long misses;
+
+  /**
+   * Approximate memory occupied by an entry
+   *
+   * @param key of entry
+   * @param block of entry
+   * @return bytes
+   */
+  private static long entryBytes(Key key, byte[] block) {
+    return ENTRY_OVERHEAD_BYTES + 8L * key.content.length + block.length;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param memoryBudgetBytes maximum number of bytes occupied by cached entries
+   */
+  MatsimXmlBlockCache(long memoryBudgetBytes) {
+    this.memoryBudgetBytes = memoryBudgetBytes;
+    this.blocks = new LinkedHashMap<>(1024, 0.75f, true /* access order */);
+  }
+
+  /**
+   * Collect the block for the key, marking it as most recently used
+   *
+   * @param key to collect block for
+   * @return block, null when absent
+   */
+  synchronized byte[] get(Key key) {
+    byte[] block = blocks.get(key);
+    if(block == null) {
+      ++misses;
+    }else {
+      ++hits;
+    }
+    return block;
+  }
+
+  /**
+   * Register the block for the key, evicting the least recently used blocks when the memory budget is exceeded. Blocks that exceed
+   * the memory budget by themselves are not registered
+   *
+   * @param key to register block for
+   * @param block to register
+   */
+  synchronized void put(Key key, byte[] block) {
+    long requiredBytes = entryBytes(key, block);
+    if(requiredBytes > memoryBudgetBytes) {
+      return;
+    }
+    byte[] replaced = blocks.put(key, block);
+    usedBytes += requiredBytes;
+    if(replaced != null) {
+      usedBytes -= entryBytes(key, replaced);
+    }
+
+    Iterator<Map.Entry<Key, byte[]>> eldest = blocks.entrySet().iterator();
+    while(usedBytes > memoryBudgetBytes && eldest.hasNext()) {
+      var entry = eldest.next();
+      usedBytes -= entryBytes(entry.getKey(), entry.getValue());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Number of lookups that found a block
+   *
+   * @return hits
+   */
+  synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Number of lookups that did not find a block
+   *
+   * @return misses
+   */
+  synchronized long getMisses() {
+    return misses;
+  }
+}
@@ -0,0 +1,94 @@
+package org.goplanit.matsim.converter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.goplanit.matsim.util.MatsimXmlEmitter;
+import org.goplanit.utils.misc.Pair;
+
+/**
+ * An in-memory fragment of a MATSim XML document. Elements are written to the chunk's own XML writer, after which the
+ * serialised fragment can be appended verbatim to the XML document it belongs to. This allows parts of a document to be
+ * serialised independently (and in parallel) while still producing the exact same output as writing them directly.
+ * <p>
+ * When the document is written with a {@link MatsimXmlEmitter} the chunk uses an in-memory emitter as well, so its encoded bytes can be
+ * appended to the document as is.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+class MatsimXmlChunk {
+
+  /** factory used to create the chunk XML writers */
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+  /** buffer holding the serialised fragment, null when emitter is used */
+  private final StringWriter buffer;
+
+  /** in memory emitter holding the serialised fragment, null when StAX is used */
+  private final MatsimXmlEmitter emitter;
+
+  /** XML writer of this chunk */
+  private final XMLStreamWriter xmlWriter;
+
+  /**
+   * Constructor
+   *
+   * @param useEmitter when true the chunk is written with an in memory {@link MatsimXmlEmitter}, otherwise with StAX
+   * @throws XMLStreamException thrown if error
+   */
+  MatsimXmlChunk(boolean useEmitter) throws XMLStreamException {
+    if(useEmitter) {
+      this.buffer = null;
+      this.emitter = new MatsimXmlEmitter();
+      this.xmlWriter = emitter;
+    }else {
+      this.buffer = new StringWriter();
+      this.emitter = null;
+      this.xmlWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(buffer);
+    }
+  }
+
+  /** Collect the XML writer to write the chunk's contents with
+   *
+   * @return XML writer of this chunk
+   */
+  XMLStreamWriter getXmlWriter() {
+    return xmlWriter;
+  }
+
+  /**
+   * Finalise the contents of this chunk. Should be called on the thread that wrote the chunk once all content is written.
+   *
+   * @return this chunk
+   * @throws XMLStreamException thrown if error
+   */
+  MatsimXmlChunk complete() throws XMLStreamException {
+    xmlWriter.flush();
+    return this;
+  }
+
+  /**
+   * Append the serialised content of this chunk to the target XML document. The target XML writer is flushed first so the
+   * fragment ends up at the current position of the document. The target must not have an open start tag pending. Chunks using an
+   * emitter can only be appended to documents written with an emitter.
+   *
+   * @param target XML writer and its underlying writer to append to
+   * @throws XMLStreamException thrown if error
+   * @throws IOException thrown if error
+   */
+  void appendTo(final Pair<XMLStreamWriter, Writer> target) throws XMLStreamException, IOException {
+    if(emitter != null) {
+      ((MatsimXmlEmitter) target.first()).append(emitter);
+      return;
+    }
+    target.first().flush();
+    target.second().append(buffer.getBuffer());
+  }
+}
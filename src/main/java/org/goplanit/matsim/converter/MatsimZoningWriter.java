@@ -73,29 +73,70 @@ class MatsimZoningWriter extends MatsimWriter<Zoning> implements ZoningWriter{
    */  
   @Override
   public void write(Zoning zoning) throws PlanItException {
+    if(!prepareWrite(zoning)) {
+      return;
+    }
+
+    /* results in writing stops only*/
+    writeXmlTransitScheduleFile(zoning);
+    
+    if(getSettings().isGenerateMatrixBasedPtRouterFiles()) {
+      writeMatrixBasedPtRouterFiles(zoning);
+    }
+  }
+
+  /**
+   * Prepare writing the zoning without writing any file, i.e., validate and log settings and, unless the write context is shared by the
+   * network writer, validate the reference network, prepare the coordinate reference system and create the write context.
+   * Afterwards the transit schedule and matrix based pt router files can be written independently of each other
+   *
+   * @param zoning to prepare
+   * @return true when files can be written, false otherwise
+   * @throws PlanItException thrown if error
+   */
+  boolean prepareWrite(Zoning zoning) throws PlanItException {
     PlanItRunTimeException.throwIfNull(zoning,"Unable to persist MATSim transit schedule file when PLANit zoning object is null");
     
-    boolean networkValid = validateNetwork(getSettings().getReferenceNetwork());
-    if(!networkValid) {
-      return;
+    if(!hasSharedWriteContext()) {
+      boolean networkValid = validateNetwork(getSettings().getReferenceNetwork());
+      if(!networkValid) {
+        return false;
+      }
     }
     validateSettings();
     
     /* log settings */
     getSettings().logSettings();    
     
-    /* CRS */
-    prepareCoordinateReferenceSystem(getSettings().getReferenceNetwork().getCoordinateReferenceSystem(), getSettings().getDestinationCoordinateReferenceSystem(), getSettings().getCountry());
+    if(!hasSharedWriteContext()) {
+      /* id mapping */
+      getComponentIdMappers().populateMissingIdMappers(getIdMapperType());
 
-    /* results in writing stops only*/
-    new MatsimPtXmlWriter(this).writeXmlTransitScheduleFile(
-        zoning, getZoningWriterSettings(), null, null, null);
-    
-    if(getSettings().isGenerateMatrixBasedPtRouterFiles()) {
-      new MatsimPtMatrixBasedRouterWriter(this).write(zoning);
+      /* CRS */
+      prepareCoordinateReferenceSystem(getSettings().getReferenceNetwork().getCoordinateReferenceSystem(), getSettings().getDestinationCoordinateReferenceSystem(), getSettings().getCountry());
+      setWriteContext(MatsimWriteContext.create(getComponentIdMappers(), getDestinationCrsTransformer(), null, null));
     }
-    
-    
+    return true;
+  }
+
+  /**
+   * Write the transit schedule file containing the stops of the zoning, requires {@link #prepareWrite(Zoning)}
+   *
+   * @param zoning to use
+   * @throws PlanItException thrown if error
+   */
+  void writeXmlTransitScheduleFile(Zoning zoning) throws PlanItException {
+    new MatsimPtXmlWriter(this).writeXmlTransitScheduleFile(
+        zoning, getZoningWriterSettings(), null, null);
+  }
+
+  /**
+   * Write the files supporting MATSim's matrix based pt router, requires {@link #prepareWrite(Zoning)}
+   *
+   * @param zoning to use
+   */
+  void writeMatrixBasedPtRouterFiles(Zoning zoning) {
+    new MatsimPtMatrixBasedRouterWriter(this).write(zoning);
   }
 
   /**
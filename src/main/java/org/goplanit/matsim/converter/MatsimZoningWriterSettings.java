@@ -29,15 +29,38 @@ public class MatsimZoningWriterSettings extends PlanitMatsimWriterSettings{
 
   /** flag indicating the default for whether transit routes are blocking at their stop facilities */
   protected boolean ptBlockingAtStopFacility = PT_BLOCKING_AT_STOP_DEFAULT;
+
+  /**
+   * When generating the matrix based pt router files, also generate the stop to stop travel time matrix rather than leaving it to MATSim
+   */
+  protected boolean generatePtTravelInfoFile = DEFAULT_GENERATE_PT_TRAVEL_INFO_FILE;
+
+  /** factor applied to free flow travel times in the stop to stop travel time matrix */
+  protected double ptTravelTimeFactor = DEFAULT_PT_TRAVEL_TIME_FACTOR;
+
+  /** cut-off of the stop to stop travel time matrix in seconds, pairs beyond it are not persisted */
+  protected double ptTravelInfoMaxTravelTimeSeconds = DEFAULT_PT_TRAVEL_INFO_MAX_TRAVEL_TIME_SECONDS;
+
+  /** cut-off of the stop to stop travel time matrix in network distance (meters), pairs beyond it are not persisted */
+  protected double ptTravelInfoMaxDistanceMeters = DEFAULT_PT_TRAVEL_INFO_MAX_DISTANCE_METERS;
   
   /**
    * Log settings
    */
   @Override
   public void logSettings() {
-    Path matsimZoningPath =  Paths.get(getOutputDirectory(), getFileName().concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
+    Path matsimZoningPath =  Paths.get(getOutputDirectory(), getFileName().concat(getXmlFileNameExtension()));
     LOGGER.info(String.format("Persisting MATSIM public transport to: %s", matsimZoningPath));
     LOGGER.info(String.format("MATSim Matrix based PT routing file are %s generated",isGenerateMatrixBasedPtRouterFiles() ? "" : "not"));
+    if(isGenerateMatrixBasedPtRouterFiles() && isGeneratePtTravelInfoFile()) {
+      LOGGER.info(String.format("MATSim Matrix based PT stop to stop travel times are generated with free flow travel time factor %.2f", getPtTravelTimeFactor()));
+      if(Double.isFinite(getPtTravelInfoMaxTravelTimeSeconds())) {
+        LOGGER.info(String.format("MATSim Matrix based PT stop to stop travel times limited to %.1f seconds", getPtTravelInfoMaxTravelTimeSeconds()));
+      }
+      if(Double.isFinite(getPtTravelInfoMaxDistanceMeters())) {
+        LOGGER.info(String.format("MATSim Matrix based PT stop to stop travel times limited to %.1f meters", getPtTravelInfoMaxDistanceMeters()));
+      }
+    }
   }    
   
   /** Collect the reference network used
@@ -55,6 +78,20 @@ public class MatsimZoningWriterSettings extends PlanitMatsimWriterSettings{
 
   /** default value aligned with MATSim default */
   public static final boolean PT_BLOCKING_AT_STOP_DEFAULT = false;
+
+  /**
+   * Default setting for generating the stop to stop travel time matrix, off since its size is quadratic in the number of stops
+   */
+  public static final boolean DEFAULT_GENERATE_PT_TRAVEL_INFO_FILE = false;
+
+  /** default factor applied to free flow travel times in the stop to stop travel time matrix */
+  public static final double DEFAULT_PT_TRAVEL_TIME_FACTOR = 1.0;
+
+  /** default travel time cut-off of the stop to stop travel time matrix, none */
+  public static final double DEFAULT_PT_TRAVEL_INFO_MAX_TRAVEL_TIME_SECONDS = Double.POSITIVE_INFINITY;
+
+  /** default distance cut-off of the stop to stop travel time matrix, none */
+  public static final double DEFAULT_PT_TRAVEL_INFO_MAX_DISTANCE_METERS = Double.POSITIVE_INFINITY;
   
   /**
    * Default constructor using default output file name and Global country name
@@ -129,6 +166,68 @@ public class MatsimZoningWriterSettings extends PlanitMatsimWriterSettings{
     this.generateMatrixBasedPtRouterFiles = generateMatrixBasedPtRouterFiles;
   }  
   
+  /** Collect the flag indicating if the stop to stop travel time matrix is generated as part of the matrix based pt router files
+   * @return flag, when true activated when false not activated
+   */
+  public boolean isGeneratePtTravelInfoFile() {
+    return generatePtTravelInfoFile;
+  }
+
+  /** Set the flag to indicate if the stop to stop travel time matrix is to be generated as part of the matrix based pt router files, i.e., the
+   * ptTravelTimes.csv and ptTravelDistances.csv files read by MATSim's matrix based pt router as its travel times and travel distances input. Travel
+   * times and distances are based on free flow shortest paths between the stops' access nodes on the persisted network
+   * @param generatePtTravelInfoFile when true activate, when false do not
+   */
+  public void setGeneratePtTravelInfoFile(boolean generatePtTravelInfoFile) {
+    this.generatePtTravelInfoFile = generatePtTravelInfoFile;
+  }
+
+  /** Collect the factor applied to free flow travel times in the stop to stop travel time matrix
+   * @return factor
+   */
+  public double getPtTravelTimeFactor() {
+    return ptTravelTimeFactor;
+  }
+
+  /** Set the factor applied to free flow travel times in the stop to stop travel time matrix
+   * @param ptTravelTimeFactor to apply, must be positive
+   */
+  public void setPtTravelTimeFactor(double ptTravelTimeFactor) {
+    this.ptTravelTimeFactor = ptTravelTimeFactor;
+  }
+
+  /** Collect the travel time cut-off of the stop to stop travel time matrix
+   * @return maximum travel time in seconds, infinite when not limited
+   */
+  public double getPtTravelInfoMaxTravelTimeSeconds() {
+    return ptTravelInfoMaxTravelTimeSeconds;
+  }
+
+  /** Set the travel time cut-off of the stop to stop travel time matrix. Shortest path searches are not extended beyond it and only stop pairs
+   * within it are persisted, so the matrix becomes sparse and its generation scales with the number of stops rather than its square
+   * @param ptTravelInfoMaxTravelTimeSeconds maximum (factored) travel time in seconds, infinite when not limited
+   */
+  public void setPtTravelInfoMaxTravelTimeSeconds(double ptTravelInfoMaxTravelTimeSeconds) {
+    this.ptTravelInfoMaxTravelTimeSeconds = ptTravelInfoMaxTravelTimeSeconds;
+  }
+
+  /** Collect the network distance cut-off of the stop to stop travel time matrix, applied to the distance along the fastest path
+   * @return maximum distance in meters, infinite when not limited
+   */
+  public double getPtTravelInfoMaxDistanceMeters() {
+    return ptTravelInfoMaxDistanceMeters;
+  }
+
+  /** Set the network distance cut-off of the stop to stop travel time matrix. Shortest path searches are not extended beyond it and only stop pairs
+   * within it are persisted, so the matrix becomes sparse and its generation scales with the number of stops rather than its square. Note that the
+   * cut-off applies to the distance along the fastest path, not the shortest distance, i.e., searches are pruned on the distance of the fastest
+   * path found so far, so a stop pair within the cut-off by shortest distance may be omitted, or reported via a slower path within the cut-off
+   * @param ptTravelInfoMaxDistanceMeters maximum distance along the fastest path in meters, infinite when not limited
+   */
+  public void setPtTravelInfoMaxDistanceMeters(double ptTravelInfoMaxDistanceMeters) {
+    this.ptTravelInfoMaxDistanceMeters = ptTravelInfoMaxDistanceMeters;
+  }
+
   /**
    * {@inheritDoc}
    */
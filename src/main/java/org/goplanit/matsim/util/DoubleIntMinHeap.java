@@ -0,0 +1,132 @@
+package org.goplanit.matsim.util;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of primitive {@code double} keys with primitive {@code int} values, stored in parallel arrays so pushing and
+ * polling do not box or allocate, apart from growing the arrays. Entries are never updated in place, so when used for shortest path
+ * searches outdated entries are to be skipped when polled (lazy deletion).
+ * <p>
+ * Not thread safe.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class DoubleIntMinHeap {
+
+  /** keys by heap position */
+  private double[] keys;
+
+  /** values by heap position */
+  private int[] values;
+
+  /** number of entries */
+  private int size;
+
+  /**
+   * Constructor
+   *
+   * @param initialCapacity expected number of entries
+   */
+  public DoubleIntMinHeap(int initialCapacity) {
+    this.keys = new double[Math.max(16, initialCapacity)];
+    this.values = new int[keys.length];
+  }
+
+  /**
+   * Add an entry
+   *
+   * @param key to order by
+   * @param value of the entry
+   */
+  public void push(double key, int value) {
+    if(size == keys.length) {
+      keys = Arrays.copyOf(keys, Math.multiplyExact(keys.length, 2));
+      values = Arrays.copyOf(values, keys.length);
+    }
+    int position = size++;
+    while(position > 0) {
+      int parent = (position - 1) >>> 1;
+      if(keys[parent] <= key) {
+        break;
+      }
+      keys[position] = keys[parent];
+      values[position] = values[parent];
+      position = parent;
+    }
+    keys[position] = key;
+    values[position] = value;
+  }
+
+  /**
+   * Key of the entry with the smallest key, only valid when not empty
+   *
+   * @return smallest key
+   */
+  public double peekKey() {
+    return keys[0];
+  }
+
+  /**
+   * Value of the entry with the smallest key, only valid when not empty
+   *
+   * @return value of entry with smallest key
+   */
+  public int peekValue() {
+    return values[0];
+  }
+
+  /**
+   * Remove the entry with the smallest key, only valid when not empty
+   */
+  public void pop() {
+    --size;
+    if(size == 0) {
+      return;
+    }
+    double key = keys[size];
+    int value = values[size];
+    int position = 0;
+    int half = size >>> 1;
+    while(position < half) {
+      int child = 2 * position + 1;
+      if(child + 1 < size && keys[child + 1] < keys[child]) {
+        ++child;
+      }
+      if(key <= keys[child]) {
+        break;
+      }
+      keys[position] = keys[child];
+      values[position] = values[child];
+      position = child;
+    }
+    keys[position] = key;
+    values[position] = value;
+  }
+
+  /**
+   * Verify if empty
+   *
+   * @return true when empty, false otherwise
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Number of entries
+   *
+   * @return number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Remove all entries, the capacity is retained
+   */
+  public void clear() {
+    size = 0;
+  }
+}
@@ -0,0 +1,338 @@
+package org.goplanit.matsim.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Thread safe, allocation free formatter of doubles to a fixed maximum number of decimals, writing ASCII characters straight into a
+ * (reusable) char or byte buffer. It reproduces the output of the two formatting approaches used by the MATSim writers:
+ * <ul>
+ * <li>{@link #ofFixedDecimals(int)}: identical to {@code String.format("%.nf", value)}, i.e., always n decimals, rounded half up based on the shortest
+ * decimal representation of the value (always using a '.' as decimal separator regardless of the default locale)</li>
+ * <li>{@link #of(DecimalFormat)}: identical to {@link DecimalFormat#format(double)} for plain decimal formats (no grouping, prefixes or suffixes), i.e., trailing zeros
+ * removed up to the minimum number of fraction digits. Decimal formats that cannot be reproduced are delegated to a per thread copy of the decimal format instead</li>
+ * </ul>
+ * Both round the shortest decimal representation of the value. The scaled value is computed exactly as an unevaluated sum of two doubles (Dekker's product),
+ * so the rounded result is known without big decimal arithmetic unless the value lies within one ulp of a tie, in which case the shortest representation
+ * determines the outcome. Only those values and values outside the supported magnitude are formatted via big decimals (or the decimal format).
+ *
+ * @author markr
+ *
+ */
+public class FixedPrecisionFormatter {
+
+  /** powers of ten that are exactly representable as double and long */
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  /** scaled values must remain below this value so that their integer and fractional parts are exact in double precision */
+  private static final double MAX_EXACT_SCALED_VALUE = 0x1p52;
+
+  /** splitter for Veltkamp's split, 2^27+1 */
+  private static final double SPLITTER = 134217729.0;
+
+  /** maximum number of fraction digits supported */
+  public static final int MAX_FRACTION_DIGITS = 15;
+
+  /** maximum number of characters required to format any value with {@link #MAX_FRACTION_DIGITS} */
+  public static final int MAX_FORMATTED_LENGTH = 1 /* sign */ + 309 /* integer digits */ + 1 /* separator */ + 340 /* fraction or fallback */;
+
+  /** formatter consistent with {@code String.format("%.1f",...)}*/
+  public static final FixedPrecisionFormatter ONE_DECIMAL;
+
+  /** formatter consistent with {@code String.format("%.2f",...)}*/
+  public static final FixedPrecisionFormatter TWO_DECIMALS;
+
+  /** per thread scratch buffer */
+  private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[MAX_FORMATTED_LENGTH]);
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for(int index = 1; index < POWERS_OF_TEN.length; ++index) {
+      POWERS_OF_TEN[index] = POWERS_OF_TEN[index - 1] * 10;
+    }
+    ONE_DECIMAL = ofFixedDecimals(1);
+    TWO_DECIMALS = ofFixedDecimals(2);
+  }
+
+  /** maximum number of decimals */
+  private final int maxFractionDigits;
+
+  /** minimum number of decimals, trailing zeros are removed up to this number */
+  private final int minFractionDigits;
+
+  /** when true, a zero integer part is omitted if there are fraction digits (decimal format with zero minimum integer digits) */
+  private final boolean omitZeroIntegerPart;
+
+  /** when true, mimic String.format, otherwise mimic the decimal format */
+  private final boolean stringFormatCompatible;
+
+  /** 10^maxFractionDigits */
+  private final double scale;
+
+  /** high part of the scale (Veltkamp split) */
+  private final double scaleHigh;
+
+  /** low part of the scale (Veltkamp split) */
+  private final double scaleLow;
+
+  /** per thread copy of the decimal format this formatter reproduces (if any), used for values outside the supported range */
+  private final ThreadLocal<DecimalFormat> decimalFormatDelegate;
+
+  /** when true, the decimal format cannot be reproduced and all values are delegated to it */
+  private final boolean delegateAll;
+
+  /**
+   * Verify if the decimal format configuration can be reproduced by this formatter
+   *
+   * @param decimalFormat to verify
+   * @return true when compatible, false otherwise
+   */
+  private static boolean isReproducible(final DecimalFormat decimalFormat) {
+    DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+    return decimalFormat.getMaximumFractionDigits() <= MAX_FRACTION_DIGITS
+        && decimalFormat.getMinimumFractionDigits() <= decimalFormat.getMaximumFractionDigits()
+        && decimalFormat.getMinimumIntegerDigits() <= 1
+        && decimalFormat.getMaximumIntegerDigits() >= 309
+        && !decimalFormat.isGroupingUsed()
+        && !decimalFormat.isDecimalSeparatorAlwaysShown()
+        && decimalFormat.getMultiplier() == 1
+        && (decimalFormat.getRoundingMode() == RoundingMode.HALF_EVEN || decimalFormat.getRoundingMode() == RoundingMode.HALF_UP)
+        && decimalFormat.getPositivePrefix().isEmpty()
+        && decimalFormat.getPositiveSuffix().isEmpty()
+        && decimalFormat.getNegativePrefix().equals("-")
+        && decimalFormat.getNegativeSuffix().isEmpty()
+        && symbols.getDecimalSeparator() == '.'
+        && symbols.getZeroDigit() == '0';
+  }
+
+  /**
+   * Write the digits of a non-negative long ending at given position (exclusive), i.e., backwards
+   *
+   * @param value to write
+   * @param buffer to write to
+   * @param end position after last digit
+   * @param minDigits minimum number of digits to write (padded with leading zeros)
+   * @return position of first digit written
+   */
+  private static int writeDigitsBackwards(long value, final char[] buffer, int end, int minDigits) {
+    int position = end;
+    while(value > 0 || end - position < minDigits) {
+      buffer[--position] = (char) ('0' + (value % 10));
+      value /= 10;
+    }
+    return position;
+  }
+
+  /**
+   * Copy string to buffer
+   *
+   * @param formatted to copy
+   * @param buffer to copy to
+   * @param offset to start at
+   * @return position after last character
+   */
+  private static int copy(final String formatted, final char[] buffer, int offset) {
+    formatted.getChars(0, formatted.length(), buffer, offset);
+    return offset + formatted.length();
+  }
+
+  /**
+   * Round the non-negative scaled value {@code value*10^maxFractionDigits} to a long, or return -1 when the outcome depends on
+   * the shortest decimal representation of the value or when the scaled value is too large
+   *
+   * @param absValue non-negative finite value
+   * @return rounded scaled value or -1 when not possible
+   */
+  private long roundScaled(final double absValue) {
+    /* exact product absValue*scale = product + error (Dekker) */
+    double product = absValue * scale;
+    if(!(product < MAX_EXACT_SCALED_VALUE)) {
+      return -1;
+    }
+    double valueSplit = SPLITTER * absValue;
+    double valueHigh = valueSplit - (valueSplit - absValue);
+    double valueLow = absValue - valueHigh;
+    double error = ((valueHigh * scaleHigh - product) + valueHigh * scaleLow + valueLow * scaleHigh) + valueLow * scaleLow;
+
+    /* floor and fraction of product are exact, as is the sign of the distance to the tie */
+    double floor = Math.floor(product);
+    double exactDistanceToTie = ((product - floor) - 0.5) + error;
+
+    /* shortest representation lies within one ulp of the exact value, so it may end up on the other side of the tie */
+    if(Math.abs(exactDistanceToTie) <= Math.ulp(product)) {
+      return -1;
+    }
+    return exactDistanceToTie > 0 ? (long) floor + 1 : (long) floor;
+  }
+
+  /**
+   * Write the rounded scaled value as decimal number
+   *
+   * @param negative when true prefix with minus sign
+   * @param roundedScaled rounded value scaled by 10^maxFractionDigits
+   * @param buffer to write to
+   * @param offset to start writing at
+   * @return position after last character written
+   */
+  private int writeRoundedScaled(boolean negative, long roundedScaled, final char[] buffer, int offset) {
+    long power = POWERS_OF_TEN[maxFractionDigits];
+    long integerPart = roundedScaled / power;
+    long fractionPart = roundedScaled % power;
+
+    /* fraction digits that remain after removing trailing zeros (up to minimum) */
+    int numFractionDigits = maxFractionDigits;
+    while(numFractionDigits > minFractionDigits && fractionPart % 10 == 0) {
+      fractionPart /= 10;
+      --numFractionDigits;
+    }
+
+    int position = offset;
+    if(negative) {
+      buffer[position++] = '-';
+    }
+    if(!(omitZeroIntegerPart && integerPart == 0 && numFractionDigits > 0)) {
+      /* write integer digits in place by writing backwards from the end of their known length */
+      int numIntegerDigits = 1;
+      for(long remainder = integerPart / 10; remainder > 0; remainder /= 10) {
+        ++numIntegerDigits;
+      }
+      position += numIntegerDigits;
+      writeDigitsBackwards(integerPart, buffer, position, 1);
+    }
+    if(numFractionDigits > 0) {
+      buffer[position++] = '.';
+      position += numFractionDigits;
+      writeDigitsBackwards(fractionPart, buffer, position, numFractionDigits);
+    }
+    return position;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxFractionDigits maximum number of decimals
+   * @param minFractionDigits minimum number of decimals
+   * @param omitZeroIntegerPart omit zero integer part when fraction digits are present
+   * @param stringFormatCompatible when true mimic String.format, otherwise the decimal format
+   * @param decimalFormat that is reproduced, null if none
+   * @param delegateAll when true all values are delegated to the decimal format
+   */
+  private FixedPrecisionFormatter(
+      int maxFractionDigits, int minFractionDigits, boolean omitZeroIntegerPart, boolean stringFormatCompatible, final DecimalFormat decimalFormat, boolean delegateAll) {
+    this.maxFractionDigits = maxFractionDigits;
+    this.minFractionDigits = minFractionDigits;
+    this.omitZeroIntegerPart = omitZeroIntegerPart;
+    this.stringFormatCompatible = stringFormatCompatible;
+    this.scale = POWERS_OF_TEN[maxFractionDigits];
+    double scaleSplit = SPLITTER * scale;
+    this.scaleHigh = scaleSplit - (scaleSplit - scale);
+    this.scaleLow = scale - scaleHigh;
+    final DecimalFormat decimalFormatCopy = decimalFormat == null ? null : (DecimalFormat) decimalFormat.clone();
+    this.decimalFormatDelegate = decimalFormatCopy == null ? null : ThreadLocal.withInitial(() -> (DecimalFormat) decimalFormatCopy.clone());
+    this.delegateAll = delegateAll;
+  }
+
+  /**
+   * Create formatter consistent with {@code String.format("%.nf",value)} using a '.' as decimal separator
+   *
+   * @param numberOfDecimals to use
+   * @return created formatter
+   */
+  public static FixedPrecisionFormatter ofFixedDecimals(int numberOfDecimals) {
+    if(numberOfDecimals < 0 || numberOfDecimals > MAX_FRACTION_DIGITS) {
+      throw new IllegalArgumentException(String.format("Number of decimals must be between 0 and %d, found %d", MAX_FRACTION_DIGITS, numberOfDecimals));
+    }
+    return new FixedPrecisionFormatter(numberOfDecimals, numberOfDecimals, false, true, null, false);
+  }
+
+  /**
+   * Create formatter consistent with the provided decimal format. The decimal format configuration is copied, later changes to
+   * the decimal format are not reflected in the created formatter
+   *
+   * @param decimalFormat to reproduce
+   * @return created formatter
+   */
+  public static FixedPrecisionFormatter of(final DecimalFormat decimalFormat) {
+    if(!isReproducible(decimalFormat)) {
+      return new FixedPrecisionFormatter(0, 0, false, false, decimalFormat, true);
+    }
+    return new FixedPrecisionFormatter(
+        decimalFormat.getMaximumFractionDigits(),
+        decimalFormat.getMinimumFractionDigits(),
+        decimalFormat.getMinimumIntegerDigits() == 0,
+        false,
+        decimalFormat,
+        false);
+  }
+
+  /**
+   * Format value into the provided buffer which must have at least {@link #MAX_FORMATTED_LENGTH} positions available from the offset
+   *
+   * @param value to format
+   * @param buffer to write to
+   * @param offset to start at
+   * @return position after last character written
+   */
+  public int format(double value, final char[] buffer, int offset) {
+    if(delegateAll) {
+      return copy(decimalFormatDelegate.get().format(value), buffer, offset);
+    }
+    if(!Double.isFinite(value)) {
+      return copy(stringFormatCompatible ? Double.toString(value) : decimalFormatDelegate.get().format(value), buffer, offset);
+    }
+
+    boolean negative = Double.doubleToRawLongBits(value) < 0;
+    double absValue = Math.abs(value);
+    long roundedScaled = roundScaled(absValue);
+    if(roundedScaled < 0) {
+      if(!stringFormatCompatible) {
+        return copy(decimalFormatDelegate.get().format(value), buffer, offset);
+      }
+      BigDecimal rounded = BigDecimal.valueOf(absValue).setScale(maxFractionDigits, RoundingMode.HALF_UP);
+      if(rounded.precision() > 18) {
+        /* too large for long based digit writing */
+        return copy((negative ? "-" : "").concat(rounded.toPlainString()), buffer, offset);
+      }
+      roundedScaled = rounded.unscaledValue().longValueExact();
+    }
+    return writeRoundedScaled(negative, roundedScaled, buffer, offset);
+  }
+
+  /**
+   * Format value into the provided buffer as ASCII bytes, the buffer must have at least {@link #MAX_FORMATTED_LENGTH} positions available from the offset
+   *
+   * @param value to format
+   * @param buffer to write to
+   * @param offset to start at
+   * @return position after last byte written
+   */
+  public int format(double value, final byte[] buffer, int offset) {
+    char[] scratch = SCRATCH.get();
+    int length = format(value, scratch, 0);
+    for(int index = 0; index < length; ++index) {
+      buffer[offset + index] = (byte) scratch[index];
+    }
+    return offset + length;
+  }
+
+  /**
+   * Format value to string
+   *
+   * @param value to format
+   * @return formatted value
+   */
+  public String format(double value) {
+    char[] scratch = SCRATCH.get();
+    return new String(scratch, 0, format(value, scratch, 0));
+  }
+
+  /** Collect the maximum number of decimals
+   *
+   * @return maximum number of decimals
+   */
+  public int getMaximumFractionDigits() {
+    return maxFractionDigits;
+  }
+}
@@ -0,0 +1,225 @@
+package org.goplanit.matsim.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive {@code long} keys to primitive {@code int} values based on open addressing with linear probing. Lookups and
+ * updates do not box keys or values and do not allocate, apart from growing the table when its load factor is exceeded.
+ * <p>
+ * Not thread safe, although concurrent lookups without concurrent updates are.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class LongIntHashMap {
+
+  /** key used to mark free slots, an actual key with this value is stored separately */
+  private static final long FREE_KEY = Long.MIN_VALUE;
+
+  /** maximum fraction of occupied slots before the table is grown */
+  private static final double MAX_LOAD_FACTOR = 0.5;
+
+  /** default initial capacity */
+  public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  /** value returned by {@link #get(long)} when the key is absent */
+  private final int missingValue;
+
+  /** keys by slot */
+  private long[] keys;
+
+  /** values by slot */
+  private int[] values;
+
+  /** mask to map a hash to a slot, table size is a power of two */
+  private int mask;
+
+  /** number of occupied slots after which the table is grown */
+  private int resizeThreshold;
+
+  /** number of entries, excluding the free key entry */
+  private int size;
+
+  /** flag indicating an entry exists for the free key */
+  private boolean hasFreeKey;
+
+  /** value of the free key entry */
+  private int freeKeyValue;
+
+  /**
+   * Spread the bits of the key
+   *
+   * @param key to hash
+   * @return hash
+   */
+  private static int hash(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Allocate table of given (power of two) size
+   *
+   * @param tableSize to allocate
+   */
+  private void allocate(int tableSize) {
+    this.keys = new long[tableSize];
+    Arrays.fill(keys, FREE_KEY);
+    this.values = new int[tableSize];
+    this.mask = tableSize - 1;
+    this.resizeThreshold = (int) (tableSize * MAX_LOAD_FACTOR);
+  }
+
+  /**
+   * Double the table size and rehash all entries
+   */
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(Math.multiplyExact(keys.length, 2));
+    for(int slot = 0; slot < oldKeys.length; ++slot) {
+      if(oldKeys[slot] != FREE_KEY) {
+        int newSlot = hash(oldKeys[slot]) & mask;
+        while(keys[newSlot] != FREE_KEY) {
+          newSlot = (newSlot + 1) & mask;
+        }
+        keys[newSlot] = oldKeys[slot];
+        values[newSlot] = oldValues[slot];
+      }
+    }
+  }
+
+  /**
+   * Find the slot of the key, or the free slot where it would be inserted
+   *
+   * @param key to find
+   * @return slot
+   */
+  private int findSlot(long key) {
+    int slot = hash(key) & mask;
+    while(keys[slot] != FREE_KEY && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Constructor with default initial capacity, absent keys yield -1
+   */
+  public LongIntHashMap() {
+    this(DEFAULT_INITIAL_CAPACITY, -1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param initialCapacity expected number of entries
+   * @param missingValue value returned by {@link #get(long)} when the key is absent
+   */
+  public LongIntHashMap(int initialCapacity, int missingValue) {
+    this.missingValue = missingValue;
+    long requiredTableSize = Math.max(2, (long) Math.ceil(initialCapacity / MAX_LOAD_FACTOR));
+    int tableSize = 2;
+    while(tableSize < requiredTableSize && tableSize < (1 << 30)) {
+      tableSize <<= 1;
+    }
+    allocate(tableSize);
+  }
+
+  /**
+   * Collect the value of the key
+   *
+   * @param key to collect value for
+   * @return value, missing value when absent
+   */
+  public int get(long key) {
+    if(key == FREE_KEY) {
+      return hasFreeKey ? freeKeyValue : missingValue;
+    }
+    int slot = findSlot(key);
+    return keys[slot] == key ? values[slot] : missingValue;
+  }
+
+  /**
+   * Verify if the key is present
+   *
+   * @param key to verify
+   * @return true when present, false otherwise
+   */
+  public boolean containsKey(long key) {
+    if(key == FREE_KEY) {
+      return hasFreeKey;
+    }
+    return keys[findSlot(key)] == key;
+  }
+
+  /**
+   * Register the value for the key, replacing any existing value
+   *
+   * @param key to register
+   * @param value to register
+   */
+  public void put(long key, int value) {
+    if(key == FREE_KEY) {
+      hasFreeKey = true;
+      freeKeyValue = value;
+      return;
+    }
+    int slot = findSlot(key);
+    if(keys[slot] == key) {
+      values[slot] = value;
+      return;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if(++size > resizeThreshold) {
+      grow();
+    }
+  }
+
+  /**
+   * Collect the value of the key, if absent the key is registered with the next dense value, i.e., the number of entries before
+   * registering it
+   *
+   * @param key to collect value for
+   * @return value of key
+   */
+  public int getOrPutNextDenseValue(long key) {
+    if(key == FREE_KEY) {
+      if(!hasFreeKey) {
+        put(key, size());
+      }
+      return freeKeyValue;
+    }
+    int slot = findSlot(key);
+    if(keys[slot] == key) {
+      return values[slot];
+    }
+    int value = size();
+    keys[slot] = key;
+    values[slot] = value;
+    if(++size > resizeThreshold) {
+      grow();
+    }
+    return value;
+  }
+
+  /**
+   * Number of entries
+   *
+   * @return number of entries
+   */
+  public int size() {
+    return size + (hasFreeKey ? 1 : 0);
+  }
+
+  /**
+   * Remove all entries, the table size is retained
+   */
+  public void clear() {
+    Arrays.fill(keys, FREE_KEY);
+    size = 0;
+    hasFreeKey = false;
+  }
+}
@@ -4,9 +4,12 @@ import org.goplanit.matsim.converter.MatsimNetworkWriter;
 import org.goplanit.matsim.converter.MatsimNetworkWriterSettings;
 import org.goplanit.test.PlanItTestHelper;
 import org.goplanit.utils.misc.FileUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.core.IsEqual;
 import org.xmlunit.matchers.CompareMatcher;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
@@ -14,6 +17,23 @@ import java.nio.file.Path;
  */
 public class MatsimAssertionUtils {
 
+  /**
+   * Conversion persisting MATSim outputs to a directory, using either the StAX based XML writer or the direct XML emitter, and writing either
+   * sequentially or in parallel
+   */
+  @FunctionalInterface
+  public interface SequentialOrParallelConversion {
+
+    /** Perform the conversion
+     *
+     * @param outputDir to persist to
+     * @param directXmlEmitter when true use the direct XML emitter, otherwise StAX
+     * @param parallel when true write in parallel, otherwise sequentially
+     * @throws Exception thrown if error
+     */
+    void convert(Path outputDir, boolean directXmlEmitter, boolean parallel) throws Exception;
+  }
+
   private static Path pathOfNetworkFile(String theDir){
     return Path.of(theDir.toString(), MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME + ".xml").toAbsolutePath();
   }
@@ -66,4 +86,35 @@ public class MatsimAssertionUtils {
   public static void assertTransitScheduleFilesSimilar(Path resultDir, Path referenceDir) throws IOException {
     assertTransitScheduleFilesSimilar(resultDir.toAbsolutePath().toString(), referenceDir.toAbsolutePath().toString());
   }
+
+  public static void assertXmlFilesIdentical(String fileName, Path resultDir, Path referenceDir) throws IOException {
+    String xmlFileName = fileName.concat(PlanitMatsimWriterSettings.DEFAULT_FILE_NAME_EXTENSION);
+    MatcherAssert.assertThat(
+        xmlFileName + " differs between " + resultDir + " and " + referenceDir,
+        Files.readAllBytes(resultDir.resolve(xmlFileName)),
+        IsEqual.equalTo(Files.readAllBytes(referenceDir.resolve(xmlFileName))));
+  }
+
+  /**
+   * Perform the conversion sequentially and in parallel, for both the StAX based XML writer and the direct XML emitter, and assert the
+   * given MATSim XML file is byte for byte identical between the sequential and parallel output. Outputs are persisted to
+   * {@code <outputDirPrefix>_sequential_<stax|emitter>} and {@code <outputDirPrefix>_parallel_<stax|emitter>}
+   *
+   * @param outputDirPrefix path prefix of the output directories
+   * @param fileName of the MATSim XML file to compare, without extension
+   * @param conversion to perform
+   * @throws Exception thrown if error
+   */
+  public static void assertSequentialAndParallelXmlFilesIdentical(
+      Path outputDirPrefix, String fileName, SequentialOrParallelConversion conversion) throws Exception {
+    for(boolean directXmlEmitter : new boolean[] {false, true}) {
+      String suffix = directXmlEmitter ? "emitter" : "stax";
+      Path sequentialOutputDir = Path.of(outputDirPrefix + "_sequential_" + suffix);
+      Path parallelOutputDir = Path.of(outputDirPrefix + "_parallel_" + suffix);
+
+      conversion.convert(sequentialOutputDir, directXmlEmitter, false);
+      conversion.convert(parallelOutputDir, directXmlEmitter, true);
+      assertXmlFilesIdentical(fileName, sequentialOutputDir, parallelOutputDir);
+    }
+  }
 }
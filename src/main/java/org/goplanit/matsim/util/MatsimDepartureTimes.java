@@ -0,0 +1,128 @@
+package org.goplanit.matsim.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.goplanit.utils.service.routed.RoutedService;
+import org.goplanit.utils.service.routed.RoutedTripSchedule;
+
+/**
+ * Collect the departure times of trip schedules that are grouped into a single MATSim transit route, i.e., schedules sharing the same
+ * relative leg timings. Departure times are sorted as primitives, each combined with the index of its trip schedule, after which duplicate
+ * departure times are detected in a single linear scan and logged.
+ *
+ * @author markr
+ *
+ */
+public class MatsimDepartureTimes {
+
+  /** the logger to use */
+  private static final Logger LOGGER = Logger.getLogger(MatsimDepartureTimes.class.getCanonicalName());
+
+  /**
+   * Collect the departure times of a trip schedule in seconds, in order of its departures
+   *
+   * @param tripSchedule to collect departure times for
+   * @return departure times in seconds
+   */
+  private static int[] collectDepartureTimes(RoutedTripSchedule tripSchedule) {
+    int[] departureTimes = new int[tripSchedule.getDepartures().size()];
+    int index = 0;
+    for(var departure : tripSchedule.getDepartures()) {
+      departureTimes[index++] = Math.toIntExact(departure.getDepartureTime().toSecondOfDay());
+    }
+    return departureTimes;
+  }
+
+  /**
+   * Log the duplicate departure time shared by the given trip schedules. Consistent with grouping trip schedules by their departure times, a warning
+   * is logged for each group of at least two of these schedules with identical departure times
+   *
+   * @param departureTime             duplicate departure time in seconds
+   * @param scheduleIndices           of the trip schedules with the departure time, in ascending order, may contain repeats
+   * @param tripScheduleList          the indices refer to
+   * @param departureTimesBySchedule  departure times in seconds by schedule index
+   * @param routedService             of the schedules
+   * @param routedServiceId           mapped id of the routed service
+   */
+  private static void logDuplicateDepartureTime(
+      int departureTime,
+      int[] scheduleIndices,
+      List<RoutedTripSchedule> tripScheduleList,
+      int[][] departureTimesBySchedule,
+      RoutedService routedService,
+      String routedServiceId) {
+    boolean[] grouped = new boolean[scheduleIndices.length];
+    for(int first = 0; first < scheduleIndices.length; ++first) {
+      if(grouped[first] || (first > 0 && scheduleIndices[first] == scheduleIndices[first - 1])) {
+        continue;
+      }
+      var identicalSchedules = new ArrayList<RoutedTripSchedule>();
+      identicalSchedules.add(tripScheduleList.get(scheduleIndices[first]));
+      for(int other = first + 1; other < scheduleIndices.length; ++other) {
+        if(!grouped[other] && scheduleIndices[other] != scheduleIndices[other - 1]
+            && Arrays.equals(departureTimesBySchedule[scheduleIndices[first]], departureTimesBySchedule[scheduleIndices[other]])) {
+          grouped[other] = true;
+          identicalSchedules.add(tripScheduleList.get(scheduleIndices[other]));
+        }
+      }
+      if(identicalSchedules.size() > 1) {
+        LOGGER.warning(
+            String.format("Multiple routedTripSchedules with identical servicelegs-departure time (%s), routed service %s (ext id: %s, %s) trips [%s]. Ignoring duplicates (pre-filter by day, or invalid GTFS source?)",
+                MatsimTimeFormatter.format(departureTime), routedServiceId, routedService.getExternalId(), routedService.getMode().getName(),
+                identicalSchedules.stream().map( e -> e.hasExternalId() ? e.getExternalId() : "").collect(Collectors.joining(","))));
+      }
+    }
+  }
+
+  /**
+   * Collect the unique departure times of all trip schedules in ascending order. Departure times are sorted as primitives, each combined with the
+   * index of its trip schedule, after which duplicates are detected in a single linear scan and logged
+   *
+   * @param tripScheduleList  to collect departure times for
+   * @param routedService     of the schedules
+   * @param routedServiceId   mapped id of the routed service
+   * @return unique departure times in seconds in ascending order
+   */
+  public static int[] collectOrderedDepartureTimes(List<RoutedTripSchedule> tripScheduleList, RoutedService routedService, String routedServiceId) {
+    int[][] departureTimesBySchedule = new int[tripScheduleList.size()][];
+    int numberOfDepartures = 0;
+    for(int scheduleIndex = 0; scheduleIndex < tripScheduleList.size(); ++scheduleIndex) {
+      departureTimesBySchedule[scheduleIndex] = collectDepartureTimes(tripScheduleList.get(scheduleIndex));
+      numberOfDepartures += departureTimesBySchedule[scheduleIndex].length;
+    }
+
+    /* departure time in the upper, schedule index in the lower 32 bits, so sorting orders by time first (times are non-negative) */
+    long[] departures = new long[numberOfDepartures];
+    int index = 0;
+    for(int scheduleIndex = 0; scheduleIndex < departureTimesBySchedule.length; ++scheduleIndex) {
+      for(int departureTime : departureTimesBySchedule[scheduleIndex]) {
+        departures[index++] = ((long) departureTime << 32) | scheduleIndex;
+      }
+    }
+    Arrays.sort(departures);
+
+    int[] orderedDepartureTimes = new int[numberOfDepartures];
+    int numberOfUniqueDepartureTimes = 0;
+    for(int start = 0, end; start < numberOfDepartures; start = end) {
+      int departureTime = (int) (departures[start] >>> 32);
+      end = start + 1;
+      while(end < numberOfDepartures && (int) (departures[end] >>> 32) == departureTime) {
+        ++end;
+      }
+      orderedDepartureTimes[numberOfUniqueDepartureTimes++] = departureTime;
+
+      if(end - start > 1) {
+        int[] scheduleIndices = new int[end - start];
+        for(int duplicate = start; duplicate < end; ++duplicate) {
+          scheduleIndices[duplicate - start] = (int) departures[duplicate];
+        }
+        logDuplicateDepartureTime(departureTime, scheduleIndices, tripScheduleList, departureTimesBySchedule, routedService, routedServiceId);
+      }
+    }
+    return Arrays.copyOf(orderedDepartureTimes, numberOfUniqueDepartureTimes);
+  }
+}
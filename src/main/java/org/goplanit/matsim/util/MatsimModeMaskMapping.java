@@ -0,0 +1,183 @@
+package org.goplanit.matsim.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.goplanit.utils.exceptions.PlanItRunTimeException;
+import org.goplanit.utils.mode.Mode;
+
+/**
+ * Mapping of activated PLANit modes to MATSim modes where each activated PLANit mode is assigned a bit, so that any set of allowed modes
+ * can be represented by a single {@code long} mask. Per mask the joined MATSim modes string is memoised, so that resolving the MATSim modes of
+ * a link segment only requires an array lookup.
+ * <p>
+ * Instances are immutable (apart from the memo) and thread safe.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class MatsimModeMaskMapping {
+
+  /** maximum number of activated modes for which the memo is a directly indexed array rather than a map */
+  private static final int MAX_DIRECT_MEMO_MODES = 16;
+
+  /** maximum number of activated modes that fit in a mask */
+  public static final int MAX_ACTIVATED_MODES = Long.SIZE;
+
+  /**
+   * Memoised information for a particular mode mask
+   */
+  public static final class ModeMaskEntry {
+
+    /** joined (sorted, unique) MATSim modes */
+    private final String matsimModes;
+
+    /**
+     * Constructor
+     *
+     * @param matsimModes joined MATSim modes
+     */
+    private ModeMaskEntry(String matsimModes) {
+      this.matsimModes = matsimModes;
+    }
+
+    /** Collect the comma separated MATSim modes (sorted and unique)
+     *
+     * @return MATSim modes string
+     */
+    public String getMatsimModes() {
+      return matsimModes;
+    }
+  }
+
+  /** the underlying mapping of activated PLANit modes to MATSim modes */
+  private final Map<Mode, String> planitModeToMatsimModeMapping;
+
+  /** bit index by PLANit mode id, -1 when mode is not activated */
+  private final int[] bitIndexByModeId;
+
+  /** activated PLANit modes by bit index */
+  private final Mode[] modesByBitIndex;
+
+  /** memo by mask for small number of activated modes, null otherwise */
+  private final ModeMaskEntry[] directMemo;
+
+  /** memo by mask for large number of activated modes, null otherwise */
+  private final Map<Long, ModeMaskEntry> mapMemo;
+
+  /** minimum of the maximum speeds of all activated modes (km/h) */
+  private final double minimumActivatedModeSpeedKmH;
+
+  /**
+   * Create the memoised entry for the given mask
+   *
+   * @param modeMask to create entry for
+   * @return created entry
+   */
+  private ModeMaskEntry createEntry(long modeMask) {
+    Set<String> matsimModes = new TreeSet<>();
+    for(int bitIndex = 0; bitIndex < modesByBitIndex.length; ++bitIndex) {
+      if((modeMask & (1L << bitIndex)) != 0) {
+        matsimModes.add(planitModeToMatsimModeMapping.get(modesByBitIndex[bitIndex]));
+      }
+    }
+    return new ModeMaskEntry(String.join(",", matsimModes));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param planitModeToMatsimModeMapping activated PLANit modes and their MATSim mode
+   */
+  public MatsimModeMaskMapping(final Map<Mode, String> planitModeToMatsimModeMapping) {
+    if(planitModeToMatsimModeMapping.size() > MAX_ACTIVATED_MODES) {
+      throw new PlanItRunTimeException("MATSim writer supports at most %d activated modes, found %d", MAX_ACTIVATED_MODES, planitModeToMatsimModeMapping.size());
+    }
+    this.planitModeToMatsimModeMapping = planitModeToMatsimModeMapping;
+
+    /* bits assigned in order of mode id to be deterministic */
+    this.modesByBitIndex = planitModeToMatsimModeMapping.keySet().stream().sorted(Comparator.comparingLong(Mode::getId)).toArray(Mode[]::new);
+    long maxModeId = modesByBitIndex.length == 0 ? -1 : modesByBitIndex[modesByBitIndex.length - 1].getId();
+    this.bitIndexByModeId = new int[Math.toIntExact(maxModeId + 1)];
+    Arrays.fill(bitIndexByModeId, -1);
+    for(int bitIndex = 0; bitIndex < modesByBitIndex.length; ++bitIndex) {
+      bitIndexByModeId[(int) modesByBitIndex[bitIndex].getId()] = bitIndex;
+    }
+    this.minimumActivatedModeSpeedKmH = Arrays.stream(modesByBitIndex).mapToDouble(Mode::getMaximumSpeedKmH).min().orElse(Double.POSITIVE_INFINITY);
+
+    if(modesByBitIndex.length <= MAX_DIRECT_MEMO_MODES) {
+      this.directMemo = new ModeMaskEntry[1 << modesByBitIndex.length];
+      this.mapMemo = null;
+    }else {
+      this.directMemo = null;
+      this.mapMemo = new ConcurrentHashMap<>();
+    }
+  }
+
+  /**
+   * Collect the mask of the activated modes among the given modes
+   *
+   * @param modes to create mask for
+   * @return mode mask, zero when none of the modes is activated
+   */
+  public long getModeMask(final Iterable<? extends Mode> modes) {
+    long modeMask = 0;
+    for(Mode mode : modes) {
+      long modeId = mode.getId();
+      if(modeId < bitIndexByModeId.length && bitIndexByModeId[(int) modeId] >= 0) {
+        modeMask |= 1L << bitIndexByModeId[(int) modeId];
+      }
+    }
+    return modeMask;
+  }
+
+  /**
+   * Collect the memoised entry for the given mask
+   *
+   * @param modeMask to collect entry for
+   * @return entry
+   */
+  public ModeMaskEntry getEntry(long modeMask) {
+    if(directMemo != null) {
+      /* entries are immutable, so racing to create the same entry is harmless */
+      ModeMaskEntry entry = directMemo[(int) modeMask];
+      if(entry == null) {
+        entry = createEntry(modeMask);
+        directMemo[(int) modeMask] = entry;
+      }
+      return entry;
+    }
+    return mapMemo.computeIfAbsent(modeMask, this::createEntry);
+  }
+
+  /**
+   * Collect the MATSim mode for the given PLANit mode
+   *
+   * @param mode to collect for
+   * @return mapped MATSim mode, null when not activated
+   */
+  public String getMatsimMode(final Mode mode) {
+    return planitModeToMatsimModeMapping.get(mode);
+  }
+
+  /** Collect the underlying mapping of activated PLANit modes to MATSim modes
+   *
+   * @return mapping
+   */
+  public Map<Mode, String> getPlanitModeToMatsimModeMapping() {
+    return planitModeToMatsimModeMapping;
+  }
+
+  /** Collect the minimum of the maximum speeds of all activated PLANit modes, regardless of the modes allowed on a particular link segment
+   *
+   * @return minimum activated mode speed (km/h), positive infinity when no modes are activated
+   */
+  public double getMinimumActivatedModeSpeedKmH() {
+    return minimumActivatedModeSpeedKmH;
+  }
+}
@@ -0,0 +1,61 @@
+package org.goplanit.matsim.util;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.goplanit.matsim.xml.MatsimTransitAttributes;
+import org.goplanit.matsim.xml.MatsimTransitElements;
+import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
+import org.goplanit.utils.service.routed.RoutedTripSchedule;
+import org.goplanit.utils.xml.PlanitXmlWriterUtils;
+
+/**
+ * Write the route element of a MATSim transit route, i.e., a link reference for each physical link segment underlying the legs of a PLANit
+ * trip schedule. How a link segment is referenced is left to the caller, so it can reuse the MATSim link ids mapped (and encoded) upfront.
+ *
+ * @author markr
+ *
+ */
+public class MatsimRouteLinkRefs {
+
+  /**
+   * Writes the attribute referencing the MATSim link of a PLANit link segment
+   */
+  @FunctionalInterface
+  public interface LinkRefAttributeWriter {
+
+    /** Write the attribute referencing the link segment
+     *
+     * @param xmlWriter to use
+     * @param attributeName to write
+     * @param linkSegment to reference
+     * @throws XMLStreamException thrown if error
+     */
+    void writeLinkRefAttribute(XMLStreamWriter xmlWriter, String attributeName, MacroscopicLinkSegment linkSegment) throws XMLStreamException;
+  }
+
+  /**
+   * Write the route element with the link references of the trip schedule, which should have relative leg timings
+   *
+   * @param xmlWriter to use
+   * @param tripSchedule to write route of
+   * @param indentLevel of the route element, link references are indented one level deeper
+   * @param linkRefAttributeWriter to write the link reference attributes with
+   * @throws XMLStreamException thrown if error
+   */
+  public static void write(
+      XMLStreamWriter xmlWriter, RoutedTripSchedule tripSchedule, int indentLevel, LinkRefAttributeWriter linkRefAttributeWriter) throws XMLStreamException {
+    PlanitXmlWriterUtils.writeStartElementNewLine(xmlWriter, MatsimTransitElements.ROUTE, indentLevel);
+
+    for(var timing : tripSchedule){
+      /* only extract the underlying physical link segments for MATSim */
+      for(var physicalSegment : timing.getParentLegSegment().getPhysicalParentSegments()){
+        PlanitXmlWriterUtils.writeEmptyElement(xmlWriter, MatsimTransitElements.LINK, indentLevel + 1);
+        linkRefAttributeWriter.writeLinkRefAttribute(xmlWriter, MatsimTransitAttributes.REF_ID, (MacroscopicLinkSegment) physicalSegment);
+        PlanitXmlWriterUtils.writeNewLine(xmlWriter);
+      }
+    }
+
+    PlanitXmlWriterUtils.writeEndElementNewLine(xmlWriter, indentLevel);
+  }
+}
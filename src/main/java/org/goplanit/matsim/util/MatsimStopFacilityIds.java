@@ -0,0 +1,74 @@
+package org.goplanit.matsim.util;
+
+import org.goplanit.utils.network.layer.physical.LinkSegment;
+
+/**
+ * Dense MATSim stop facility ids tracked by access link segment and access node side. Only the combination of both determines a unique
+ * stop facility, as a link segment can have two stops, one upstream and one downstream.
+ * <p>
+ * Registering ids is not thread safe, collecting registered ids is, so once all stop facilities are registered the ids can be shared read
+ * only by writers persisting transit lines in parallel.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class MatsimStopFacilityIds {
+
+  /** stop facility id by key, see {@link #createKey(LinkSegment, boolean)} */
+  private final LongIntHashMap stopFacilityIdByKey;
+
+  /** Create the key under which the stop facility id is tracked. The access link segment id is combined with the access node side, so
+   * the full 64 bit id range of link segments (minus one bit) is supported and link segment id 0 does not map to the same key for both sides
+   *
+   * @param accessLinkSegment to use
+   * @param nodeAccessDownstream to use
+   * @return key
+   */
+  private static long createKey(LinkSegment accessLinkSegment, boolean nodeAccessDownstream) {
+    return (accessLinkSegment.getId() << 1) | (nodeAccessDownstream ? 1 : 0);
+  }
+
+  /**
+   * Constructor
+   */
+  public MatsimStopFacilityIds() {
+    this.stopFacilityIdByKey = new LongIntHashMap();
+  }
+
+  /** Collect the stop facility id of the access link segment and node side, registering the next dense id when absent
+   *
+   * @param accessLinkSegment to use
+   * @param nodeAccessDownstream to use
+   * @return stop facility id
+   */
+  public int getOrRegisterId(LinkSegment accessLinkSegment, boolean nodeAccessDownstream) {
+    return stopFacilityIdByKey.getOrPutNextDenseValue(createKey(accessLinkSegment, nodeAccessDownstream));
+  }
+
+  /** Collect the stop facility id registered before via {@link #getOrRegisterId(LinkSegment, boolean)} without registering it otherwise
+   *
+   * @param accessLinkSegment to use
+   * @param nodeAccessDownstream to use
+   * @return registered stop facility id, negative when not registered
+   */
+  public int getRegisteredId(LinkSegment accessLinkSegment, boolean nodeAccessDownstream) {
+    return stopFacilityIdByKey.get(createKey(accessLinkSegment, nodeAccessDownstream));
+  }
+
+  /** Verify if a stop facility id has been registered for the access link segment and node side
+   *
+   * @param accessLinkSegment to use
+   * @param nodeAccessDownstream to use
+   * @return true when registered, false otherwise
+   */
+  public boolean hasId(LinkSegment accessLinkSegment, boolean nodeAccessDownstream) {
+    return stopFacilityIdByKey.containsKey(createKey(accessLinkSegment, nodeAccessDownstream));
+  }
+
+  /** Remove all registered ids
+   */
+  public void clear() {
+    stopFacilityIdByKey.clear();
+  }
+}
@@ -0,0 +1,137 @@
+package org.goplanit.matsim.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Thread safe, allocation free formatter of a time in seconds to MATSim's HH:mm:ss notation, writing ASCII characters straight into a
+ * (reusable) byte or char buffer via small digit lookup tables. Hours are not wrapped at midnight, so times beyond 24:00:00 are formatted
+ * as such (e.g. 25:30:00) which MATSim supports for services that run past midnight. Hours use at least two digits and more when exceeding 99,
+ * identical to {@code String.format("%02d:%02d:%02d", hours, minutes, seconds)}.
+ *
+ * @author markr
+ *
+ */
+public class MatsimTimeFormatter {
+
+  /** number of characters of a formatted time below 100 hours */
+  public static final int FORMATTED_LENGTH = 8;
+
+  /** maximum number of characters required to format any non-negative int number of seconds */
+  public static final int MAX_FORMATTED_LENGTH = 12;
+
+  /** number of seconds per hour */
+  private static final int SECONDS_PER_HOUR = 3600;
+
+  /** number of seconds per minute */
+  private static final int SECONDS_PER_MINUTE = 60;
+
+  /** ASCII tens digit of values 0-99 */
+  private static final byte[] TENS_DIGIT = new byte[100];
+
+  /** ASCII ones digit of values 0-99 */
+  private static final byte[] ONES_DIGIT = new byte[100];
+
+  static {
+    for(int value = 0; value < 100; ++value) {
+      TENS_DIGIT[value] = (byte) ('0' + value / 10);
+      ONES_DIGIT[value] = (byte) ('0' + value % 10);
+    }
+  }
+
+  /** per thread scratch buffer */
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_FORMATTED_LENGTH]);
+
+  /**
+   * Verify the time is supported
+   *
+   * @param timeSeconds to verify
+   */
+  private static void validate(int timeSeconds) {
+    if(timeSeconds < 0) {
+      throw new IllegalArgumentException(String.format("Unable to format negative time of %d seconds as HH:mm:ss", timeSeconds));
+    }
+  }
+
+  /**
+   * Put the leading hour digits (hours divided by 100) of a time of 100 hours or more
+   *
+   * @param leadingHours hours divided by 100, positive
+   * @param buffer to put in
+   * @param offset to start at
+   * @return offset after the last digit
+   */
+  private static int putLeadingHours(int leadingHours, final byte[] buffer, int offset) {
+    int numberOfDigits = 1;
+    for(int remainder = leadingHours / 10; remainder > 0; remainder /= 10) {
+      ++numberOfDigits;
+    }
+    for(int index = offset + numberOfDigits - 1; index >= offset; --index) {
+      buffer[index] = (byte) ('0' + leadingHours % 10);
+      leadingHours /= 10;
+    }
+    return offset + numberOfDigits;
+  }
+
+  /** Constructor, static methods only */
+  private MatsimTimeFormatter() {
+  }
+
+  /**
+   * Format the time as HH:mm:ss into the buffer
+   *
+   * @param timeSeconds non-negative time in seconds, may exceed a single day
+   * @param buffer to write ASCII characters to, must have room for {@link #MAX_FORMATTED_LENGTH} characters from the offset onwards
+   * @param offset to start writing at
+   * @return number of characters written
+   */
+  public static int format(int timeSeconds, final byte[] buffer, int offset) {
+    validate(timeSeconds);
+    int hours = timeSeconds / SECONDS_PER_HOUR;
+    int remainder = timeSeconds - hours * SECONDS_PER_HOUR;
+    int minutes = remainder / SECONDS_PER_MINUTE;
+    int seconds = remainder - minutes * SECONDS_PER_MINUTE;
+
+    int position = offset;
+    if(hours >= 100) {
+      position = putLeadingHours(hours / 100, buffer, position);
+      hours %= 100;
+    }
+    buffer[position] = TENS_DIGIT[hours];
+    buffer[position + 1] = ONES_DIGIT[hours];
+    buffer[position + 2] = ':';
+    buffer[position + 3] = TENS_DIGIT[minutes];
+    buffer[position + 4] = ONES_DIGIT[minutes];
+    buffer[position + 5] = ':';
+    buffer[position + 6] = TENS_DIGIT[seconds];
+    buffer[position + 7] = ONES_DIGIT[seconds];
+    return position + FORMATTED_LENGTH - offset;
+  }
+
+  /**
+   * Format the time as HH:mm:ss into the buffer
+   *
+   * @param timeSeconds non-negative time in seconds, may exceed a single day
+   * @param buffer to write characters to, must have room for {@link #MAX_FORMATTED_LENGTH} characters from the offset onwards
+   * @param offset to start writing at
+   * @return number of characters written
+   */
+  public static int format(int timeSeconds, final char[] buffer, int offset) {
+    final byte[] scratch = SCRATCH.get();
+    int length = format(timeSeconds, scratch, 0);
+    for(int index = 0; index < length; ++index) {
+      buffer[offset + index] = (char) scratch[index];
+    }
+    return length;
+  }
+
+  /**
+   * Format the time as HH:mm:ss
+   *
+   * @param timeSeconds non-negative time in seconds, may exceed a single day
+   * @return formatted time
+   */
+  public static String format(int timeSeconds) {
+    final byte[] scratch = SCRATCH.get();
+    return new String(scratch, 0, format(timeSeconds, scratch, 0), StandardCharsets.US_ASCII);
+  }
+}
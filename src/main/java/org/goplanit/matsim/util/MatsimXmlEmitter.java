@@ -0,0 +1,955 @@
+package org.goplanit.matsim.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Low level XML emitter for the flat, namespace free MATSim XML formats. Element and attribute names are encoded to UTF-8 once and
+ * cached, values are escaped and encoded directly into a large reusable byte buffer which is drained to a channel when full. It
+ * implements {@link XMLStreamWriter} so it can be used as a drop-in replacement of the StAX writer by the MATSim writers and
+ * {@code PlanitXmlWriterUtils}, producing identical output (escaping follows the JDK StAX writer). Namespaces are not supported, only the default (empty) namespace
+ * is accepted, in which case namespace declarations are ignored.
+ * <p>
+ * Without a channel the emitter writes to a growing in-memory buffer, which can be appended to another emitter afterwards. This is used
+ * to serialise chunks of a document in parallel.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class MatsimXmlEmitter implements XMLStreamWriter {
+
+  /** namespace context without any bindings other than the default (empty) namespace */
+  private static final NamespaceContext EMPTY_NAMESPACE_CONTEXT = new NamespaceContext() {
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+      if(prefix == null) {
+        throw new IllegalArgumentException("prefix is null");
+      }
+      return XMLConstants.NULL_NS_URI;
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+      if(namespaceURI == null) {
+        throw new IllegalArgumentException("namespace URI is null");
+      }
+      return namespaceURI.equals(XMLConstants.NULL_NS_URI) ? XMLConstants.DEFAULT_NS_PREFIX : null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+      String prefix = getPrefix(namespaceURI);
+      return prefix == null ? Collections.emptyIterator() : List.of(prefix).iterator();
+    }
+  };
+
+  /** default size of the byte buffer */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  /** escaped ampersand */
+  private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+
+  /** escaped less than */
+  private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+
+  /** escaped greater than */
+  private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+
+  /** escaped quote */
+  private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+
+  /** channel to drain buffer to, null when in memory only */
+  private final WritableByteChannel channel;
+
+  /** pre-encoded names */
+  private final Map<String, byte[]> encodedNames = new HashMap<>();
+
+  /** names of currently open elements */
+  private final Deque<byte[]> openElements = new ArrayDeque<>();
+
+  /** writer view on this emitter */
+  private final Writer writer;
+
+  /** buffer wrapping bytes */
+  private ByteBuffer byteBuffer;
+
+  /** backing array of byte buffer */
+  private byte[] bytes;
+
+  /** current position in bytes */
+  private int position;
+
+  /** true when a start tag is pending closure */
+  private boolean startTagOpen;
+
+  /** true when the pending start tag belongs to an empty element */
+  private boolean emptyElementOpen;
+
+  /** flag indicating the emitter is closed */
+  private boolean closed;
+
+  /** reusable buffer to format decimal attribute values into, created on first use */
+  private byte[] decimalFormatBuffer;
+
+  /**
+   * Writer that encodes characters as is (no escaping) into the emitter, closing it closes the emitter's channel
+   */
+  private class EmitterWriter extends Writer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      putRaw(CharBuffer.wrap(cbuf), off, off + len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      putRaw(str, off, off + len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+      putRaw(csq, 0, csq.length());
+      return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+      closeChannel();
+    }
+  }
+
+  /**
+   * Make sure the given number of bytes fits in the buffer, drain or grow when needed
+   *
+   * @param required number of bytes
+   * @throws IOException thrown if error
+   */
+  private void ensureCapacity(int required) throws IOException {
+    if(bytes.length - position >= required) {
+      return;
+    }
+    if(channel != null) {
+      drain();
+    }
+    if(bytes.length - position < required) {
+      byteBuffer = ByteBuffer.allocate(Math.max(bytes.length * 2, position + required));
+      System.arraycopy(bytes, 0, byteBuffer.array(), 0, position);
+      bytes = byteBuffer.array();
+    }
+  }
+
+  /**
+   * Drain the buffer to the channel, if any
+   *
+   * @throws IOException thrown if error
+   */
+  private void drain() throws IOException {
+    if(channel == null || position == 0 || closed) {
+      return;
+    }
+    byteBuffer.clear();
+    byteBuffer.limit(position);
+    while(byteBuffer.hasRemaining()) {
+      channel.write(byteBuffer);
+    }
+    position = 0;
+  }
+
+  /**
+   * Drain the buffer and close the channel, if any. The channel is closed even when draining fails
+   *
+   * @throws IOException thrown if error
+   */
+  private void closeChannel() throws IOException {
+    if(closed) {
+      return;
+    }
+    try {
+      drain();
+    }finally {
+      closed = true;
+      if(channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Put bytes as is
+   *
+   * @param source to put
+   * @param offset to start from
+   * @param length number of bytes
+   * @throws IOException thrown if error
+   */
+  private void putBytes(byte[] source, int offset, int length) throws IOException {
+    if(closed) {
+      throw new IOException("MATSim XML emitter is closed");
+    }
+    ensureCapacity(length);
+    System.arraycopy(source, offset, bytes, position, length);
+    position += length;
+  }
+
+  /**
+   * Put bytes as is
+   *
+   * @param source to put
+   * @throws IOException thrown if error
+   */
+  private void putBytes(byte[] source) throws IOException {
+    putBytes(source, 0, source.length);
+  }
+
+  /**
+   * Put single ASCII byte
+   *
+   * @param b to put
+   * @throws IOException thrown if error
+   */
+  private void putByte(int b) throws IOException {
+    if(closed) {
+      throw new IOException("MATSim XML emitter is closed");
+    }
+    ensureCapacity(1);
+    bytes[position++] = (byte) b;
+  }
+
+  /**
+   * Put a single character encoded as UTF-8, surrogate pairs are combined when the low surrogate is available
+   *
+   * @param c to put
+   * @param source the character was taken from
+   * @param index of c in source
+   * @param end exclusive end of source
+   * @return index of the last character consumed
+   * @throws IOException thrown if error
+   */
+  private int putChar(char c, CharSequence source, int index, int end) throws IOException {
+    if(c < 0x80) {
+      putByte(c);
+    }else if(c < 0x800) {
+      ensureCapacity(2);
+      bytes[position++] = (byte) (0xc0 | (c >> 6));
+      bytes[position++] = (byte) (0x80 | (c & 0x3f));
+    }else if(Character.isHighSurrogate(c) && index + 1 < end && Character.isLowSurrogate(source.charAt(index + 1))) {
+      int codePoint = Character.toCodePoint(c, source.charAt(index + 1));
+      ensureCapacity(4);
+      bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+      bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+      bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      return index + 1;
+    }else if(Character.isSurrogate(c)) {
+      /* malformed, same replacement as the UTF-8 encoder */
+      putByte('?');
+    }else {
+      ensureCapacity(3);
+      bytes[position++] = (byte) (0xe0 | (c >> 12));
+      bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      bytes[position++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return index;
+  }
+
+  /**
+   * Put characters without escaping
+   *
+   * @param source to put
+   * @param start inclusive
+   * @param end exclusive
+   * @throws IOException thrown if error
+   */
+  private void putRaw(CharSequence source, int start, int end) throws IOException {
+    for(int index = start; index < end; ++index) {
+      index = putChar(source.charAt(index), source, index, end);
+    }
+  }
+
+  /**
+   * Put characters escaped in the same way as the JDK StAX writer
+   *
+   * @param source to put
+   * @param start inclusive
+   * @param end exclusive
+   * @param isAttribute when true quotes are escaped as well
+   * @throws IOException thrown if error
+   */
+  private void putEscaped(CharSequence source, int start, int end, boolean isAttribute) throws IOException {
+    for(int index = start; index < end; ++index) {
+      char c = source.charAt(index);
+      switch(c) {
+      case '&':
+        putBytes(AMP);
+        break;
+      case '<':
+        putBytes(LT);
+        break;
+      case '>':
+        putBytes(GT);
+        break;
+      case '"':
+        if(isAttribute) {
+          putBytes(QUOT);
+        }else {
+          putByte(c);
+        }
+        break;
+      default:
+        index = putChar(c, source, index, end);
+      }
+    }
+  }
+
+  /**
+   * Collect UTF-8 encoded name
+   *
+   * @param name to collect
+   * @return encoded name
+   */
+  private byte[] getEncodedName(String name) {
+    byte[] encodedName = encodedNames.get(name);
+    if(encodedName == null) {
+      encodedName = name.getBytes(StandardCharsets.UTF_8);
+      encodedNames.put(name, encodedName);
+    }
+    return encodedName;
+  }
+
+  /**
+   * Close pending start tag, if any
+   *
+   * @throws IOException thrown if error
+   */
+  private void closeStartTag() throws IOException {
+    if(!startTagOpen) {
+      return;
+    }
+    if(emptyElementOpen) {
+      putByte('/');
+      openElements.pollLast();
+    }
+    putByte('>');
+    startTagOpen = false;
+    emptyElementOpen = false;
+  }
+
+  /**
+   * Open a start tag
+   *
+   * @param localName of element
+   * @param isEmpty when true element is empty
+   * @throws XMLStreamException thrown if error
+   */
+  private void openStartTag(String localName, boolean isEmpty) throws XMLStreamException {
+    try {
+      closeStartTag();
+      byte[] encodedName = getEncodedName(localName);
+      putByte('<');
+      putBytes(encodedName);
+      openElements.addLast(encodedName);
+      startTagOpen = true;
+      emptyElementOpen = isEmpty;
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Create exception for unsupported namespace functionality
+   *
+   * @return exception
+   */
+  private static UnsupportedOperationException createNamespacesUnsupportedException() {
+    return new UnsupportedOperationException("MATSim XML emitter does not support namespaces");
+  }
+
+  /**
+   * Verify the namespace URI is the default (empty) namespace, the only namespace supported
+   *
+   * @param namespaceURI to verify
+   * @throws UnsupportedOperationException when not the default namespace
+   */
+  private static void requireDefaultNamespace(String namespaceURI) {
+    if(namespaceURI != null && !namespaceURI.equals(XMLConstants.NULL_NS_URI)) {
+      throw createNamespacesUnsupportedException();
+    }
+  }
+
+  /**
+   * Verify the prefix and namespace URI are the default (empty) prefix and namespace, the only ones supported
+   *
+   * @param prefix to verify
+   * @param namespaceURI to verify
+   * @throws UnsupportedOperationException when not the default prefix or namespace
+   */
+  private static void requireDefaultNamespace(String prefix, String namespaceURI) {
+    if(prefix != null && !prefix.equals(XMLConstants.DEFAULT_NS_PREFIX)) {
+      throw createNamespacesUnsupportedException();
+    }
+    requireDefaultNamespace(namespaceURI);
+  }
+
+  /**
+   * Constructor for in memory emitter
+   */
+  public MatsimXmlEmitter() {
+    this(null, DEFAULT_BUFFER_SIZE / 16);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param channel to drain to
+   */
+  public MatsimXmlEmitter(final WritableByteChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param channel to drain to, when null the emitter is in memory only
+   * @param bufferSize size of the (initial) buffer
+   */
+  public MatsimXmlEmitter(final WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.byteBuffer = ByteBuffer.allocate(Math.max(1024, bufferSize));
+    this.bytes = byteBuffer.array();
+    this.writer = new EmitterWriter();
+  }
+
+  /** Collect writer view on this emitter. Characters written are encoded but not escaped, closing the writer drains the buffer and
+   * closes the channel
+   *
+   * @return writer
+   */
+  public Writer getWriter() {
+    return writer;
+  }
+
+  /**
+   * Append the content written to another (in memory) emitter. Any pending start tags of both emitters are closed first
+   *
+   * @param other to append content of
+   * @throws XMLStreamException thrown if error
+   */
+  public void append(final MatsimXmlEmitter other) throws XMLStreamException {
+    try {
+      closeStartTag();
+      other.closeStartTag();
+      putBytes(other.bytes, 0, other.position);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Append already encoded content as is, for example content previously collected via {@link #toByteArray()}. Any pending start tag is closed first
+   *
+   * @param encoded content to append
+   * @throws XMLStreamException thrown if error
+   */
+  public void appendEncoded(final byte[] encoded) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putBytes(encoded);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Collect a copy of the content written to this (in memory) emitter. Any pending start tag is closed first
+   *
+   * @return encoded content
+   * @throws XMLStreamException thrown if error
+   */
+  public byte[] toByteArray() throws XMLStreamException {
+    if(channel != null) {
+      throw new XMLStreamException("Content of MATSim XML emitter draining to a channel is not retained");
+    }
+    try {
+      closeStartTag();
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+    return Arrays.copyOf(bytes, position);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartElement(String localName) throws XMLStreamException {
+    openStartTag(localName, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+    requireDefaultNamespace(namespaceURI);
+    writeStartElement(localName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    requireDefaultNamespace(prefix, namespaceURI);
+    writeStartElement(localName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+    requireDefaultNamespace(namespaceURI);
+    writeEmptyElement(localName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    requireDefaultNamespace(prefix, namespaceURI);
+    writeEmptyElement(localName);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEmptyElement(String localName) throws XMLStreamException {
+    openStartTag(localName, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEndElement() throws XMLStreamException {
+    try {
+      closeStartTag();
+      byte[] encodedName = openElements.pollLast();
+      if(encodedName == null) {
+        throw new XMLStreamException("No element was found to write end element for");
+      }
+      putByte('<');
+      putByte('/');
+      putBytes(encodedName);
+      putByte('>');
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    try {
+      closeStartTag();
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+    while(!openElements.isEmpty()) {
+      writeEndElement();
+    }
+  }
+
+  /**
+   * Flushes the emitter, the underlying channel is not closed, use the writer for that
+   */
+  @Override
+  public void close() throws XMLStreamException {
+    flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void flush() throws XMLStreamException {
+    try {
+      drain();
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Encode an attribute value as UTF-8 escaped identically to {@link #writeAttribute(String, String)}, so it can be written repeatedly via
+   * {@link #writeEncodedAttribute(String, byte[])} without escaping and encoding it each time
+   *
+   * @param value to encode
+   * @return encoded value
+   */
+  public static byte[] encodeAttributeValue(final String value) {
+    boolean plainAscii = true;
+    for(int index = 0; index < value.length() && plainAscii; ++index) {
+      char c = value.charAt(index);
+      plainAscii = c < 0x80 && c != '&' && c != '<' && c != '>' && c != '"';
+    }
+    if(plainAscii) {
+      return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    MatsimXmlEmitter emitter = new MatsimXmlEmitter(null, 1024);
+    try {
+      emitter.putEscaped(value, 0, value.length(), true);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to encode attribute value in memory", e);
+    }
+    return Arrays.copyOf(emitter.bytes, emitter.position);
+  }
+
+  /**
+   * Write an attribute of which the value has been encoded upfront via {@link #encodeAttributeValue(String)}
+   *
+   * @param localName of the attribute
+   * @param encodedValue encoded attribute value
+   * @throws XMLStreamException thrown if error
+   */
+  public void writeEncodedAttribute(String localName, byte[] encodedValue) throws XMLStreamException {
+    writeEncodedAttribute(localName, encodedValue, 0, encodedValue.length);
+  }
+
+  /**
+   * Write an attribute of which the value is taken from a range of already encoded (and escaped) UTF-8 bytes, for example ASCII digits
+   * formatted into a reusable buffer
+   *
+   * @param localName of the attribute
+   * @param encodedValue buffer with encoded attribute value
+   * @param offset of the value in the buffer
+   * @param length of the value in bytes
+   * @throws XMLStreamException thrown if error
+   */
+  public void writeEncodedAttribute(String localName, byte[] encodedValue, int offset, int length) throws XMLStreamException {
+    if(!startTagOpen) {
+      throw new XMLStreamException("Attribute not associated with any element");
+    }
+    try {
+      putByte(' ');
+      putBytes(getEncodedName(localName));
+      putByte('=');
+      putByte('"');
+      putBytes(encodedValue, offset, length);
+      putByte('"');
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * Write an attribute with a decimal value formatted by the given formatter into a reusable buffer, avoiding the creation of a string
+   *
+   * @param localName of the attribute
+   * @param value to format
+   * @param formatter to format the value with
+   * @throws XMLStreamException thrown if error
+   */
+  public void writeDecimalAttribute(String localName, double value, FixedPrecisionFormatter formatter) throws XMLStreamException {
+    if(decimalFormatBuffer == null) {
+      decimalFormatBuffer = new byte[FixedPrecisionFormatter.MAX_FORMATTED_LENGTH];
+    }
+    int length = formatter.format(value, decimalFormatBuffer, 0);
+    writeEncodedAttribute(localName, decimalFormatBuffer, 0, length);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeAttribute(String localName, String value) throws XMLStreamException {
+    if(!startTagOpen) {
+      throw new XMLStreamException("Attribute not associated with any element");
+    }
+    try {
+      putByte(' ');
+      putBytes(getEncodedName(localName));
+      putByte('=');
+      putByte('"');
+      putEscaped(value, 0, value.length(), true);
+      putByte('"');
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+    requireDefaultNamespace(prefix, namespaceURI);
+    writeAttribute(localName, value);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+    requireDefaultNamespace(namespaceURI);
+    writeAttribute(localName, value);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+    requireDefaultNamespace(prefix, namespaceURI);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+    requireDefaultNamespace(namespaceURI);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeComment(String data) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putRaw("<!--", 0, 4);
+      if(data != null) {
+        putRaw(data, 0, data.length());
+      }
+      putRaw("-->", 0, 3);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeProcessingInstruction(String target) throws XMLStreamException {
+    writeProcessingInstruction(target, null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putRaw("<?", 0, 2);
+      putRaw(target, 0, target.length());
+      if(data != null) {
+        putByte(' ');
+        putRaw(data, 0, data.length());
+      }
+      putRaw("?>", 0, 2);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeCData(String data) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putRaw("<![CDATA[", 0, 9);
+      putRaw(data, 0, data.length());
+      putRaw("]]>", 0, 3);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeDTD(String dtd) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putRaw(dtd, 0, dtd.length());
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeEntityRef(String name) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putByte('&');
+      putRaw(name, 0, name.length());
+      putByte(';');
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartDocument() throws XMLStreamException {
+    try {
+      /* consistent with JDK StAX writer */
+      putRaw("<?xml version=\"1.0\" ?>", 0, 22);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartDocument(String version) throws XMLStreamException {
+    writeStartDocument(null, version);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+    try {
+      String declaration = "<?xml version=\"" + (version == null || version.isEmpty() ? "1.0" : version) + "\"";
+      if(encoding != null && !encoding.isEmpty()) {
+        declaration += " encoding=\"" + encoding + "\"";
+      }
+      declaration += "?>";
+      putRaw(declaration, 0, declaration.length());
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeCharacters(String text) throws XMLStreamException {
+    try {
+      closeStartTag();
+      putEscaped(text, 0, text.length(), false);
+    } catch (IOException e) {
+      throw new XMLStreamException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+    writeCharacters(new String(text, start, len));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getPrefix(String uri) throws XMLStreamException {
+    return uri == null ? null : EMPTY_NAMESPACE_CONTEXT.getPrefix(uri);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setPrefix(String prefix, String uri) throws XMLStreamException {
+    requireDefaultNamespace(prefix, uri);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setDefaultNamespace(String uri) throws XMLStreamException {
+    requireDefaultNamespace(uri);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+    // namespaces are not supported, only the default namespace is ever bound
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return EMPTY_NAMESPACE_CONTEXT;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getProperty(String name) throws IllegalArgumentException {
+    throw new IllegalArgumentException(String.format("Property %s not supported by MATSim XML emitter", name));
+  }
+}
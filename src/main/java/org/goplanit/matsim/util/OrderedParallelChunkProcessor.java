@@ -0,0 +1,208 @@
+package org.goplanit.matsim.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.goplanit.utils.exceptions.PlanItRunTimeException;
+
+/**
+ * Process a list of items in contiguous chunks on a worker pool while handing the results back to the calling thread
+ * in the original chunk order. Only a bounded number of chunks is in flight at any time, so memory consumption is
+ * limited to a few chunk results regardless of the number of items processed. By default each invocation uses its own worker pool, alternatively
+ * a worker pool shared with other processors can be provided, so concurrent processors do not each occupy all available processors.
+ *
+ * @author markr
+ *
+ */
+public class OrderedParallelChunkProcessor {
+
+  /**
+   * Consumer of chunk results, invoked on the calling thread in chunk order
+   *
+   * @param <R> type of chunk result
+   */
+  @FunctionalInterface
+  public interface ChunkConsumer<R> {
+
+    /** Consume the result of a chunk
+     *
+     * @param chunkResult to consume
+     * @throws Exception when error
+     */
+    void accept(R chunkResult) throws Exception;
+  }
+
+  /**
+   * Task processing a contiguous range of indices, invoked on a worker thread
+   *
+   * @param <R> type of chunk result
+   */
+  @FunctionalInterface
+  public interface IntRangeTask<R> {
+
+    /** Process the index range
+     *
+     * @param from first index of the range (inclusive)
+     * @param to last index of the range (exclusive)
+     * @return chunk result
+     */
+    R apply(int from, int to);
+  }
+
+  /** number of chunks allowed in flight per worker thread */
+  private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+  /** number of worker threads */
+  private final int numberOfThreads;
+
+  /** worker pool shared with others, not shut down by this processor, null when each invocation creates its own pool */
+  private final ExecutorService sharedExecutor;
+
+  /**
+   * Create a daemon thread based fixed pool
+   *
+   * @param numberOfThreads of the pool
+   * @param threadNamePrefix to name threads by
+   * @return created executor
+   */
+  private static ExecutorService createExecutor(int numberOfThreads, String threadNamePrefix) {
+    final AtomicInteger threadCounter = new AtomicInteger();
+    return Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+      Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Wait for the chunk to complete and hand it to the consumer
+   *
+   * @param <R> result type
+   * @param future to wait for
+   * @param consumer to hand result to
+   */
+  private static <R> void consume(Future<R> future, ChunkConsumer<R> consumer) {
+    try {
+      consumer.accept(future.get());
+    } catch (ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new PlanItRunTimeException("Error while processing chunk in parallel", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PlanItRunTimeException("Interrupted while processing chunk in parallel", e);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new PlanItRunTimeException("Error while consuming chunk processed in parallel", e);
+    }
+  }
+
+  /** Default number of threads to use, i.e., the number of available processors
+   *
+   * @return default number of threads
+   */
+  public static int getDefaultNumberOfThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /** Create a bounded daemon thread based worker pool that can be shared by processors (and other workers) running concurrently.
+   * The caller is responsible for shutting it down
+   *
+   * @param numberOfThreads of the pool (at least one)
+   * @return created worker pool
+   */
+  public static ExecutorService createSharedExecutor(int numberOfThreads) {
+    return createExecutor(Math.max(1, numberOfThreads), "planit-matsim-worker-");
+  }
+
+  /**
+   * Constructor using default number of threads
+   */
+  public OrderedParallelChunkProcessor() {
+    this(getDefaultNumberOfThreads());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param numberOfThreads to use (at least one)
+   */
+  public OrderedParallelChunkProcessor(int numberOfThreads) {
+    this(null, numberOfThreads);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param sharedExecutor worker pool to process chunks on, not shut down by this processor, when null each invocation creates its own pool
+   * @param numberOfThreads of the shared pool, or to use (at least one) when no shared pool is provided, bounds the number of chunks in flight
+   */
+  public OrderedParallelChunkProcessor(ExecutorService sharedExecutor, int numberOfThreads) {
+    this.sharedExecutor = sharedExecutor;
+    this.numberOfThreads = Math.max(1, numberOfThreads);
+  }
+
+  /**
+   * Process the items in chunks of given size. Each chunk is processed by the chunk function on a worker thread, the results
+   * are consumed on the calling thread in the order of the chunks
+   *
+   * @param <T> type of item
+   * @param <R> type of chunk result
+   * @param items to process
+   * @param chunkSize maximum number of items per chunk
+   * @param chunkFunction applied to each chunk (sublist) on a worker thread, must be thread safe
+   * @param chunkConsumer consuming the chunk results in order on the calling thread
+   */
+  public <T, R> void process(
+      final List<T> items, int chunkSize, final Function<List<T>, R> chunkFunction, final ChunkConsumer<R> chunkConsumer) {
+    process(items.size(), chunkSize, (from, to) -> chunkFunction.apply(items.subList(from, to)), chunkConsumer);
+  }
+
+  /**
+   * Process the indices {@code [0, size)} in contiguous ranges of given size. Each range is processed by the task on a worker thread, the
+   * results are consumed on the calling thread in the order of the ranges
+   *
+   * @param <R> type of chunk result
+   * @param size number of indices to process
+   * @param chunkSize maximum number of indices per range
+   * @param rangeTask applied to each range on a worker thread, must be thread safe
+   * @param chunkConsumer consuming the chunk results in order on the calling thread
+   */
+  public <R> void process(int size, int chunkSize, final IntRangeTask<R> rangeTask, final ChunkConsumer<R> chunkConsumer) {
+    if(size <= 0) {
+      return;
+    }
+    final int theChunkSize = Math.max(1, chunkSize);
+    final int maxInFlight = numberOfThreads * CHUNKS_IN_FLIGHT_PER_THREAD;
+
+    ExecutorService executor = sharedExecutor != null ? sharedExecutor : createExecutor(numberOfThreads, "planit-matsim-chunk-");
+    Deque<Future<R>> inFlight = new ArrayDeque<>(maxInFlight);
+    try {
+      for(int chunkStart = 0; chunkStart < size; chunkStart += theChunkSize) {
+        final int from = chunkStart;
+        final int to = Math.min(size, chunkStart + theChunkSize);
+        if(inFlight.size() >= maxInFlight) {
+          consume(inFlight.pollFirst(), chunkConsumer);
+        }
+        inFlight.addLast(executor.submit(() -> rangeTask.apply(from, to)));
+      }
+      while(!inFlight.isEmpty()) {
+        consume(inFlight.pollFirst(), chunkConsumer);
+      }
+    }finally {
+      inFlight.forEach(future -> future.cancel(true));
+      if(executor != sharedExecutor) {
+        executor.shutdownNow();
+      }
+    }
+  }
+}
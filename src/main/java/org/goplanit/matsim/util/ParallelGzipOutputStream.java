@@ -0,0 +1,330 @@
+package org.goplanit.matsim.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that writes a single gzip member where the data is compressed in independent blocks on a worker pool (pigz style).
+ * Each block is deflated separately and terminated with a sync flush, so the compressed blocks can simply be concatenated into a
+ * valid deflate stream. The last 32KB of the previous block is used as dictionary for the next block, so the compression ratio is
+ * close to that of a regular gzip stream. Only a bounded number of blocks is in flight at any time. Blocks are compressed on a pool owned by the
+ * stream, or on a worker pool shared with other streams and processors running concurrently.
+ * <p>
+ * The resulting file can be read by any gzip compatible reader, e.g., MATSim reads *.xml.gz files natively.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+  /** default (uncompressed) size of the blocks that are compressed independently */
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  /** size of deflate window, used as dictionary size for the next block */
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  /** number of blocks allowed in flight per worker thread */
+  private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 2;
+
+  /** gzip header: magic, deflate, no flags, no mtime, no extra flags, unknown OS */
+  private static final byte[] GZIP_HEADER = {
+      (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  /** compression level to use */
+  private final int compressionLevel;
+
+  /** uncompressed block size */
+  private final int blockSize;
+
+  /** maximum number of blocks in flight */
+  private final int maxInFlight;
+
+  /** pool compressing the blocks */
+  private final ExecutorService executor;
+
+  /** flag indicating the pool is created by (and shut down with) this stream */
+  private final boolean ownsExecutor;
+
+  /** compressed blocks in order of submission */
+  private final Deque<Future<byte[]>> inFlight;
+
+  /** checksum of uncompressed data */
+  private final CRC32 crc = new CRC32();
+
+  /** block being filled */
+  private byte[] currentBlock;
+
+  /** number of bytes in current block */
+  private int currentBlockLength;
+
+  /** previously submitted block, source of dictionary for the next block */
+  private byte[] previousBlock;
+
+  /** number of bytes in previous block */
+  private int previousBlockLength;
+
+  /** total number of uncompressed bytes */
+  private long uncompressedSize;
+
+  /** flag indicating the stream is closed */
+  private boolean closed;
+
+  /**
+   * Deflate a block into raw deflate data
+   *
+   * @param block to compress
+   * @param blockLength number of bytes to compress
+   * @param dictionary to use, may be null
+   * @param dictionaryLength number of dictionary bytes available (the last 32KB are used)
+   * @param finish when true the deflate stream is finished, otherwise it is sync flushed
+   * @return compressed data
+   */
+  private byte[] deflate(byte[] block, int blockLength, byte[] dictionary, int dictionaryLength, boolean finish) {
+    Deflater deflater = new Deflater(compressionLevel, true /* no zlib wrapper */);
+    try {
+      if(dictionary != null && dictionaryLength > 0) {
+        int length = Math.min(DICTIONARY_SIZE, dictionaryLength);
+        deflater.setDictionary(dictionary, dictionaryLength - length, length);
+      }
+      deflater.setInput(block, 0, blockLength);
+
+      byte[] output = new byte[Math.max(64, blockLength / 2)];
+      int outputLength = 0;
+      if(finish) {
+        deflater.finish();
+        while(!deflater.finished()) {
+          if(outputLength == output.length) {
+            output = Arrays.copyOf(output, output.length * 2);
+          }
+          outputLength += deflater.deflate(output, outputLength, output.length - outputLength, Deflater.NO_FLUSH);
+        }
+      }else {
+        /* sync flush is complete when it does not fill the entire available output space */
+        while(true) {
+          if(outputLength == output.length) {
+            output = Arrays.copyOf(output, output.length * 2);
+          }
+          int available = output.length - outputLength;
+          int produced = deflater.deflate(output, outputLength, available, Deflater.SYNC_FLUSH);
+          outputLength += produced;
+          if(produced < available) {
+            break;
+          }
+        }
+      }
+      return outputLength == output.length ? output : Arrays.copyOf(output, outputLength);
+    }finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Write compressed block to underlying stream
+   *
+   * @param future providing the block
+   * @throws IOException thrown if error
+   */
+  private void writeCompressedBlock(Future<byte[]> future) throws IOException {
+    try {
+      out.write(future.get());
+    } catch (ExecutionException e) {
+      throw new IOException("Error while compressing block of gzip stream", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing block of gzip stream", e);
+    }
+  }
+
+  /**
+   * Submit the current block for compression and start a new one
+   *
+   * @param finish when true this is the last block
+   * @throws IOException thrown if error
+   */
+  private void submitCurrentBlock(boolean finish) throws IOException {
+    final byte[] block = currentBlock;
+    final int blockLength = currentBlockLength;
+    final byte[] dictionary = previousBlock;
+    final int dictionaryLength = previousBlockLength;
+
+    crc.update(block, 0, blockLength);
+    uncompressedSize += blockLength;
+
+    while(inFlight.size() >= maxInFlight) {
+      writeCompressedBlock(inFlight.pollFirst());
+    }
+    inFlight.addLast(executor.submit(() -> deflate(block, blockLength, dictionary, dictionaryLength, finish)));
+
+    previousBlock = block;
+    previousBlockLength = blockLength;
+    currentBlock = finish ? null : new byte[blockSize];
+    currentBlockLength = 0;
+  }
+
+  /**
+   * Write value in little endian order
+   *
+   * @param value to write
+   * @throws IOException thrown if error
+   */
+  private void writeIntLittleEndian(int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+    out.write((value >>> 16) & 0xff);
+    out.write((value >>> 24) & 0xff);
+  }
+
+  /**
+   * Verify stream is open
+   *
+   * @throws IOException thrown if closed
+   */
+  private void ensureOpen() throws IOException {
+    if(closed) {
+      throw new IOException("Parallel gzip output stream is closed");
+    }
+  }
+
+  /**
+   * Constructor using default block size, compression level and number of threads
+   *
+   * @param out stream to write compressed data to
+   * @throws IOException thrown if error
+   */
+  public ParallelGzipOutputStream(final OutputStream out) throws IOException {
+    this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, OrderedParallelChunkProcessor.getDefaultNumberOfThreads());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param out stream to write compressed data to
+   * @param compressionLevel deflate compression level to use
+   * @param blockSize uncompressed size of the blocks that are compressed in parallel
+   * @param numberOfThreads number of threads to compress with
+   * @throws IOException thrown if error
+   */
+  public ParallelGzipOutputStream(final OutputStream out, int compressionLevel, int blockSize, int numberOfThreads) throws IOException {
+    this(out, compressionLevel, blockSize, numberOfThreads, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param out stream to write compressed data to
+   * @param compressionLevel deflate compression level to use
+   * @param blockSize uncompressed size of the blocks that are compressed in parallel
+   * @param numberOfThreads number of threads to compress with, i.e., of the shared pool when provided, bounds the number of blocks in flight
+   * @param sharedExecutor pool to compress on, not shut down by this stream, when null the stream creates its own pool
+   * @throws IOException thrown if error
+   */
+  public ParallelGzipOutputStream(
+      final OutputStream out, int compressionLevel, int blockSize, int numberOfThreads, ExecutorService sharedExecutor) throws IOException {
+    super(out);
+    this.compressionLevel = compressionLevel;
+    this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+    final int theNumberOfThreads = Math.max(1, numberOfThreads);
+    this.maxInFlight = theNumberOfThreads * BLOCKS_IN_FLIGHT_PER_THREAD;
+    this.inFlight = new ArrayDeque<>(maxInFlight);
+
+    this.ownsExecutor = sharedExecutor == null;
+    if(ownsExecutor) {
+      final AtomicInteger threadCounter = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(theNumberOfThreads, runnable -> {
+        Thread thread = new Thread(runnable, "planit-matsim-gzip-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }else {
+      this.executor = sharedExecutor;
+    }
+
+    this.currentBlock = new byte[this.blockSize];
+    out.write(GZIP_HEADER);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    currentBlock[currentBlockLength++] = (byte) b;
+    if(currentBlockLength == blockSize) {
+      submitCurrentBlock(false);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while(len > 0) {
+      int length = Math.min(len, blockSize - currentBlockLength);
+      System.arraycopy(b, off, currentBlock, currentBlockLength, length);
+      currentBlockLength += length;
+      off += length;
+      len -= length;
+      if(currentBlockLength == blockSize) {
+        submitCurrentBlock(false);
+      }
+    }
+  }
+
+  /**
+   * Writes all blocks that completed compression to the underlying stream. The partially filled current block is not flushed, since
+   * that would degrade the compression ratio
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    while(!inFlight.isEmpty() && inFlight.peekFirst().isDone()) {
+      writeCompressedBlock(inFlight.pollFirst());
+    }
+    out.flush();
+  }
+
+  /**
+   * Compress remaining data, write the gzip trailer and close the underlying stream
+   *
+   * @throws IOException thrown if error
+   */
+  @Override
+  public void close() throws IOException {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    try {
+      submitCurrentBlock(true);
+      while(!inFlight.isEmpty()) {
+        writeCompressedBlock(inFlight.pollFirst());
+      }
+      writeIntLittleEndian((int) crc.getValue());
+      writeIntLittleEndian((int) uncompressedSize);
+      out.flush();
+    }finally {
+      inFlight.forEach(future -> future.cancel(true));
+      if(ownsExecutor) {
+        executor.shutdownNow();
+      }
+      out.close();
+    }
+  }
+}
@@ -281,6 +281,17 @@ public abstract class PlanitMatsimWriterModeMappingSettings extends PlanitMatsim
     return modeToMatsimMapping;
   }
 
+  /**
+   * Same as {@link #collectActivatedPlanitModeToMatsimModeMapping(MacroscopicNetworkLayerImpl)} except that each activated mode is
+   * assigned a bit, allowing the (activated) allowed modes of a link segment to be resolved via a mode mask
+   *
+   * @param networkLayer the networkLayer
+   * @return the mapped PLANit mode instances to MATSIM modes including their mode mask bits
+   */
+  public MatsimModeMaskMapping collectActivatedPlanitModeToMatsimModeMaskMapping(MacroscopicNetworkLayerImpl networkLayer) {
+    return new MatsimModeMaskMapping(collectActivatedPlanitModeToMatsimModeMapping(networkLayer));
+  }
+
 
   /**
    * {@inheritDoc}
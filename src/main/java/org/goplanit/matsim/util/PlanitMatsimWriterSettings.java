@@ -22,6 +22,31 @@ public abstract class PlanitMatsimWriterSettings extends SingleFileBasedConverte
    */
   protected DecimalFormat decimalFormat = Precision.DEFAULT_DECIMAL_FORMAT;
 
+  /**
+   * thread safe formatter consistent with the decimal format, used by the writers
+   */
+  protected FixedPrecisionFormatter decimalFormatter = FixedPrecisionFormatter.of(decimalFormat);
+
+  /**
+   * when true, XML output files are gzip compressed (*.xml.gz), default is false
+   */
+  protected boolean compressOutput = DEFAULT_COMPRESS_OUTPUT;
+
+  /**
+   * default for compressing XML output files
+   */
+  public static final boolean DEFAULT_COMPRESS_OUTPUT = false;
+
+  /**
+   * when true, XML output files are written with the direct UTF-8 emitter rather than StAX, default is false
+   */
+  protected boolean directXmlEmitter = DEFAULT_DIRECT_XML_EMITTER;
+
+  /**
+   * default for using the direct XML emitter
+   */
+  public static final boolean DEFAULT_DIRECT_XML_EMITTER = false;
+
   /**
    * default names used for MATSIM public transport schedule file that is being generated
    */
@@ -32,6 +57,16 @@ public abstract class PlanitMatsimWriterSettings extends SingleFileBasedConverte
    */
   public static final String DEFAULT_NETWORK_FILE_NAME = "output_network";
 
+  /**
+   * default extension for xml files generated
+   */
+  public static final String DEFAULT_FILE_NAME_EXTENSION = ".xml";
+
+  /**
+   * extension for gzip compressed xml files generated
+   */
+  public static final String COMPRESSED_FILE_NAME_EXTENSION = ".xml.gz";
+
   /**
    * Default constructor 
    */
@@ -64,5 +99,57 @@ public abstract class PlanitMatsimWriterSettings extends SingleFileBasedConverte
    */
   public void setDecimalFormat(DecimalFormat decimalFormat) {
     this.decimalFormat = decimalFormat;
+    this.decimalFormatter = FixedPrecisionFormatter.of(decimalFormat);
+  }
+
+  /** Collect the thread safe formatter consistent with the decimal format used in writing coordinates. It reflects the decimal
+   * format at the time it was set, subsequent changes to the decimal format instance itself are not reflected
+   *
+   * @return decimal formatter used
+   */
+  public FixedPrecisionFormatter getDecimalFormatter() {
+    return decimalFormatter;
+  }
+
+  /** Verify if XML output files are gzip compressed
+   *
+   * @return true when compressed, false otherwise
+   */
+  public boolean isCompressOutput() {
+    return compressOutput;
+  }
+
+  /** Set whether XML output files are gzip compressed (*.xml.gz). MATSim reads gzip compressed files natively. Compression is
+   * performed in parallel blocks
+   *
+   * @param compressOutput when true compress, otherwise do not
+   */
+  public void setCompressOutput(boolean compressOutput) {
+    this.compressOutput = compressOutput;
+  }
+
+  /** Verify if XML output files are written with the direct UTF-8 emitter rather than StAX
+   *
+   * @return true when direct emitter is used, false otherwise
+   */
+  public boolean isDirectXmlEmitter() {
+    return directXmlEmitter;
+  }
+
+  /** Set whether XML output files are written with the direct UTF-8 emitter which writes encoded bytes straight into a buffer that
+   * is drained to the file, rather than via StAX. Output is identical, but writing is considerably faster
+   *
+   * @param directXmlEmitter when true use direct emitter, otherwise use StAX
+   */
+  public void setDirectXmlEmitter(boolean directXmlEmitter) {
+    this.directXmlEmitter = directXmlEmitter;
+  }
+
+  /** Collect the file name extension of the XML output file, depends on whether output is compressed
+   *
+   * @return file name extension
+   */
+  public String getXmlFileNameExtension() {
+    return isCompressOutput() ? COMPRESSED_FILE_NAME_EXTENSION : DEFAULT_FILE_NAME_EXTENSION;
   }
 }
@@ -0,0 +1,188 @@
+package org.goplanit.matsim.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.goplanit.utils.misc.Pair;
+import org.goplanit.utils.network.layer.physical.Node;
+import org.locationtech.jts.geom.Point;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Node positions transformed to the destination CRS, stored in a primitive array indexed by node id. All positions are transformed
+ * upfront in batches via a single {@link MathTransform#transform(double[], int, double[], int, int)} call per batch, where batches are
+ * transformed in parallel for large networks. Nodes without a position, or whose position could not be transformed, have no coordinate.
+ * <p>
+ * Instances are immutable and therefore thread safe once created.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class TransformedNodeCoordinates {
+
+  /** logger to use */
+  private static final Logger LOGGER = Logger.getLogger(TransformedNodeCoordinates.class.getCanonicalName());
+
+  /** number of nodes transformed per batch */
+  public static final int DEFAULT_BATCH_SIZE = 1 << 16;
+
+  /** x,y coordinates interleaved, indexed by 2 * node id, NaN when absent */
+  private final double[] coordinates;
+
+  /**
+   * Transform a batch of nodes
+   *
+   * @param nodes to transform positions of
+   * @param transformer to use, may be null
+   * @return transformed x,y coordinates interleaved in order of nodes
+   */
+  private static double[] transformBatch(final List<? extends Node> nodes, final MathTransform transformer) {
+    double[] batch = new double[2 * nodes.size()];
+    int index = 0;
+    for(Node node : nodes) {
+      Point position = node.getPosition();
+      batch[index++] = position.getX();
+      batch[index++] = position.getY();
+    }
+    if(transformer == null) {
+      return batch;
+    }
+
+    double[] transformed = new double[batch.length];
+    try {
+      transformer.transform(batch, 0, transformed, 0, nodes.size());
+    }catch(TransformException e) {
+      /* retry point by point, so only the offending positions are discarded */
+      for(int nodeIndex = 0; nodeIndex < nodes.size(); ++nodeIndex) {
+        try {
+          transformer.transform(batch, 2 * nodeIndex, transformed, 2 * nodeIndex, 1);
+        }catch(TransformException pointException) {
+          transformed[2 * nodeIndex] = Double.NaN;
+          transformed[2 * nodeIndex + 1] = Double.NaN;
+        }
+      }
+    }
+    return transformed;
+  }
+
+  /**
+   * Store a transformed batch in the node id indexed coordinates
+   *
+   * @param coordinates to store in
+   * @param nodes of the batch
+   * @param batch transformed x,y coordinates interleaved in order of nodes
+   */
+  private static void storeBatch(final double[] coordinates, final List<? extends Node> nodes, final double[] batch) {
+    int index = 0;
+    for(Node node : nodes) {
+      coordinates[(int) (2 * node.getId())] = batch[index++];
+      coordinates[(int) (2 * node.getId() + 1)] = batch[index++];
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param coordinates interleaved by node id
+   */
+  private TransformedNodeCoordinates(final double[] coordinates) {
+    this.coordinates = coordinates;
+  }
+
+  /**
+   * Verify if the batch transformation supports the given transformer
+   *
+   * @param transformer to verify, may be null
+   * @return true when supported, false otherwise
+   */
+  public static boolean isSupported(final MathTransform transformer) {
+    return transformer == null || (transformer.getSourceDimensions() == 2 && transformer.getTargetDimensions() == 2);
+  }
+
+  /**
+   * Transform the positions of all given nodes using the default batch size
+   *
+   * @param nodes to transform positions of
+   * @param transformer to use, null when positions are to be used as is
+   * @param chunkProcessor to transform batches in parallel with
+   * @return created transformed node coordinates
+   */
+  public static TransformedNodeCoordinates create(
+      final Iterable<? extends Node> nodes, final MathTransform transformer, final OrderedParallelChunkProcessor chunkProcessor) {
+    return create(nodes, transformer, DEFAULT_BATCH_SIZE, chunkProcessor);
+  }
+
+  /**
+   * Transform the positions of all given nodes
+   *
+   * @param nodes to transform positions of
+   * @param transformer to use, null when positions are to be used as is, must be two dimensional, see {@link #isSupported(MathTransform)}
+   * @param batchSize number of nodes per batch
+   * @param chunkProcessor to transform batches in parallel with
+   * @return created transformed node coordinates
+   */
+  public static TransformedNodeCoordinates create(
+      final Iterable<? extends Node> nodes, final MathTransform transformer, int batchSize, final OrderedParallelChunkProcessor chunkProcessor) {
+    if(!isSupported(transformer)) {
+      throw new IllegalArgumentException("Batch transformation of node coordinates only supports two dimensional transformations");
+    }
+
+    List<Node> nodesWithPosition = new ArrayList<>();
+    long maxNodeId = -1;
+    for(Node node : nodes) {
+      if(node.getPosition() != null) {
+        nodesWithPosition.add(node);
+        maxNodeId = Math.max(maxNodeId, node.getId());
+      }
+    }
+
+    final double[] coordinates = new double[Math.toIntExact(2 * (maxNodeId + 1))];
+    Arrays.fill(coordinates, Double.NaN);
+
+    if(nodesWithPosition.size() <= batchSize) {
+      storeBatch(coordinates, nodesWithPosition, transformBatch(nodesWithPosition, transformer));
+    }else {
+      chunkProcessor.process(
+          nodesWithPosition, batchSize, 
+          batch -> Pair.of(batch, transformBatch(batch, transformer)), 
+          transformedBatch -> storeBatch(coordinates, transformedBatch.first(), transformedBatch.second()));
+    }
+
+    LOGGER.fine(String.format("Transformed %d node positions in batches of %d", nodesWithPosition.size(), batchSize));
+    return new TransformedNodeCoordinates(coordinates);
+  }
+
+  /**
+   * Verify if a transformed coordinate is available for the node
+   *
+   * @param nodeId to verify
+   * @return true when available, false otherwise
+   */
+  public boolean hasCoordinate(long nodeId) {
+    return nodeId >= 0 && 2 * nodeId < coordinates.length && !Double.isNaN(coordinates[(int) (2 * nodeId)]);
+  }
+
+  /**
+   * Collect transformed x coordinate, only valid when {@link #hasCoordinate(long)} is true
+   *
+   * @param nodeId to collect for
+   * @return x coordinate
+   */
+  public double getX(long nodeId) {
+    return coordinates[(int) (2 * nodeId)];
+  }
+
+  /**
+   * Collect transformed y coordinate, only valid when {@link #hasCoordinate(long)} is true
+   *
+   * @param nodeId to collect for
+   * @return y coordinate
+   */
+  public double getY(long nodeId) {
+    return coordinates[(int) (2 * nodeId + 1)];
+  }
+}
@@ -0,0 +1,132 @@
+package org.goplanit.matsim.converter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test cases verifying the free flow shortest path trees of the graph used for the matrix based pt router files on a small hand built
+ * network. Located in the converter package, because the graph is package-private.
+ * <p>
+ * The network has nodes 0 to 4 and link segments (length m, free speed m/s):
+ * <ul>
+ * <li>0-1 (100, 10), i.e., 10 s</li>
+ * <li>0-2 (50, 1), i.e., 50 s, the shorter but slower path to node 2</li>
+ * <li>1-2 (100, 10), i.e., 10 s</li>
+ * <li>2-3 (10, 10), i.e., 1 s</li>
+ * <li>3-0 (10, 0), excluded due to its lack of free speed</li>
+ * </ul>
+ * Node 4 is not connected.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class MatsimShortestPathGraphTest {
+
+  /** allowed difference in travel times and distances */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * Create the hand built graph
+   *
+   * @param travelTimeFactor to apply
+   * @return graph
+   */
+  private static MatsimShortestPathGraph createGraph(double travelTimeFactor) {
+    return MatsimShortestPathGraph.create(
+        5,
+        new int[] {0, 0, 1, 2, 3},
+        new int[] {1, 2, 2, 3, 0},
+        new double[] {100, 50, 100, 10, 10},
+        new double[] {10, 1, 10, 10, 0},
+        travelTimeFactor);
+  }
+
+  /**
+   * Collect the settled nodes of the current tree, sorted
+   *
+   * @param search to collect from
+   * @return settled nodes
+   */
+  private static int[] collectSettledNodes(MatsimShortestPathGraph.Search search) {
+    int[] settledNodes = new int[search.getNumberOfSettledNodes()];
+    for(int settledIndex = 0; settledIndex < settledNodes.length; ++settledIndex) {
+      settledNodes[settledIndex] = search.getSettledNode(settledIndex);
+    }
+    Arrays.sort(settledNodes);
+    return settledNodes;
+  }
+
+  /**
+   * Only link segments with a positive free speed are part of the graph
+   */
+  @Test
+  public void testGraphStructure() {
+    var graph = createGraph(1.0);
+    assertEquals(5, graph.getNumberOfNodes());
+    assertEquals(4, graph.getNumberOfEdges());
+  }
+
+  /**
+   * Travel times and distances are those of the fastest path. Node 2 is reached first via the slow direct link segment and improved afterwards,
+   * so its outdated heap entry has to be skipped (lazy deletion) rather than settling the node twice
+   */
+  @Test
+  public void testFastestPathTree() {
+    var search = createGraph(1.0).createSearch();
+    search.computeTree(0);
+
+    assertEquals(4, search.getNumberOfSettledNodes());
+    assertEquals(0, search.getSettledNode(0));
+    assertArrayEquals(new int[] {0, 1, 2, 3}, collectSettledNodes(search));
+    assertEquals(0, search.getTravelTimeSeconds(0), EPSILON);
+    assertEquals(10, search.getTravelTimeSeconds(1), EPSILON);
+    assertEquals(20, search.getTravelTimeSeconds(2), EPSILON);
+    assertEquals(21, search.getTravelTimeSeconds(3), EPSILON);
+    assertEquals(100, search.getDistanceMeters(1), EPSILON);
+    assertEquals(200, search.getDistanceMeters(2), EPSILON);
+    assertEquals(210, search.getDistanceMeters(3), EPSILON);
+
+    /* excluded link segment 3-0 means nothing but node 3 is reachable from 3 */
+    search.computeTree(3);
+    assertEquals(1, search.getNumberOfSettledNodes());
+    assertEquals(3, search.getSettledNode(0));
+  }
+
+  /**
+   * The travel time factor scales travel times, but not distances nor the fastest paths
+   */
+  @Test
+  public void testTravelTimeFactor() {
+    var search = createGraph(1.5).createSearch();
+    search.computeTree(0);
+
+    assertEquals(15, search.getTravelTimeSeconds(1), EPSILON);
+    assertEquals(30, search.getTravelTimeSeconds(2), EPSILON);
+    assertEquals(31.5, search.getTravelTimeSeconds(3), EPSILON);
+    assertEquals(200, search.getDistanceMeters(2), EPSILON);
+    assertEquals(210, search.getDistanceMeters(3), EPSILON);
+  }
+
+  /**
+   * Bounded trees only settle nodes within the bounds, and a search can be reused for subsequent trees
+   */
+  @Test
+  public void testBoundedTrees() {
+    var search = createGraph(1.0).createSearch();
+
+    search.computeTree(0, 15, Double.POSITIVE_INFINITY);
+    assertArrayEquals(new int[] {0, 1}, collectSettledNodes(search));
+
+    search.computeTree(0, Double.POSITIVE_INFINITY, 205);
+    assertArrayEquals(new int[] {0, 1, 2}, collectSettledNodes(search));
+    assertEquals(200, search.getDistanceMeters(2), EPSILON);
+
+    search.computeTree(0);
+    assertEquals(4, search.getNumberOfSettledNodes());
+  }
+}
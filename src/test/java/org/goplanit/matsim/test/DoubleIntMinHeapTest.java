@@ -0,0 +1,83 @@
+package org.goplanit.matsim.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.goplanit.matsim.util.DoubleIntMinHeap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test cases verifying the primitive min heap used by the shortest path searches
+ *
+ * @author markr
+ *
+ */
+public class DoubleIntMinHeapTest {
+
+  /**
+   * Entries are polled in order of their keys, including duplicate keys and beyond the initial capacity
+   */
+  @Test
+  public void testPollOrder() {
+    Random random = new Random(42);
+    double[] keys = new double[1000];
+    var heap = new DoubleIntMinHeap(4);
+    for(int index = 0; index < keys.length; ++index) {
+      keys[index] = random.nextInt(100) / 4.0;
+      heap.push(keys[index], index);
+    }
+    assertEquals(keys.length, heap.size());
+
+    Arrays.sort(keys);
+    for(double key : keys) {
+      assertFalse(heap.isEmpty());
+      assertEquals(key, heap.peekKey());
+      heap.pop();
+    }
+    assertTrue(heap.isEmpty());
+  }
+
+  /**
+   * The value is the one pushed with the smallest key, and entries pushed again for the same value with a different key are retained
+   * as separate entries, i.e., they are to be skipped by the user when outdated (lazy deletion)
+   */
+  @Test
+  public void testValuesAndLazyDeletion() {
+    var heap = new DoubleIntMinHeap(8);
+    heap.push(50, 2);
+    heap.push(10, 1);
+    heap.push(20, 2);
+    assertEquals(3, heap.size());
+
+    assertEquals(1, heap.peekValue());
+    heap.pop();
+    assertEquals(20, heap.peekKey());
+    assertEquals(2, heap.peekValue());
+    heap.pop();
+    assertEquals(50, heap.peekKey());
+    assertEquals(2, heap.peekValue());
+    heap.pop();
+    assertTrue(heap.isEmpty());
+  }
+
+  /**
+   * Clearing removes all entries after which the heap can be reused
+   */
+  @Test
+  public void testClear() {
+    var heap = new DoubleIntMinHeap(2);
+    heap.push(3, 3);
+    heap.push(1, 1);
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertEquals(0, heap.size());
+
+    heap.push(2, 7);
+    assertEquals(7, heap.peekValue());
+    assertEquals(1, heap.size());
+  }
+}
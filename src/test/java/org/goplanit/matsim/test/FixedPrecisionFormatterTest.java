@@ -0,0 +1,81 @@
+package org.goplanit.matsim.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.DecimalFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import org.goplanit.matsim.util.FixedPrecisionFormatter;
+import org.goplanit.utils.math.Precision;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test cases verifying the fixed precision formatter reproduces the formatting used originally by the MATSim writers
+ *
+ * @author markr
+ *
+ */
+public class FixedPrecisionFormatterTest {
+
+  /** values that are known to be challenging due to (near) ties and special cases */
+  private static final double[] SPECIAL_VALUES = {
+      0.0, -0.0, 0.5, 1.5, 2.5, 0.125, 12.345, 1.005, 2.675, 0.045, -0.001, -0.005, 5e-9, 1.5e-8, 1e15, 1e20, -1e20,
+      1579695.3239685, -3922232.65142029, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+  /**
+   * Create test values, both special and random with magnitudes typical of lengths, speeds and projected coordinates
+   *
+   * @return values
+   */
+  private static double[] createTestValues() {
+    Random random = new Random(42);
+    double[] values = new double[SPECIAL_VALUES.length + 200000];
+    System.arraycopy(SPECIAL_VALUES, 0, values, 0, SPECIAL_VALUES.length);
+    for(int index = SPECIAL_VALUES.length; index < values.length; ++index) {
+      switch(index % 4) {
+      case 0:
+        values[index] = (random.nextDouble() - 0.5) * 1e7;
+        break;
+      case 1:
+        values[index] = random.nextInt(2000000) / 200.0;
+        break;
+      case 2:
+        values[index] = Math.round(random.nextDouble() * 1e14) / 1e8 + 5e-9;
+        break;
+      default:
+        values[index] = Double.longBitsToDouble(random.nextLong());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Formatter must match String.format for the fixed decimals used on MATSim links
+   */
+  @Test
+  public void testFixedDecimalsConsistentWithStringFormat() {
+    for(double value : createTestValues()) {
+      assertEquals(String.format(Locale.ROOT, "%.1f", value), FixedPrecisionFormatter.ONE_DECIMAL.format(value));
+      assertEquals(String.format(Locale.ROOT, "%.2f", value), FixedPrecisionFormatter.TWO_DECIMALS.format(value));
+    }
+  }
+
+  /**
+   * Formatter must match the decimal format used for coordinates, including when written to a reusable byte buffer
+   */
+  @Test
+  public void testConsistentWithDecimalFormat() {
+    byte[] buffer = new byte[FixedPrecisionFormatter.MAX_FORMATTED_LENGTH];
+    for(DecimalFormat decimalFormat : new DecimalFormat[] {Precision.DEFAULT_DECIMAL_FORMAT, new DecimalFormat("#.##"), new DecimalFormat("#,##0.00")}) {
+      FixedPrecisionFormatter formatter = FixedPrecisionFormatter.of(decimalFormat);
+      for(double value : createTestValues()) {
+        String expected = decimalFormat.format(value);
+        assertEquals(expected, formatter.format(value));
+        if(expected.chars().allMatch(c -> c < 128)) {
+          assertEquals(expected, new String(buffer, 0, formatter.format(value, buffer, 0)));
+        }
+      }
+    }
+  }
+}
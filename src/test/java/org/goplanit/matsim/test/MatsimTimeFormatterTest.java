@@ -0,0 +1,95 @@
+package org.goplanit.matsim.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.goplanit.matsim.util.MatsimTimeFormatter;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test cases verifying the MATSim time formatter formats times in seconds as HH:mm:ss, including times past midnight, identical to
+ * the String.format based formatting it replaces
+ *
+ * @author markr
+ *
+ */
+public class MatsimTimeFormatterTest {
+
+  /** times that are known to be challenging, i.e., boundaries of a day, times past midnight and times of 100 hours or more */
+  private static final int[] SPECIAL_TIMES = {
+      0, 1, 59, 60, 3599, 3600, 86399, 86400, 91800, 359999, 360000, 363599, 3600000, Integer.MAX_VALUE};
+
+  /**
+   * Format the time via String.format as the reference
+   *
+   * @param timeSeconds to format
+   * @return formatted time
+   */
+  private static String referenceFormat(int timeSeconds) {
+    return String.format(Locale.ROOT, "%02d:%02d:%02d", timeSeconds / 3600, (timeSeconds % 3600) / 60, timeSeconds % 60);
+  }
+
+  /**
+   * Create test values, both special and random, the latter mostly within the first two days
+   *
+   * @return values
+   */
+  private static int[] createTestValues() {
+    Random random = new Random(42);
+    int[] values = Arrays.copyOf(SPECIAL_TIMES, SPECIAL_TIMES.length + 100000);
+    for(int index = SPECIAL_TIMES.length; index < values.length; ++index) {
+      values[index] = index % 10 == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(2 * 86400);
+    }
+    return values;
+  }
+
+  /**
+   * Times within a day, at midnight and past midnight must be formatted with two digit hours that do not wrap
+   */
+  @Test
+  public void testFormatKnownTimes() {
+    assertEquals("00:00:00", MatsimTimeFormatter.format(0));
+    assertEquals("23:59:59", MatsimTimeFormatter.format(86399));
+    assertEquals("24:00:00", MatsimTimeFormatter.format(86400));
+    assertEquals("25:30:00", MatsimTimeFormatter.format(91800));
+    assertEquals("99:59:59", MatsimTimeFormatter.format(359999));
+    assertEquals("100:00:00", MatsimTimeFormatter.format(360000));
+    assertEquals("1000:00:00", MatsimTimeFormatter.format(3600000));
+    assertEquals("596523:14:07", MatsimTimeFormatter.format(Integer.MAX_VALUE));
+  }
+
+  /**
+   * The String, byte buffer and char buffer overloads must all match String.format, also when writing at an offset
+   */
+  @Test
+  public void testConsistentWithStringFormat() {
+    final int offset = 3;
+    byte[] byteBuffer = new byte[offset + MatsimTimeFormatter.MAX_FORMATTED_LENGTH];
+    char[] charBuffer = new char[offset + MatsimTimeFormatter.MAX_FORMATTED_LENGTH];
+    for(int timeSeconds : createTestValues()) {
+      String expected = referenceFormat(timeSeconds);
+      assertEquals(expected, MatsimTimeFormatter.format(timeSeconds));
+
+      int length = MatsimTimeFormatter.format(timeSeconds, byteBuffer, offset);
+      assertEquals(expected, new String(byteBuffer, offset, length, StandardCharsets.US_ASCII));
+
+      length = MatsimTimeFormatter.format(timeSeconds, charBuffer, offset);
+      assertEquals(expected, new String(charBuffer, offset, length));
+    }
+  }
+
+  /**
+   * Negative times cannot be formatted
+   */
+  @Test
+  public void testNegativeTimeRejected() {
+    assertThrows(IllegalArgumentException.class, () -> MatsimTimeFormatter.format(-1));
+    assertThrows(IllegalArgumentException.class, () -> MatsimTimeFormatter.format(-1, new byte[MatsimTimeFormatter.MAX_FORMATTED_LENGTH], 0));
+    assertThrows(IllegalArgumentException.class, () -> MatsimTimeFormatter.format(-1, new char[MatsimTimeFormatter.MAX_FORMATTED_LENGTH], 0));
+  }
+}
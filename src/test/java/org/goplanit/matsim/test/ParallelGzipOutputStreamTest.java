@@ -0,0 +1,135 @@
+package org.goplanit.matsim.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.goplanit.matsim.util.ParallelGzipOutputStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test cases verifying the output of the parallel gzip output stream can be read back by a regular gzip reader
+ *
+ * @author markr
+ *
+ */
+public class ParallelGzipOutputStreamTest {
+
+  /** smallest supported block size, used so multiple blocks are created with little data */
+  private static final int BLOCK_SIZE = 32 * 1024;
+
+  /** number of compression threads */
+  private static final int NUMBER_OF_THREADS = 2;
+
+  /**
+   * Create compressible test data, i.e., XML like lines with varying numbers
+   *
+   * @param length of the data
+   * @return data
+   */
+  private static byte[] createTestData(int length) {
+    Random random = new Random(42);
+    byte[] data = new byte[length];
+    StringBuilder line = new StringBuilder();
+    int index = 0;
+    while(index < length) {
+      line.setLength(0);
+      line.append("<link id=\"").append(random.nextInt(100000)).append("\" length=\"").append(random.nextInt(10000) / 100.0).append("\"/>\n");
+      for(int charIndex = 0; charIndex < line.length() && index < length; ++charIndex) {
+        data[index++] = (byte) line.charAt(charIndex);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Compress the data, written in pieces of the given size
+   *
+   * @param data to compress
+   * @param writeSize number of bytes per write, when one the single byte write is used
+   * @return compressed data
+   * @throws IOException thrown if error
+   */
+  private static byte[] compress(byte[] data, int writeSize) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try(var gzipStream = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, NUMBER_OF_THREADS)) {
+      for(int offset = 0; offset < data.length; offset += writeSize) {
+        if(writeSize == 1) {
+          gzipStream.write(data[offset]);
+        }else {
+          gzipStream.write(data, offset, Math.min(writeSize, data.length - offset));
+        }
+      }
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Decompress the data with a regular gzip reader
+   *
+   * @param compressed data
+   * @return decompressed data
+   * @throws IOException thrown if error
+   */
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    try(InputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return gzipStream.readAllBytes();
+    }
+  }
+
+  /**
+   * Compress and decompress data of the given length and verify it is unchanged
+   *
+   * @param length of the data
+   * @param writeSize number of bytes per write
+   * @throws IOException thrown if error
+   */
+  private static void assertRoundTrip(int length, int writeSize) throws IOException {
+    byte[] data = createTestData(length);
+    assertArrayEquals(data, decompress(compress(data, writeSize)));
+  }
+
+  /**
+   * An empty stream yields a valid, empty, gzip file
+   */
+  @Test
+  public void testEmptyStream() throws IOException {
+    assertRoundTrip(0, 1);
+  }
+
+  /**
+   * Data shorter than a single block
+   */
+  @Test
+  public void testShorterThanBlock() throws IOException {
+    assertRoundTrip(1, 1);
+    assertRoundTrip(1000, 100);
+    assertRoundTrip(BLOCK_SIZE - 1, 4096);
+  }
+
+  /**
+   * Data spanning multiple blocks, including data ending exactly on and just beyond a block boundary and writes spanning blocks
+   */
+  @Test
+  public void testMultipleBlocks() throws IOException {
+    assertRoundTrip(BLOCK_SIZE, 4096);
+    assertRoundTrip(BLOCK_SIZE + 1, 4096);
+    assertRoundTrip(3 * BLOCK_SIZE, BLOCK_SIZE);
+    assertRoundTrip(20 * BLOCK_SIZE + 12345, 7919);
+    assertRoundTrip(10 * BLOCK_SIZE + 1, 10 * BLOCK_SIZE + 1);
+  }
+
+  /**
+   * Data written byte by byte across multiple blocks
+   */
+  @Test
+  public void testSingleByteWrites() throws IOException {
+    assertRoundTrip(3 * BLOCK_SIZE + 17, 1);
+  }
+}
@@ -4,6 +4,10 @@ import org.goplanit.converter.intermodal.IntermodalConverterFactory;
 import org.goplanit.io.converter.intermodal.PlanitIntermodalReaderFactory;
 import org.goplanit.logging.Logging;
 import org.goplanit.matsim.converter.MatsimIntermodalWriterFactory;
+import org.goplanit.matsim.converter.MatsimIntermodalWriterSettings;
+import org.goplanit.matsim.converter.MatsimNetworkWriter;
+import org.goplanit.matsim.converter.MatsimNetworkWriterSettings;
+import org.goplanit.matsim.converter.MatsimWriter;
 import org.goplanit.matsim.util.MatsimAssertionUtils;
 import org.goplanit.utils.id.IdGenerator;
 import org.goplanit.utils.locale.CountryNames;
@@ -12,9 +16,19 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -32,6 +46,57 @@ public class SydneyPlanit2MatsimTest {
   private static final Path RESOURCE_PATH = Path.of("src","test","resources");
 
   private static final Path SYDNEYCBD_PLANIT = Path.of(RESOURCE_PATH.toString(),"planit","sydney");
+
+  /**
+   * Parse the Sydney PLANit network and zoning and persist it as MATSim network with pt stops (without services)
+   *
+   * @param outputDir to persist to
+   * @param settingsConfigurator to configure the writer settings with
+   * @throws Exception thrown if error
+   */
+  private static void convert(Path outputDir, Consumer<MatsimIntermodalWriterSettings> settingsConfigurator) throws Exception {
+    IdGenerator.reset();
+    var planitReader = PlanitIntermodalReaderFactory.create(SYDNEYCBD_PLANIT.toAbsolutePath().toString());
+
+    var matsimWriter = MatsimIntermodalWriterFactory.create(outputDir.toAbsolutePath().toString(), CountryNames.AUSTRALIA);
+    settingsConfigurator.accept(matsimWriter.getSettings());
+
+    IntermodalConverterFactory.create(planitReader, matsimWriter).convert();
+  }
+
+  /**
+   * Read the rows of a ptTravelTimes.csv or ptTravelDistances.csv file
+   *
+   * @param travelInfoFile to read
+   * @return value by origin and destination stop id separated by a space
+   * @throws Exception thrown if error
+   */
+  private static Map<String, Double> readTravelInfoRows(Path travelInfoFile) throws Exception {
+    Map<String, Double> valueByStopPair = new HashMap<>();
+    for(String row : Files.readAllLines(travelInfoFile, StandardCharsets.UTF_8)) {
+      String[] columns = row.split(" ");
+      assertEquals(3, columns.length);
+      assertNull(valueByStopPair.put(columns[0] + " " + columns[1], Double.parseDouble(columns[2])));
+    }
+    return valueByStopPair;
+  }
+
+  /**
+   * Parse the Sydney PLANit network with services and persist it as MATSim network with pt services
+   *
+   * @param outputDir to persist to
+   * @param settingsConfigurator to configure the writer settings with
+   * @throws Exception thrown if error
+   */
+  private static void convertWithServices(Path outputDir, Consumer<MatsimIntermodalWriterSettings> settingsConfigurator) throws Exception {
+    IdGenerator.reset();
+    var planitReader = PlanitIntermodalReaderFactory.create(SYDNEYCBD_PLANIT.toAbsolutePath().toString());
+
+    var matsimWriter = MatsimIntermodalWriterFactory.create(outputDir.toAbsolutePath().toString(), CountryNames.AUSTRALIA);
+    settingsConfigurator.accept(matsimWriter.getSettings());
+
+    IntermodalConverterFactory.create(planitReader, matsimWriter).convertWithServices();
+  }
  
   @BeforeAll
   public static void setUp() throws Exception {
@@ -88,5 +153,215 @@ public class SydneyPlanit2MatsimTest {
       fail(e.getMessage());
     }
   }
-  
-}
\ No newline at end of file
+
+  /**
+   * Test case which persists the Sydney network with services with the direct XML emitter and the StAX based XML writer, verifying the
+   * outputs are identical and similar to the reference output
+   */
+  @Test
+  public void testPlanit2MatsimWithServicesDirectXmlEmitter() {
+
+    final Path MATSIM_STAX_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_stax");
+    final Path MATSIM_EMITTER_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_emitter");
+    final Path MATSIM_REF_DIR =  Path.of(RESOURCE_PATH.toString(),"matsim","sydney");
+
+    try {
+      convertWithServices(MATSIM_STAX_OUTPUT_DIR, settings -> settings.setDirectXmlEmitter(false));
+      convertWithServices(MATSIM_EMITTER_OUTPUT_DIR, settings -> settings.setDirectXmlEmitter(true));
+
+      MatsimAssertionUtils.assertNetworkFilesSimilar(MATSIM_EMITTER_OUTPUT_DIR, MATSIM_REF_DIR);
+      MatsimAssertionUtils.assertTransitScheduleFilesSimilar(MATSIM_EMITTER_OUTPUT_DIR, MATSIM_REF_DIR);
+      MatsimAssertionUtils.assertXmlFilesIdentical(MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME, MATSIM_STAX_OUTPUT_DIR, MATSIM_EMITTER_OUTPUT_DIR);
+      MatsimAssertionUtils.assertXmlFilesIdentical(
+          MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME, MATSIM_STAX_OUTPUT_DIR, MATSIM_EMITTER_OUTPUT_DIR);
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which persists the Sydney network with links written one by one and in parallel chunks, with a chunk size small enough to
+   * create many chunks, verifying the network files are identical for both the StAX based XML writer and the direct XML emitter
+   */
+  @Test
+  public void testPlanit2MatsimParallelLinkWriting() {
+
+    final int CHUNK_SIZE = 7;
+
+    try {
+      MatsimAssertionUtils.assertSequentialAndParallelXmlFilesIdentical(
+          Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_links"),
+          MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME,
+          (outputDir, directXmlEmitter, parallel) -> convertWithServices(outputDir, settings -> {
+            settings.setDirectXmlEmitter(directXmlEmitter);
+            settings.getNetworkSettings().setParallelLinkWriting(parallel);
+            settings.getNetworkSettings().setParallelLinkChunkSize(CHUNK_SIZE);
+          }));
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which converts the Sydney network with services twice, writing transit lines sequentially and in parallel, verifying that the
+   * persisted transit schedules are byte for byte identical, for both the StAX and the direct XML emitter
+   */
+  @Test
+  public void testPlanit2MatsimParallelTransitLineWriting() {
+
+    try {
+      MatsimAssertionUtils.assertSequentialAndParallelXmlFilesIdentical(
+          Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_lines"),
+          MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME,
+          (outputDir, directXmlEmitter, parallel) -> convertWithServices(outputDir, settings -> {
+            settings.setDirectXmlEmitter(directXmlEmitter);
+            settings.getPtServicesSettings().setParallelTransitLineWriting(parallel);
+          }));
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which converts the Sydney network and zoning without services, once generating the stop to stop travel info files with
+   * defaults and once with a travel time factor and distance cut-off configured on the intermodal zoning settings, verifying these settings
+   * are applied to the persisted rows
+   */
+  @Test
+  public void testPlanit2MatsimPtTravelInfoFiles() {
+
+    final Path MATSIM_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_travel_info");
+    final Path MATSIM_BOUNDED_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_travel_info_bounded");
+    final double TRAVEL_TIME_FACTOR = 2;
+    final double MAX_DISTANCE_METERS = 1000;
+
+    try {
+      convert(MATSIM_OUTPUT_DIR, settings -> settings.getZoningSettings().setGeneratePtTravelInfoFile(true));
+      convert(MATSIM_BOUNDED_OUTPUT_DIR, settings -> {
+        settings.getZoningSettings().setGeneratePtTravelInfoFile(true);
+        settings.getZoningSettings().setPtTravelTimeFactor(TRAVEL_TIME_FACTOR);
+        settings.getZoningSettings().setPtTravelInfoMaxDistanceMeters(MAX_DISTANCE_METERS);
+      });
+
+      var travelTimes = readTravelInfoRows(MATSIM_OUTPUT_DIR.resolve("ptTravelTimes.csv"));
+      var distances = readTravelInfoRows(MATSIM_OUTPUT_DIR.resolve("ptTravelDistances.csv"));
+      assertFalse(travelTimes.isEmpty());
+      assertEquals(travelTimes.keySet(), distances.keySet());
+
+      var boundedTravelTimes = readTravelInfoRows(MATSIM_BOUNDED_OUTPUT_DIR.resolve("ptTravelTimes.csv"));
+      var boundedDistances = readTravelInfoRows(MATSIM_BOUNDED_OUTPUT_DIR.resolve("ptTravelDistances.csv"));
+      assertFalse(boundedTravelTimes.isEmpty());
+      assertEquals(boundedTravelTimes.keySet(), boundedDistances.keySet());
+      assertTrue(boundedTravelTimes.size() < travelTimes.size());
+
+      /* same fastest paths, persisted with one decimal, only scaled in time and limited in distance */
+      for(var entry : boundedDistances.entrySet()) {
+        assertTrue(distances.containsKey(entry.getKey()));
+        assertTrue(entry.getValue() <= MAX_DISTANCE_METERS);
+        assertEquals(distances.get(entry.getKey()), entry.getValue(), 0.1);
+        assertEquals(TRAVEL_TIME_FACTOR * travelTimes.get(entry.getKey()), boundedTravelTimes.get(entry.getKey()), 0.2);
+      }
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which converts the Sydney network and zoning without services, uncompressed and gzip compressed with the direct XML emitter,
+   * verifying that both the network and the stops only transit schedule are compressed and decompress to the uncompressed files
+   */
+  @Test
+  public void testPlanit2MatsimCompressedOutput() {
+
+    final Path MATSIM_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_stops");
+    final Path MATSIM_COMPRESSED_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_stops_compressed");
+
+    try {
+      for(String fileName : new String[] {
+          MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME, MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME}) {
+        Files.deleteIfExists(MATSIM_COMPRESSED_OUTPUT_DIR.resolve(fileName.concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION)));
+      }
+
+      convert(MATSIM_OUTPUT_DIR, settings -> {});
+      convert(MATSIM_COMPRESSED_OUTPUT_DIR, settings -> {
+        settings.setCompressOutput(true);
+        settings.setDirectXmlEmitter(true);
+      });
+
+      for(String fileName : new String[] {
+          MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME, MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME}) {
+        assertFalse(Files.exists(MATSIM_COMPRESSED_OUTPUT_DIR.resolve(fileName.concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION))));
+        try(var inputStream = new GZIPInputStream(
+            Files.newInputStream(MATSIM_COMPRESSED_OUTPUT_DIR.resolve(fileName.concat(MatsimWriter.COMPRESSED_FILE_NAME_EXTENSION))))) {
+          assertArrayEquals(
+              Files.readAllBytes(MATSIM_OUTPUT_DIR.resolve(fileName.concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION))), inputStream.readAllBytes());
+        }
+      }
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which converts the Sydney network with services and without services (stops only) sequentially and concurrently, verifying
+   * that all persisted files are byte for byte identical and that, as before, no matrix based pt router files are persisted with services
+   */
+  @Test
+  public void testPlanit2MatsimConcurrentWriting() {
+
+    final Path MATSIM_SEQUENTIAL_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_sequential");
+    final Path MATSIM_CONCURRENT_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_concurrent");
+    final Path MATSIM_STOPS_SEQUENTIAL_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_stops_sequential");
+    final Path MATSIM_STOPS_CONCURRENT_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "sydney_stops_concurrent");
+    final String PT_STOPS_FILE_NAME = "ptStops.csv";
+    final String GEOMETRY_FILE_NAME =
+        MatsimNetworkWriter.DEFAULT_NETWORK_GEOMETRY_FILE_NAME.concat(MatsimNetworkWriter.DEFAULT_NETWORK_GEOMETRY_FILE_NAME_EXTENSION);
+
+    try {
+      for(boolean concurrentWriting : new boolean[] {false, true}) {
+        var outputDir = concurrentWriting ? MATSIM_CONCURRENT_OUTPUT_DIR : MATSIM_SEQUENTIAL_OUTPUT_DIR;
+        Files.deleteIfExists(outputDir.resolve(PT_STOPS_FILE_NAME));
+        convertWithServices(outputDir, settings -> {
+          settings.setConcurrentWriting(concurrentWriting);
+          settings.getNetworkSettings().setGenerateDetailedLinkGeometryFile(true);
+        });
+        assertFalse(Files.exists(outputDir.resolve(PT_STOPS_FILE_NAME)));
+
+        convert(concurrentWriting ? MATSIM_STOPS_CONCURRENT_OUTPUT_DIR : MATSIM_STOPS_SEQUENTIAL_OUTPUT_DIR,
+            settings -> settings.setConcurrentWriting(concurrentWriting));
+      }
+
+      for(Path[] outputDirs : new Path[][] {
+          {MATSIM_SEQUENTIAL_OUTPUT_DIR, MATSIM_CONCURRENT_OUTPUT_DIR}, {MATSIM_STOPS_SEQUENTIAL_OUTPUT_DIR, MATSIM_STOPS_CONCURRENT_OUTPUT_DIR}}) {
+        MatsimAssertionUtils.assertXmlFilesIdentical(MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME, outputDirs[0], outputDirs[1]);
+        MatsimAssertionUtils.assertXmlFilesIdentical(MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME, outputDirs[0], outputDirs[1]);
+      }
+      assertArrayEquals(
+          Files.readAllBytes(MATSIM_SEQUENTIAL_OUTPUT_DIR.resolve(GEOMETRY_FILE_NAME)), Files.readAllBytes(MATSIM_CONCURRENT_OUTPUT_DIR.resolve(GEOMETRY_FILE_NAME)));
+      assertArrayEquals(
+          Files.readAllBytes(MATSIM_STOPS_SEQUENTIAL_OUTPUT_DIR.resolve(PT_STOPS_FILE_NAME)),
+          Files.readAllBytes(MATSIM_STOPS_CONCURRENT_OUTPUT_DIR.resolve(PT_STOPS_FILE_NAME)));
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+package org.goplanit.matsim.test;
+
+import org.goplanit.logging.Logging;
+import org.goplanit.matsim.converter.MatsimIntermodalWriterFactory;
+import org.goplanit.matsim.converter.MatsimIntermodalWriterSettings;
+import org.goplanit.matsim.converter.MatsimNetworkWriter;
+import org.goplanit.matsim.converter.MatsimNetworkWriterFactory;
+import org.goplanit.matsim.converter.MatsimNetworkWriterSettings;
+import org.goplanit.matsim.converter.MatsimWriter;
+import org.goplanit.matsim.util.MatsimAssertionUtils;
+import org.goplanit.matsim.util.SyntheticNetworkGenerator;
+import org.goplanit.matsim.util.SyntheticPtScenario;
+import org.goplanit.matsim.util.SyntheticPtScenarioGenerator;
+import org.goplanit.utils.id.IdGenerator;
+import org.goplanit.utils.locale.CountryNames;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * JUnit test cases persisting synthetic PLANit scenarios, generated in memory, as MATSim network with pt services at a scale beyond what the
+ * Sydney test case covers
+ *
+ * @author markr
+ *
+ */
+public class SyntheticPlanit2MatsimScaleTest {
+
+  /** the logger */
+  private static Logger LOGGER = null;
+
+  private static final Path RESOURCE_PATH = Path.of("src","test","resources");
+
+  private static final long SEED = 42;
+
+  private static final int LINES = 500;
+
+  private static final int PATTERNS_PER_LINE = 3;
+
+  private static final int STOPS_PER_PATTERN = 30;
+
+  private static final int DEPARTURES_PER_PATTERN = 40;
+
+  /**
+   * Generate the synthetic scenario and persist it with services to the given directory
+   *
+   * @param outputDir to persist to
+   * @return persisted scenario
+   * @throws Exception thrown if error
+   */
+  private static SyntheticPtScenario generateAndWrite(Path outputDir) throws Exception {
+    return generateAndWrite(outputDir, settings -> {});
+  }
+
+  /**
+   * Generate the synthetic scenario and persist it with services to the given directory
+   *
+   * @param outputDir to persist to
+   * @param settingsConfigurator to apply to the writer settings before persisting
+   * @return persisted scenario
+   * @throws Exception thrown if error
+   */
+  private static SyntheticPtScenario generateAndWrite(
+      Path outputDir, Consumer<MatsimIntermodalWriterSettings> settingsConfigurator) throws Exception {
+    IdGenerator.reset();
+    var scenario = new SyntheticPtScenarioGenerator(SEED).generate(LINES, PATTERNS_PER_LINE, STOPS_PER_PATTERN, DEPARTURES_PER_PATTERN);
+
+    var matsimWriter = MatsimIntermodalWriterFactory.create(outputDir.toAbsolutePath().toString(), CountryNames.AUSTRALIA);
+    settingsConfigurator.accept(matsimWriter.getSettings());
+    matsimWriter.writeWithServices(scenario.getNetwork(), scenario.getZoning(), scenario.getServiceNetwork(), scenario.getRoutedServices());
+    return scenario;
+  }
+
+  /**
+   * Count the number of occurrences of the given XML element in the file
+   *
+   * @param xmlFile to parse
+   * @param xmlElementName to count
+   * @return number of occurrences
+   * @throws IOException thrown if error
+   */
+  private static long countElements(Path xmlFile, String xmlElementName) throws IOException {
+    return Pattern.compile("<" + xmlElementName + "[\\s>/]").matcher(Files.readString(xmlFile, StandardCharsets.UTF_8)).results().count();
+  }
+
+  /**
+   * Count the number of internal points of each link geometry in a detailed network geometry file
+   *
+   * @param geometryFile to parse
+   * @return number of internal points by MATSim link id, links without internal points are absent
+   * @throws IOException thrown if error
+   */
+  private static Map<String, Integer> countInternalGeometryPoints(Path geometryFile) throws IOException {
+    Map<String, Integer> internalPointsByLinkId = new HashMap<>();
+    List<String> rows = Files.readAllLines(geometryFile, StandardCharsets.UTF_8);
+    for(String row : rows.subList(1, rows.size())) {
+      String[] columns = row.split("\t");
+      internalPointsByLinkId.put(columns[0], columns[1].split(",").length);
+    }
+    return internalPointsByLinkId;
+  }
+
+  @BeforeAll
+  public static void setUp() throws Exception {
+    if (LOGGER == null) {
+      LOGGER = Logging.createLogger(SyntheticPlanit2MatsimScaleTest.class);
+    }
+  }
+
+  /**
+   * run garbage collection after each test as it apparently is not triggered properly within
+   * Eclipse (or takes too long before being triggered)
+   */
+  @AfterEach
+  public void afterTest() {
+    IdGenerator.reset();
+    System.gc();
+  }
+
+  @AfterAll
+  public static void tearDown() {
+    Logging.closeLogger(LOGGER);
+  }
+
+  /**
+   * Test case which generates a synthetic PLANit scenario with services and persists it as MATSim network with pt services twice, verifying
+   * all network elements, stops, routes and departures are persisted and that outputs of the same seed are identical
+   */
+  @Test
+  public void testSyntheticPlanit2MatsimWithServices() {
+
+    final Path MATSIM_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "synthetic");
+    final Path MATSIM_REPEAT_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "synthetic_repeat");
+
+    try {
+      long start = System.nanoTime();
+      var scenario = generateAndWrite(MATSIM_OUTPUT_DIR);
+      LOGGER.info(String.format("Synthetic conversion with services, %d departures: %.1f ms",
+          scenario.getNumberOfDepartures(), (System.nanoTime() - start) / 1e6));
+
+      var networkLayer = scenario.getNetwork().getTransportLayers().getFirst();
+      var networkFile = MATSIM_OUTPUT_DIR.resolve(MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME.concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
+      assertEquals(networkLayer.getNodes().size(), countElements(networkFile, "node"));
+      assertEquals(networkLayer.getLinkSegments().size(), countElements(networkFile, "link"));
+
+      var transitScheduleFile = MATSIM_OUTPUT_DIR.resolve(MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME.concat(MatsimWriter.DEFAULT_FILE_NAME_EXTENSION));
+      assertEquals(scenario.getZoning().getTransferConnectoids().size(), countElements(transitScheduleFile, "stopFacility"));
+      assertEquals(LINES, countElements(transitScheduleFile, "transitLine"));
+      assertEquals(LINES * PATTERNS_PER_LINE, countElements(transitScheduleFile, "transitRoute"));
+      assertEquals(scenario.getNumberOfDepartures(), countElements(transitScheduleFile, "departure"));
+
+      generateAndWrite(MATSIM_REPEAT_OUTPUT_DIR);
+      MatsimAssertionUtils.assertXmlFilesIdentical(MatsimNetworkWriterSettings.DEFAULT_NETWORK_FILE_NAME, MATSIM_OUTPUT_DIR, MATSIM_REPEAT_OUTPUT_DIR);
+      MatsimAssertionUtils.assertXmlFilesIdentical(MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME, MATSIM_OUTPUT_DIR, MATSIM_REPEAT_OUTPUT_DIR);
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which persists the synthetic scenario with services twice, writing transit lines sequentially and in parallel, verifying that the
+   * persisted transit schedules are byte for byte identical, for both the StAX and the direct XML emitter
+   */
+  @Test
+  public void testSyntheticPlanit2MatsimParallelTransitLineWriting() {
+
+    try {
+      MatsimAssertionUtils.assertSequentialAndParallelXmlFilesIdentical(
+          Path.of(RESOURCE_PATH.toString(),"testcases", "synthetic_lines"),
+          MatsimNetworkWriterSettings.DEFAULT_TRANSIT_SCHEDULE_FILE_NAME,
+          (outputDir, directXmlEmitter, parallel) -> generateAndWrite(outputDir, settings -> {
+            settings.setDirectXmlEmitter(directXmlEmitter);
+            settings.getPtServicesSettings().setParallelTransitLineWriting(parallel);
+          }));
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    }
+  }
+
+  /**
+   * Test case which persists the detailed geometry of a synthetic urban grid with and without simplification, verifying that simplification
+   * reduces the number of geometry points and that the logged number of removed points matches the persisted geometries
+   */
+  @Test
+  public void testSyntheticPlanit2MatsimSimplifiedDetailedGeometry() {
+
+    final Path MATSIM_UNSIMPLIFIED_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "synthetic_geometry_unsimplified");
+    final Path MATSIM_SIMPLIFIED_OUTPUT_DIR = Path.of(RESOURCE_PATH.toString(),"testcases", "synthetic_geometry_simplified");
+    final int GRID_SIZE = 40;
+    final double SIMPLIFICATION_TOLERANCE_METERS = 5;
+    final Pattern REMOVED_POINTS_PATTERN = Pattern.compile("\\[STATS\\] removed (\\d+) link geometry points by simplification");
+
+    /* capture the stats logged by the network writer */
+    final List<String> loggedMessages = new ArrayList<>();
+    final Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        loggedMessages.add(record.getMessage());
+      }
+      @Override
+      public void flush() {
+      }
+      @Override
+      public void close() {
+      }
+    };
+    final Logger networkWriterLogger = Logger.getLogger(MatsimNetworkWriter.class.getCanonicalName());
+
+    try {
+      networkWriterLogger.addHandler(handler);
+      for(Path outputDir : new Path[] {MATSIM_UNSIMPLIFIED_OUTPUT_DIR, MATSIM_SIMPLIFIED_OUTPUT_DIR}) {
+        IdGenerator.reset();
+        var network = new SyntheticNetworkGenerator(SEED).generateUrbanGrid(GRID_SIZE);
+        var networkWriter = MatsimNetworkWriterFactory.create(outputDir.toAbsolutePath().toString(), CountryNames.AUSTRALIA);
+        networkWriter.getSettings().setGenerateDetailedLinkGeometryFile(true);
+        if(outputDir == MATSIM_SIMPLIFIED_OUTPUT_DIR) {
+          networkWriter.getSettings().setDetailedLinkGeometrySimplificationTolerance(SIMPLIFICATION_TOLERANCE_METERS);
+        }
+        networkWriter.write(network);
+      }
+
+      String geometryFileName = MatsimNetworkWriter.DEFAULT_NETWORK_GEOMETRY_FILE_NAME.concat(MatsimNetworkWriter.DEFAULT_NETWORK_GEOMETRY_FILE_NAME_EXTENSION);
+      var unsimplifiedPoints = countInternalGeometryPoints(MATSIM_UNSIMPLIFIED_OUTPUT_DIR.resolve(geometryFileName));
+      var simplifiedPoints = countInternalGeometryPoints(MATSIM_SIMPLIFIED_OUTPUT_DIR.resolve(geometryFileName));
+
+      /* each synthetic link is bidirectional, so both of its link segments list the points of the same link geometry */
+      long removedLinkSegmentPoints = 0;
+      for(var entry : unsimplifiedPoints.entrySet()) {
+        int remainingPoints = simplifiedPoints.getOrDefault(entry.getKey(), 0);
+        assertTrue(remainingPoints <= entry.getValue());
+        removedLinkSegmentPoints += entry.getValue() - remainingPoints;
+      }
+      assertTrue(removedLinkSegmentPoints > 0);
+      assertEquals(0, removedLinkSegmentPoints % 2);
+
+      long loggedRemovedPoints = -1;
+      for(String message : loggedMessages) {
+        Matcher matcher = REMOVED_POINTS_PATTERN.matcher(message);
+        if(matcher.find()) {
+          loggedRemovedPoints = Long.parseLong(matcher.group(1));
+        }
+      }
+      assertEquals(removedLinkSegmentPoints / 2, loggedRemovedPoints);
+
+    } catch (final Exception e) {
+      e.printStackTrace();
+      LOGGER.severe( e.getMessage());
+      fail(e.getMessage());
+    } finally {
+      networkWriterLogger.removeHandler(handler);
+    }
+  }
+
+}
@@ -0,0 +1,371 @@
+package org.goplanit.matsim.util;
+
+import java.util.SplittableRandom;
+
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.network.layer.macroscopic.AccessGroupPropertiesFactory;
+import org.goplanit.network.layer.macroscopic.MacroscopicNetworkLayerImpl;
+import org.goplanit.network.layers.InfrastructureLayersConfigurator;
+import org.goplanit.utils.geo.PlanitJtsCrsUtils;
+import org.goplanit.utils.geo.PlanitJtsUtils;
+import org.goplanit.utils.id.IdGroupingToken;
+import org.goplanit.utils.mode.Mode;
+import org.goplanit.utils.mode.PredefinedModeType;
+import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegmentType;
+import org.goplanit.utils.network.layer.physical.Node;
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Deterministic generator of synthetic PLANit macroscopic networks of a requested size, in WGS84 around Sydney so the default Australian
+ * destination CRS applies. Each link is bidirectional (two link segments) and has a geometry with at least one, slightly offset, intermediate
+ * point so the detailed geometry file has content. Networks are built in memory only, identical seeds yield identical networks.
+ * <p>
+ * Supported topologies are a square grid, a radial network of concentric rings connected by spokes, and an urban grid. The latter resembles
+ * real road networks more closely: node positions are perturbed, part of the north-south links is absent and diagonal shortcuts are added so
+ * node degrees vary (mostly three or four, occasionally two, five or six), and link geometries have a varying number of intermediate points.
+ * East-west links are always present, so each row of an (urban) grid remains a connected corridor.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class SyntheticNetworkGenerator {
+
+  /** supported topologies */
+  public enum Topology {
+    /** square grid of nodes where each node connects to its horizontal and vertical neighbours */
+    GRID,
+    /** concentric rings of nodes, where each ring node connects to its ring neighbours and to the same spoke on the next inner ring (or centre) */
+    RADIAL,
+    /** grid with perturbed node positions, varying node degrees and more detailed link geometries */
+    URBAN
+  }
+
+  /** longitude of the origin of the generated network */
+  private static final double ORIGIN_LONGITUDE = 151.2;
+
+  /** latitude of the origin of the generated network */
+  private static final double ORIGIN_LATITUDE = -33.87;
+
+  /** meters per degree latitude (approximately) */
+  private static final double METERS_PER_DEGREE_LATITUDE = 110_540;
+
+  /** meters per degree longitude at the origin latitude (approximately) */
+  private static final double METERS_PER_DEGREE_LONGITUDE = 111_320 * Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+
+  /** distance between adjacent grid nodes and between rings in meters */
+  private static final double SPACING_METERS = 200;
+
+  /** maximum offset of the intermediate geometry point perpendicular to a link in meters */
+  private static final double MAX_GEOMETRY_OFFSET_METERS = 15;
+
+  /** number of link segments per (bidirectional) link */
+  private static final int LINK_SEGMENTS_PER_LINK = 2;
+
+  /** maximum perturbation of urban grid node positions in either direction in meters */
+  private static final double MAX_URBAN_NODE_OFFSET_METERS = 40;
+
+  /** probability a north-south link of an urban grid is absent */
+  private static final double URBAN_ABSENT_LINK_PROBABILITY = 0.3;
+
+  /** probability of a diagonal shortcut in an urban grid cell */
+  private static final double URBAN_DIAGONAL_LINK_PROBABILITY = 0.1;
+
+  /** maximum number of intermediate geometry points of urban grid links */
+  private static final int MAX_URBAN_INTERMEDIATE_POINTS = 4;
+
+  /** expected number of links per node of an urban grid, see {@link #generate(Topology, long)} */
+  private static final double URBAN_LINKS_PER_NODE = 1 + (1 - URBAN_ABSENT_LINK_PROBABILITY) + URBAN_DIAGONAL_LINK_PROBABILITY;
+
+  /** seed used for geometry offsets */
+  private final long seed;
+
+  /** the network being generated */
+  private MacroscopicNetwork network;
+
+  /** the layer being generated */
+  private MacroscopicNetworkLayerImpl layer;
+
+  /** link segment type used for all link segments */
+  private MacroscopicLinkSegmentType linkSegmentType;
+
+  /** random generator of geometry offsets */
+  private SplittableRandom random;
+
+  /** nodes of the most recently generated grid by row and column, null when not a grid */
+  private Node[][] gridNodes;
+
+  /**
+   * Create a node at the given local position
+   *
+   * @param xMeters east of origin
+   * @param yMeters north of origin
+   * @return created node
+   */
+  private Node createNode(double xMeters, double yMeters) {
+    var node = layer.getNodes().getFactory().registerNew();
+    node.setXmlId(String.valueOf(node.getId()));
+    node.setPosition(PlanitJtsUtils.createPoint(toLongitude(xMeters), toLatitude(yMeters)));
+    return node;
+  }
+
+  /**
+   * Create a bidirectional link between the nodes with its two link segments
+   *
+   * @param nodeA first node
+   * @param nodeB second node
+   * @param intermediatePoints number of intermediate geometry points, at least one
+   */
+  private void createLink(Node nodeA, Node nodeB, int intermediatePoints) {
+    double ax = toMetersX(nodeA.getPosition().getX());
+    double ay = toMetersY(nodeA.getPosition().getY());
+    double bx = toMetersX(nodeB.getPosition().getX());
+    double by = toMetersY(nodeB.getPosition().getY());
+    double dx = bx - ax;
+    double dy = by - ay;
+    double straightLength = Math.hypot(dx, dy);
+
+    /* intermediate points evenly spaced along the link, each offset perpendicular to the link */
+    Coordinate[] coordinates = new Coordinate[intermediatePoints + 2];
+    coordinates[0] = new Coordinate(nodeA.getPosition().getX(), nodeA.getPosition().getY());
+    double lengthMeters = 0;
+    double previousX = ax;
+    double previousY = ay;
+    for(int point = 1; point <= intermediatePoints; ++point) {
+      double fraction = point / (intermediatePoints + 1.0);
+      double offset = (random.nextDouble() * 2 - 1) * MAX_GEOMETRY_OFFSET_METERS;
+      double mx = ax + dx * fraction - dy / straightLength * offset;
+      double my = ay + dy * fraction + dx / straightLength * offset;
+      coordinates[point] = new Coordinate(toLongitude(mx), toLatitude(my));
+      lengthMeters += Math.hypot(mx - previousX, my - previousY);
+      previousX = mx;
+      previousY = my;
+    }
+    coordinates[intermediatePoints + 1] = new Coordinate(nodeB.getPosition().getX(), nodeB.getPosition().getY());
+    double lengthKm = (lengthMeters + Math.hypot(bx - previousX, by - previousY)) / 1000;
+
+    var link = layer.getLinks().getFactory().registerNew(nodeA, nodeB, lengthKm, true /* register on nodes */);
+    link.setXmlId(String.valueOf(link.getId()));
+    link.setGeometry(PlanitJtsUtils.createLineString(coordinates));
+
+    for(boolean directionAb : new boolean[] {true, false}) {
+      var linkSegment = layer.getLinkSegments().getFactory().registerNew(link, directionAb, true /* register on node and link */);
+      linkSegment.setXmlId(String.valueOf(linkSegment.getId()));
+      linkSegment.setLinkSegmentType(linkSegmentType);
+      linkSegment.setNumberOfLanes(2);
+    }
+  }
+
+  /**
+   * Generate the nodes and links of a square grid
+   *
+   * @param size number of nodes per row and column
+   * @param urban when true, generate an urban grid, see {@link Topology#URBAN}, otherwise a regular grid
+   */
+  private void generateGridNodesAndLinks(int size, boolean urban) {
+    gridNodes = new Node[size][size];
+    for(int row = 0; row < size; ++row) {
+      for(int column = 0; column < size; ++column) {
+        double xOffset = urban ? (random.nextDouble() * 2 - 1) * MAX_URBAN_NODE_OFFSET_METERS : 0;
+        double yOffset = urban ? (random.nextDouble() * 2 - 1) * MAX_URBAN_NODE_OFFSET_METERS : 0;
+        gridNodes[row][column] = createNode(column * SPACING_METERS + xOffset, row * SPACING_METERS + yOffset);
+        if(column > 0) {
+          createLink(gridNodes[row][column - 1], gridNodes[row][column], urban ? 1 + random.nextInt(MAX_URBAN_INTERMEDIATE_POINTS) : 1);
+        }
+        if(row == 0) {
+          continue;
+        }
+
+        /* the first column is always connected, so rows cannot become disconnected from each other */
+        if(!urban || column == 0 || random.nextDouble() >= URBAN_ABSENT_LINK_PROBABILITY) {
+          createLink(gridNodes[row - 1][column], gridNodes[row][column], urban ? 1 + random.nextInt(MAX_URBAN_INTERMEDIATE_POINTS) : 1);
+        }
+        /* diagonals only run south-west to north-east, so they never cross each other */
+        if(urban && column > 0 && random.nextDouble() < URBAN_DIAGONAL_LINK_PROBABILITY) {
+          createLink(gridNodes[row - 1][column - 1], gridNodes[row][column], 1 + random.nextInt(MAX_URBAN_INTERMEDIATE_POINTS));
+        }
+      }
+    }
+  }
+
+  /**
+   * Generate the nodes and links of a radial network
+   *
+   * @param numberOfLinkSegments approximate number of link segments
+   */
+  private void generateRadialNodesAndLinks(long numberOfLinkSegments) {
+    /* each ring has one ring link and one spoke link per spoke, spokes are chosen such that ring links remain short compared to spokes */
+    final long numberOfLinks = Math.max(16, numberOfLinkSegments / LINK_SEGMENTS_PER_LINK);
+    final int spokes = Math.max(8, (int) Math.sqrt(numberOfLinks / 2.0));
+    final int rings = Math.max(1, (int) Math.ceil(numberOfLinks / (2.0 * spokes)));
+
+    Node centre = createNode(0, 0);
+    Node[] innerRing = null;
+    for(int ring = 1; ring <= rings; ++ring) {
+      double radius = ring * SPACING_METERS;
+      Node[] currentRing = new Node[spokes];
+      for(int spoke = 0; spoke < spokes; ++spoke) {
+        double angle = 2 * Math.PI * spoke / spokes;
+        currentRing[spoke] = createNode(radius * Math.cos(angle), radius * Math.sin(angle));
+        createLink(innerRing == null ? centre : innerRing[spoke], currentRing[spoke], 1);
+        if(spoke > 0) {
+          createLink(currentRing[spoke - 1], currentRing[spoke], 1);
+        }
+      }
+      createLink(currentRing[spokes - 1], currentRing[0], 1);
+      innerRing = currentRing;
+    }
+  }
+
+  /**
+   * Convert local x to longitude
+   *
+   * @param xMeters east of origin
+   * @return longitude
+   */
+  private static double toLongitude(double xMeters) {
+    return ORIGIN_LONGITUDE + xMeters / METERS_PER_DEGREE_LONGITUDE;
+  }
+
+  /**
+   * Convert local y to latitude
+   *
+   * @param yMeters north of origin
+   * @return latitude
+   */
+  private static double toLatitude(double yMeters) {
+    return ORIGIN_LATITUDE + yMeters / METERS_PER_DEGREE_LATITUDE;
+  }
+
+  /**
+   * Convert longitude to local x
+   *
+   * @param longitude to convert
+   * @return meters east of origin
+   */
+  private static double toMetersX(double longitude) {
+    return (longitude - ORIGIN_LONGITUDE) * METERS_PER_DEGREE_LONGITUDE;
+  }
+
+  /**
+   * Convert latitude to local y
+   *
+   * @param latitude to convert
+   * @return meters north of origin
+   */
+  private static double toMetersY(double latitude) {
+    return (latitude - ORIGIN_LATITUDE) * METERS_PER_DEGREE_LATITUDE;
+  }
+
+  /**
+   * Create the network, its modes, its single layer and link segment type
+   */
+  private void initialise() {
+    this.random = new SplittableRandom(seed);
+    this.gridNodes = null;
+    this.network = new MacroscopicNetwork(IdGroupingToken.collectGlobalToken());
+    network.setCoordinateReferenceSystem(PlanitJtsCrsUtils.DEFAULT_GEOGRAPHIC_CRS);
+
+    Mode car = network.getModes().getFactory().registerNew(PredefinedModeType.CAR);
+    Mode bus = network.getModes().getFactory().registerNew(PredefinedModeType.BUS);
+    network.initialiseLayers(InfrastructureLayersConfigurator.createAllInOneConfiguration(network.getModes()));
+    this.layer = (MacroscopicNetworkLayerImpl) network.getTransportLayers().getFirst();
+
+    this.linkSegmentType = layer.getLinkSegmentTypes().getFactory().registerNew("synthetic", 1800, 150);
+    linkSegmentType.setXmlId("synthetic");
+    linkSegmentType.setAccessGroupProperties(AccessGroupPropertiesFactory.create(60.0, car, bus));
+  }
+
+  /**
+   * Release the generated network
+   *
+   * @return generated network
+   */
+  private MacroscopicNetwork complete() {
+    var generated = network;
+    this.network = null;
+    this.layer = null;
+    this.linkSegmentType = null;
+    return generated;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param seed to use, identical seeds yield identical networks
+   */
+  public SyntheticNetworkGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Generate a single layer network with car and bus modes. Ids are generated by the global id grouping token, so reset the id generator
+   * beforehand to obtain identical ids across runs
+   *
+   * @param topology to generate
+   * @param numberOfLinkSegments approximate number of link segments, actual number is rounded up to complete the topology
+   * @return generated network
+   */
+  public MacroscopicNetwork generate(Topology topology, long numberOfLinkSegments) {
+    switch (topology) {
+      case GRID:
+        /* a n x n grid has 2n(n-1) links */
+        return generateGrid(Math.max(2, (int) Math.ceil(Math.sqrt(numberOfLinkSegments / (2.0 * LINK_SEGMENTS_PER_LINK)))));
+      case URBAN:
+        return generateUrbanGrid(
+            Math.max(2, (int) Math.ceil(Math.sqrt(numberOfLinkSegments / (URBAN_LINKS_PER_NODE * LINK_SEGMENTS_PER_LINK)))));
+      case RADIAL:
+        initialise();
+        generateRadialNodesAndLinks(numberOfLinkSegments);
+        return complete();
+      default:
+        throw new IllegalArgumentException(String.format("Unsupported synthetic network topology %s", topology));
+    }
+  }
+
+  /**
+   * Generate a single layer square grid network with car and bus modes, see {@link #generate(Topology, long)}. Its nodes remain available
+   * via {@link #getGridNode(int, int)} until the next network is generated
+   *
+   * @param size number of nodes per row and column, at least two
+   * @return generated network
+   */
+  public MacroscopicNetwork generateGrid(int size) {
+    initialise();
+    generateGridNodesAndLinks(Math.max(2, size), false);
+    return complete();
+  }
+
+  /**
+   * Generate a single layer urban grid network with car and bus modes, see {@link Topology#URBAN}. Its nodes remain available
+   * via {@link #getGridNode(int, int)} until the next network is generated
+   *
+   * @param size number of nodes per row and column, at least two
+   * @return generated network
+   */
+  public MacroscopicNetwork generateUrbanGrid(int size) {
+    initialise();
+    generateGridNodesAndLinks(Math.max(2, size), true);
+    return complete();
+  }
+
+  /**
+   * Collect a node of the most recently generated grid, where columns run west to east and rows south to north
+   *
+   * @param row of node
+   * @param column of node
+   * @return node
+   */
+  public Node getGridNode(int row, int column) {
+    return gridNodes[row][column];
+  }
+
+  /**
+   * Number of nodes per row and column of the most recently generated grid
+   *
+   * @return grid size, zero when no grid was generated
+   */
+  public int getGridSize() {
+    return gridNodes == null ? 0 : gridNodes.length;
+  }
+}
@@ -0,0 +1,88 @@
+package org.goplanit.matsim.util;
+
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.network.ServiceNetwork;
+import org.goplanit.service.routed.RoutedServices;
+import org.goplanit.zoning.Zoning;
+
+/**
+ * Synthetic public transport scenario, i.e., physical network, zoning with transfer connectoids (stops), service network and routed services
+ * with schedule based trips
+ *
+ * @author markr
+ *
+ */
+public class SyntheticPtScenario {
+
+  /** physical network */
+  private final MacroscopicNetwork network;
+
+  /** zoning with a transfer zone and connectoid per stop */
+  private final Zoning zoning;
+
+  /** service network */
+  private final ServiceNetwork serviceNetwork;
+
+  /** routed services */
+  private final RoutedServices routedServices;
+
+  /** number of departures of all routed services */
+  private final long numberOfDepartures;
+
+  /**
+   * Constructor
+   *
+   * @param network physical network
+   * @param zoning with transfer connectoids
+   * @param serviceNetwork service network
+   * @param routedServices routed services
+   * @param numberOfDepartures of all routed services
+   */
+  SyntheticPtScenario(MacroscopicNetwork network, Zoning zoning, ServiceNetwork serviceNetwork, RoutedServices routedServices, long numberOfDepartures) {
+    this.network = network;
+    this.zoning = zoning;
+    this.serviceNetwork = serviceNetwork;
+    this.routedServices = routedServices;
+    this.numberOfDepartures = numberOfDepartures;
+  }
+
+  /** Collect physical network
+   *
+   * @return network
+   */
+  public MacroscopicNetwork getNetwork() {
+    return network;
+  }
+
+  /** Collect zoning
+   *
+   * @return zoning
+   */
+  public Zoning getZoning() {
+    return zoning;
+  }
+
+  /** Collect service network
+   *
+   * @return service network
+   */
+  public ServiceNetwork getServiceNetwork() {
+    return serviceNetwork;
+  }
+
+  /** Collect routed services
+   *
+   * @return routed services
+   */
+  public RoutedServices getRoutedServices() {
+    return routedServices;
+  }
+
+  /** Number of departures of all routed services
+   *
+   * @return number of departures
+   */
+  public long getNumberOfDepartures() {
+    return numberOfDepartures;
+  }
+}
@@ -0,0 +1,238 @@
+package org.goplanit.matsim.util;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goplanit.network.MacroscopicNetwork;
+import org.goplanit.network.ServiceNetwork;
+import org.goplanit.network.layer.service.ServiceNetworkLayerImpl;
+import org.goplanit.service.routed.RoutedServices;
+import org.goplanit.utils.geo.PlanitJtsUtils;
+import org.goplanit.utils.id.IdGroupingToken;
+import org.goplanit.utils.mode.Mode;
+import org.goplanit.utils.mode.PredefinedModeType;
+import org.goplanit.utils.network.layer.macroscopic.MacroscopicLinkSegment;
+import org.goplanit.utils.network.layer.physical.LinkSegment;
+import org.goplanit.utils.network.layer.physical.Node;
+import org.goplanit.utils.network.layer.service.ServiceLegSegment;
+import org.goplanit.utils.network.layer.service.ServiceNode;
+import org.goplanit.utils.time.ExtendedLocalTime;
+import org.goplanit.utils.zoning.TransferZoneType;
+import org.goplanit.zoning.Zoning;
+
+/**
+ * Deterministic generator of synthetic public transport scenarios, i.e., physical network, zoning, service network and routed services, on an
+ * urban grid network (see {@link SyntheticNetworkGenerator}) with a configurable number of bus lines, patterns per line, stops per pattern and
+ * departures per pattern. All is built in memory, identical seeds yield identical scenarios, so it may be used by tests and benchmarks alike.
+ * <p>
+ * Each line runs eastbound along a grid row with a stop every {@link #LINK_SEGMENTS_PER_LEG} link segments, lines sharing a row start at different
+ * columns. Each stop is a transfer zone with a directed connectoid on the link segment entering the stop node, so every stop of a route, including
+ * the first, resolves to a stop facility. Patterns of a line share their stops but differ in leg timings, so each pattern becomes a separate MATSim
+ * transit route. The departures of a pattern are spread over two trip schedules with identical leg timings, so they are grouped when persisted.
+ * </p>
+ *
+ * @author markr
+ *
+ */
+public class SyntheticPtScenarioGenerator {
+
+  /** number of link segments between consecutive stops */
+  public static final int LINK_SEGMENTS_PER_LEG = 2;
+
+  /** number of trip schedules the departures of a pattern are spread over */
+  private static final int SCHEDULES_PER_PATTERN = 2;
+
+  /** first departure of the day in seconds (05:00) */
+  private static final int FIRST_DEPARTURE_SECONDS = 5 * 3600;
+
+  /** period in which departures of a pattern are spread in seconds (18 hours) */
+  private static final int SERVICE_PERIOD_SECONDS = 18 * 3600;
+
+  /** travel time of a leg of the first pattern in seconds */
+  private static final int LEG_TRAVEL_TIME_SECONDS = 60;
+
+  /** dwell time at each stop in seconds */
+  private static final int DWELL_TIME_SECONDS = 20;
+
+  /** seed used for the network */
+  private final long seed;
+
+  /** the network generator, retaining the grid nodes */
+  private SyntheticNetworkGenerator networkGenerator;
+
+  /** the zoning being generated */
+  private Zoning zoning;
+
+  /** the service network layer being generated */
+  private ServiceNetworkLayerImpl serviceLayer;
+
+  /** bus mode */
+  private Mode bus;
+
+  /** stop connectoids already created by access link segment id */
+  private final Map<Long, Boolean> stopByAccessLinkSegmentId = new HashMap<>();
+
+  /** service nodes already created by physical node id */
+  private final Map<Long, ServiceNode> serviceNodeByNodeId = new HashMap<>();
+
+  /** service leg segments already created by the id of their first physical link segment */
+  private final Map<Long, ServiceLegSegment> legSegmentByFirstLinkSegmentId = new HashMap<>();
+
+  /**
+   * Find the link segment from one node to another
+   *
+   * @param from upstream node
+   * @param to downstream node
+   * @return link segment
+   */
+  private static MacroscopicLinkSegment findLinkSegment(Node from, Node to) {
+    for(MacroscopicLinkSegment exitLinkSegment : from.<MacroscopicLinkSegment>getExitLinkSegments()) {
+      if(exitLinkSegment.getDownstreamNode().equals(to)) {
+        return exitLinkSegment;
+      }
+    }
+    throw new IllegalStateException(String.format("No link segment between synthetic nodes %s and %s", from.getXmlId(), to.getXmlId()));
+  }
+
+  /**
+   * Register a stop, i.e., transfer zone and connectoid, on the downstream node of the access link segment, unless it already exists
+   *
+   * @param accessLinkSegment of the stop
+   */
+  private void registerStop(MacroscopicLinkSegment accessLinkSegment) {
+    if(stopByAccessLinkSegmentId.putIfAbsent(accessLinkSegment.getId(), Boolean.TRUE) != null) {
+      return;
+    }
+    var stopNode = accessLinkSegment.getDownstreamNode();
+    var transferZone = zoning.getTransferZones().getFactory().registerNew(TransferZoneType.PLATFORM, true /* internal id as xml id */);
+    transferZone.setName(String.format("stop %s", stopNode.getXmlId()));
+    transferZone.setGeometry(PlanitJtsUtils.createPoint(stopNode.getPosition().getX(), stopNode.getPosition().getY()));
+
+    var connectoid = zoning.getTransferConnectoids().getFactory().registerNew(accessLinkSegment, transferZone, true /* node access downstream */);
+    connectoid.setXmlId(String.valueOf(connectoid.getId()));
+    connectoid.addAllowedMode(transferZone, bus);
+  }
+
+  /**
+   * Collect the service leg segment running over the given link segments, creating it when absent
+   *
+   * @param physicalLinkSegments of the leg segment in order
+   * @return service leg segment
+   */
+  private ServiceLegSegment collectLegSegment(List<LinkSegment> physicalLinkSegments) {
+    var existing = legSegmentByFirstLinkSegmentId.get(physicalLinkSegments.get(0).getId());
+    if(existing != null) {
+      return existing;
+    }
+    var from = collectServiceNode(physicalLinkSegments.get(0).getUpstreamNode());
+    var to = collectServiceNode(physicalLinkSegments.get(physicalLinkSegments.size() - 1).getDownstreamNode());
+    var leg = serviceLayer.getLegs().getFactory().registerNew(from, to, true /* register on service nodes */);
+    var legSegment = serviceLayer.getLegSegments().getFactory().registerNew(leg, true /* direction ab */, true /* register on service node and leg */);
+    legSegment.setPhysicalParentSegments(physicalLinkSegments);
+    legSegmentByFirstLinkSegmentId.put(physicalLinkSegments.get(0).getId(), legSegment);
+    return legSegment;
+  }
+
+  /**
+   * Collect the service node of a physical node, creating it when absent
+   *
+   * @param node to collect service node for
+   * @return service node
+   */
+  private ServiceNode collectServiceNode(Node node) {
+    return serviceNodeByNodeId.computeIfAbsent(node.getId(), id -> serviceLayer.getServiceNodes().getFactory().registerNew(node, true /* sync xml id */));
+  }
+
+  /**
+   * Constructor
+   *
+   * @param seed to use, identical seeds yield identical scenarios
+   */
+  public SyntheticPtScenarioGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Generate the scenario. Ids are generated by the global id grouping token, so reset the id generator beforehand to obtain identical ids across runs
+   *
+   * @param numberOfLines number of bus lines (routed services)
+   * @param patternsPerLine number of patterns (distinct leg timings) per line
+   * @param stopsPerPattern number of stops per pattern, at least two
+   * @param departuresPerPattern number of departures per pattern, at least one
+   * @return generated scenario
+   */
+  public SyntheticPtScenario generate(int numberOfLines, int patternsPerLine, int stopsPerPattern, int departuresPerPattern) {
+    final int theStopsPerPattern = Math.max(2, stopsPerPattern);
+    final int theDeparturesPerPattern = Math.max(1, departuresPerPattern);
+    final int linkSegmentsPerPattern = (theStopsPerPattern - 1) * LINK_SEGMENTS_PER_LEG;
+
+    /* lines sharing a row start at different columns, the first column is kept free so each first stop has an entry link segment */
+    final int startColumns = (int) Math.ceil(Math.sqrt(Math.max(1, numberOfLines)));
+    final int gridSize = 1 + linkSegmentsPerPattern + startColumns;
+
+    this.networkGenerator = new SyntheticNetworkGenerator(seed);
+    MacroscopicNetwork network = networkGenerator.generateUrbanGrid(gridSize);
+    this.bus = network.getModes().get(PredefinedModeType.BUS);
+
+    this.zoning = new Zoning(IdGroupingToken.collectGlobalToken(), network.getNetworkGroupingTokenId());
+    var serviceNetwork = new ServiceNetwork(IdGroupingToken.collectGlobalToken(), network);
+    this.serviceLayer = (ServiceNetworkLayerImpl) serviceNetwork.getTransportLayers().getFactory().registerNew(network.getTransportLayers().getFirst());
+    var routedServices = new RoutedServices(IdGroupingToken.collectGlobalToken(), serviceNetwork);
+    var routedServicesLayer = routedServices.getLayers().getFactory().registerNew(serviceLayer);
+
+    final int headwaySeconds = Math.max(1, SERVICE_PERIOD_SECONDS / theDeparturesPerPattern);
+    long numberOfDepartures = 0;
+    for(int line = 0; line < numberOfLines; ++line) {
+      final int row = line % gridSize;
+      final int startColumn = 1 + (line / gridSize) % startColumns;
+
+      /* stops and legs shared by all patterns of the line */
+      registerStop(findLinkSegment(networkGenerator.getGridNode(row, startColumn - 1), networkGenerator.getGridNode(row, startColumn)));
+      List<ServiceLegSegment> legSegments = new ArrayList<>(theStopsPerPattern - 1);
+      for(int leg = 0; leg < theStopsPerPattern - 1; ++leg) {
+        List<LinkSegment> physicalLinkSegments = new ArrayList<>(LINK_SEGMENTS_PER_LEG);
+        for(int offset = 0; offset < LINK_SEGMENTS_PER_LEG; ++offset) {
+          int column = startColumn + leg * LINK_SEGMENTS_PER_LEG + offset;
+          physicalLinkSegments.add(findLinkSegment(networkGenerator.getGridNode(row, column), networkGenerator.getGridNode(row, column + 1)));
+        }
+        registerStop((MacroscopicLinkSegment) physicalLinkSegments.get(LINK_SEGMENTS_PER_LEG - 1));
+        legSegments.add(collectLegSegment(physicalLinkSegments));
+      }
+
+      var routedService = routedServicesLayer.getServicesByMode(bus).getFactory().registerNew();
+      routedService.setXmlId(String.valueOf(routedService.getId()));
+      routedService.setName(String.format("line %d", line));
+
+      for(int pattern = 0; pattern < patternsPerLine; ++pattern) {
+        final var legTravelTime = LocalTime.ofSecondOfDay(LEG_TRAVEL_TIME_SECONDS + 10L * pattern);
+        final var dwellTime = LocalTime.ofSecondOfDay(DWELL_TIME_SECONDS);
+        final int firstDeparture = FIRST_DEPARTURE_SECONDS + (line * 7 + pattern * 3) % headwaySeconds;
+
+        for(int schedule = 0; schedule < Math.min(SCHEDULES_PER_PATTERN, theDeparturesPerPattern); ++schedule) {
+          var tripSchedule = routedService.getTripInfo().getScheduleBasedTrips().getFactory().registerNew();
+          tripSchedule.setXmlId(String.valueOf(tripSchedule.getId()));
+          for(var legSegment : legSegments) {
+            tripSchedule.addRelativeLegSegmentTiming(legSegment, legTravelTime, dwellTime);
+          }
+          for(int departure = schedule; departure < theDeparturesPerPattern; departure += SCHEDULES_PER_PATTERN) {
+            tripSchedule.getDepartures().getFactory().registerNew(
+                ExtendedLocalTime.of(MatsimTimeFormatter.format(firstDeparture + departure * headwaySeconds)));
+            ++numberOfDepartures;
+          }
+        }
+      }
+    }
+
+    var scenario = new SyntheticPtScenario(network, zoning, serviceNetwork, routedServices, numberOfDepartures);
+    this.zoning = null;
+    this.serviceLayer = null;
+    this.networkGenerator = null;
+    stopByAccessLinkSegmentId.clear();
+    serviceNodeByNodeId.clear();
+    legSegmentByFirstLinkSegmentId.clear();
+    return scenario;
+  }
+}